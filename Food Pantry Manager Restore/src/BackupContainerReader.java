@@ -0,0 +1,316 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
+import org.jasypt.util.binary.BasicBinaryEncryptor;
+
+/**
+ * Reads a backup file written by Food Pantry Manager (its BackupContainer
+ * class describes the layout) and hands its rows to a restore target.
+ * The row counts and checksums in the file's manifest are checked once every
+ * block has been handed over, so a damaged or cut off file is reported, but
+ * only after the rows before the damage have reached the target. Targets
+ * therefore keep nothing for good until IRestoreTarget.finish(), which is
+ * only called once every file has been read and checked.
+ *
+ * Blocks are decrypted and encoded on several threads at once, and written
+ * out as they finish, in order; only a few blocks are in memory at a
+ * time, however large the backup.
+ *
+ * Version 2 files are encrypted with AES-GCM under a key derived once from
+ * the password, with the salt and iteration count in the header; every block
+ * and the manifest are authenticated. Version 1 files, encrypted a block at a
+ * time with Jasypt, are still read.
+ *
+ * @author Scott Hoelsema
+ */
+public class BackupContainerReader {
+	public static final String FILE_EXTENSION = ".fpmb";
+	private static final int FORMAT_VERSION = 2; // The newest version this can read
+	private static final int MANIFEST_SECTION = -1; // Section number the manifest is encrypted under
+	private static final int MAX_ITERATIONS = 100000000; // More would take hours; the header must be damaged
+	private static final byte[] MAGIC = {'F', 'P', 'M', 'B'};
+	private static final byte SECTION = 'S';
+	private static final byte MANIFEST = 'M';
+
+	/**
+	 * Whether a file is a backup file of this kind, rather than an older
+	 * backup of encrypted SQL
+	 */
+	public static boolean isContainer(File file) {
+		return file.getName().endsWith(FILE_EXTENSION);
+	}
+
+	/**
+	 * Decrypt a backup file and write its rows to a restore target
+	 *
+	 * @param in
+	 *            The backup file's contents; closed by this method
+	 * @param name
+	 *            The backup file's name, for messages
+	 * @param password
+	 *            The password the backup was encrypted with
+	 * @param target
+	 *            Where the rows go
+	 * @param workers
+	 *            Threads to decrypt on, from ParallelDecryptor.createWorkers()
+	 * @throws IOException
+	 *             The file could not be read, is not a backup file, or is
+	 *             damaged
+	 * @throws EncryptionOperationNotPossibleException
+	 *             The password is wrong
+	 */
+	public static <T> void read(InputStream file, String name, String password, final IRestoreTarget<T> target, ExecutorService workers) throws IOException {
+		ArrayList<BackupSection> sections = new ArrayList<BackupSection>();
+		ByteArrayOutputStream header = new ByteArrayOutputStream(); // As read, to check the manifest against
+		DataOutputStream headerCopy = new DataOutputStream(header);
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC)) {
+				throw new IOException(name + " is not a Food Pantry Manager backup.");
+			}
+			int version = in.readInt();
+			if(version < 1 || version > FORMAT_VERSION) {
+				throw new IOException(name + " was made by a newer version of Food Pantry Manager.");
+			}
+			headerCopy.write(magic);
+			headerCopy.writeInt(version);
+			headerCopy.writeBoolean(in.readBoolean()); // Incremental; its rows say how to restore them
+			headerCopy.writeLong(in.readLong()); // When the backup was made
+
+			final BlockDecryptor decryptor;
+			if(version == 1) {
+				decryptor = new JasyptDecryptor(password);
+			} else {
+				byte[] salt = new byte[in.readUnsignedByte()];
+				in.readFully(salt);
+				int iterations = in.readInt();
+				if(iterations <= 0 || iterations > MAX_ITERATIONS) {
+					throw new IOException(name + " is damaged.");
+				}
+				headerCopy.writeByte(salt.length);
+				headerCopy.write(salt);
+				headerCopy.writeInt(iterations);
+				decryptor = new GcmDecryptor(password, salt, iterations);
+			}
+
+			// Blocks are counted and checksummed as they are written, in order
+			ParallelDecryptor<DecodedBlock<T>> blocks = new ParallelDecryptor<DecodedBlock<T>>(workers) {
+				protected void write(DecodedBlock<T> decoded) throws IOException {
+					decoded.section.crc.update(decoded.block);
+					decoded.section.rows += decoded.rows;
+					target.write(decoded.section, decoded.encoded);
+				}
+			};
+			byte marker;
+			try {
+				marker = in.readByte();
+				while(marker == SECTION) {
+					final BackupSection section = new BackupSection(in);
+					final int number = sections.size();
+					final byte[] tableName = section.table.getBytes(StandardCharsets.UTF_8);
+					long block = 0;
+					for(int length = in.readInt(); length != 0; length = in.readInt()) {
+						final long blockNumber = block++;
+						final byte[] encrypted = readBytes(in, length);
+						blocks.add(new Callable<DecodedBlock<T>>() {
+							public DecodedBlock<T> call() throws IOException {
+								byte[] block = inflate(decryptor.decrypt(number, blockNumber, tableName, encrypted));
+								ArrayList<Object[]> rows = section.decode(block);
+								return new DecodedBlock<T>(section, block, rows.size(), target.encode(section, rows));
+							}
+						});
+					}
+					sections.add(section);
+					marker = in.readByte();
+				}
+				blocks.finish();
+			} finally {
+				blocks.close();
+			}
+			if(marker != MANIFEST) {
+				throw new IOException(name + " is damaged.");
+			}
+
+			// Every section must be there, with every row intact
+			DataInputStream manifest = in;
+			if(version > 1) {
+				byte[] encrypted = readBytes(in, in.readInt());
+				manifest = new DataInputStream(new ByteArrayInputStream(decryptor.decrypt(MANIFEST_SECTION, 0, header.toByteArray(), encrypted)));
+			}
+			if(manifest.readInt() != sections.size()) {
+				throw new IOException(name + " is missing tables.");
+			}
+			for(BackupSection section : sections) {
+				String table = manifest.readUTF();
+				long rows = manifest.readLong();
+				long crc = manifest.readLong();
+				if(!table.equals(section.table) || rows != section.rows || crc != section.crc.getValue()) {
+					throw new IOException(name + " is damaged; the " + section.table + " rows do not match its manifest.");
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+		if(length < 0) {
+			throw new IOException("Backup block is damaged.");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static byte[] inflate(byte[] compressed) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			ByteArrayOutputStream block = new ByteArrayOutputStream(compressed.length * 4);
+			byte[] chunk = new byte[8192];
+			while(!inflater.finished()) {
+				int n = inflater.inflate(chunk);
+				if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Backup block is cut off.");
+				}
+				block.write(chunk, 0, n);
+			}
+			return block.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IOException("Backup block is damaged.", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Decrypts the blocks of one backup file; safe to use from several
+	 * threads at once
+	 */
+	private static abstract class BlockDecryptor {
+		/**
+		 * @param section
+		 *            The section's number in the file, or MANIFEST_SECTION
+		 * @param block
+		 *            The block's number in the section
+		 * @param associated
+		 *            What the block was bound to when it was encrypted
+		 * @param encrypted
+		 *            The block as written
+		 * @throws EncryptionOperationNotPossibleException
+		 *             The password is wrong, or the block was changed
+		 */
+		abstract byte[] decrypt(int section, long block, byte[] associated, byte[] encrypted) throws IOException;
+	}
+
+	/**
+	 * Format version 1: each block encrypted on its own by Jasypt
+	 */
+	private static class JasyptDecryptor extends BlockDecryptor {
+		private final ThreadLocal<BasicBinaryEncryptor> encryptors;
+
+		JasyptDecryptor(final String password) {
+			encryptors = new ThreadLocal<BasicBinaryEncryptor>() {
+				@Override
+				protected BasicBinaryEncryptor initialValue() {
+					BasicBinaryEncryptor bbe = new BasicBinaryEncryptor();
+					bbe.setPassword(password);
+					return bbe;
+				}
+			};
+		}
+
+		byte[] decrypt(int section, long block, byte[] associated, byte[] encrypted) {
+			return encryptors.get().decrypt(encrypted);
+		}
+	}
+
+	/**
+	 * Format version 2: AES-GCM, with the nonce made from the section and
+	 * block numbers as Food Pantry Manager's BackupCipher makes it
+	 */
+	private static class GcmDecryptor extends BlockDecryptor {
+		private final SecretKeySpec key;
+		private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+			@Override
+			protected Cipher initialValue() {
+				try {
+					return Cipher.getInstance("AES/GCM/NoPadding");
+				} catch (GeneralSecurityException e) {
+					throw new IllegalStateException(e); // Checked for when the key was made
+				}
+			}
+		};
+
+		GcmDecryptor(String password, byte[] salt, int iterations) throws IOException {
+			PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 256);
+			try {
+				key = new SecretKeySpec(SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded(), "AES");
+				Cipher.getInstance("AES/GCM/NoPadding");
+			} catch (GeneralSecurityException e) {
+				throw new IOException("AES-GCM decryption is not available; restore with Java 8 or later.", e);
+			} finally {
+				spec.clearPassword();
+			}
+		}
+
+		byte[] decrypt(int section, long block, byte[] associated, byte[] encrypted) throws IOException {
+			try {
+				Cipher cipher = ciphers.get();
+				cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, ByteBuffer.allocate(12).putInt(section).putLong(block).array()));
+				cipher.updateAAD(associated);
+				return cipher.doFinal(encrypted);
+			} catch (AEADBadTagException e) {
+				throw new EncryptionOperationNotPossibleException(); // A wrong password and a changed block look the same
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Backup block could not be decrypted.", e);
+			}
+		}
+	}
+
+	/**
+	 * One block's rows, encoded for the restore target
+	 */
+	private static class DecodedBlock<T> {
+		final BackupSection section;
+		final byte[] block; // Decrypted and inflated, for the section's checksum
+		final int rows;
+		final T encoded;
+
+		DecodedBlock(BackupSection section, byte[] block, int rows, T encoded) {
+			this.section = section;
+			this.block = block;
+			this.rows = rows;
+			this.encoded = encoded;
+		}
+	}
+}
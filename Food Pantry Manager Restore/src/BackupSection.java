@@ -0,0 +1,163 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * One table's section of a backup file: what its rows hold and how they are
+ * restored, and what has been restored of them so far. Blocks can be decoded
+ * on any thread; crc and rows are only updated as blocks are written, in
+ * order.
+ *
+ * @author Scott Hoelsema
+ */
+public class BackupSection {
+	public static final byte MODE_INSERT = 0; // Full backup: INSERT each row
+	public static final byte MODE_UPSERT = 1; // Incremental backup: INSERT, or overwrite the row already there
+	public static final byte MODE_DELETE = 2; // Deleted rows: table_name, id_column, row_id of the row to delete
+	public static final byte INT = 1; // Column type; the others are text
+	public static final String DEFAULT_DATABASE = "food_pantry_manager"; // What Food Pantry Manager's own database is called
+	final String table;
+	final byte mode;
+	final String[] columns;
+	final byte[] types;
+	final String[] derivedColumns;
+	final CRC32 crc = new CRC32();
+	long rows = 0;
+
+	/**
+	 * Read the section's header
+	 */
+	BackupSection(DataInputStream in) throws IOException {
+		table = in.readUTF();
+		mode = in.readByte();
+		columns = new String[in.readShort()];
+		types = new byte[columns.length];
+		for(int i = 0; i < columns.length; i++) {
+			columns[i] = in.readUTF();
+			types[i] = in.readByte();
+		}
+		derivedColumns = new String[in.readShort()];
+		for(int i = 0; i < derivedColumns.length; i++) {
+			derivedColumns[i] = in.readUTF();
+		}
+		if(mode != MODE_INSERT && mode != MODE_UPSERT && mode != MODE_DELETE) {
+			throw new IOException("Unknown restore mode for " + table + ".");
+		}
+		if(mode == MODE_DELETE && columns.length != 3) {
+			throw new IOException("Deleted rows are not as expected.");
+		}
+	}
+
+	/**
+	 * Split one decrypted, inflated block into rows. A value is an Integer
+	 * for INT columns, otherwise a String, and null for NULL.
+	 */
+	ArrayList<Object[]> decode(byte[] block) throws IOException {
+		ArrayList<Object[]> decoded = new ArrayList<Object[]>();
+		ByteBuffer buffer = ByteBuffer.wrap(block);
+		try {
+			while(buffer.hasRemaining()) {
+				int start = buffer.position();
+				int end = start + 4 + buffer.getInt();
+				if(end > block.length || end < start + 4) {
+					throw new IOException("Backup row is cut off.");
+				}
+
+				Object[] values = new Object[columns.length];
+				buffer.limit(end); // A row with too few bytes runs into the limit rather than the next row
+				for(int i = 0; i < columns.length; i++) {
+					if(buffer.get() == 0) {
+						values[i] = null;
+					} else if(types[i] == INT) {
+						values[i] = buffer.getInt();
+					} else {
+						int length = buffer.getInt();
+						if(length < 0 || length > end - buffer.position()) {
+							throw new IOException("Backup row is damaged.");
+						}
+						values[i] = new String(block, buffer.position(), length, StandardCharsets.UTF_8);
+						buffer.position(buffer.position() + length);
+					}
+				}
+				if(buffer.position() != end) {
+					throw new IOException("Backup row does not match its table's columns.");
+				}
+				buffer.limit(block.length);
+				decoded.add(values);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Backup row is cut off.", e);
+		}
+		return decoded;
+	}
+
+	/**
+	 * The start of an INSERT into this section's table, up to its rows of
+	 * values
+	 *
+	 * @param database
+	 *            The database the table is in
+	 */
+	String insertPrefix(String database) {
+		StringBuilder sb = new StringBuilder("INSERT INTO " + quoteName(database) + ".`" + table + "` (");
+		for(int i = 0; i < columns.length; i++) {
+			sb.append(i > 0 ? "," : "").append('`').append(columns[i]).append('`');
+		}
+		return sb.append(") VALUES ").toString();
+	}
+
+	/**
+	 * What follows the rows of an INSERT: for an incremental backup,
+	 * overwrite rows that are already there. Not REPLACE, which deletes the
+	 * old row first and would set off the foreign keys' ON DELETE actions.
+	 */
+	String insertSuffix() {
+		if(mode != MODE_UPSERT) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder(" ON DUPLICATE KEY UPDATE ");
+		for(int i = 1; i < columns.length; i++) { // The first column is the primary key
+			sb.append(i > 1 ? ", " : "").append('`').append(columns[i]).append("`=VALUES(`").append(columns[i]).append("`)");
+		}
+		for(String derived : derivedColumns) {
+			sb.append(", `").append(derived).append("`=NULL"); // Worked out again by Food Pantry Manager
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The start of a DELETE of the row a deleted row names, up to the name of
+	 * its ID column
+	 *
+	 * @param database
+	 *            The database the table is in
+	 */
+	static String deletePrefix(String database, Object[] deletedRow) throws IOException {
+		return "DELETE FROM " + quoteName(database) + ".`" + checkName(deletedRow[0]) + "` WHERE `" + checkName(deletedRow[1]) + "`";
+	}
+
+	/**
+	 * A database name in backquotes
+	 */
+	static String quoteName(String name) {
+		return "`" + name.replace("`", "``") + "`";
+	}
+
+	/**
+	 * A table or column name from a deleted row, checked so it can go in
+	 * backquotes
+	 */
+	private static String checkName(Object name) throws IOException {
+		if(!(name instanceof String) || !((String)name).matches("[A-Za-z0-9_]+")) {
+			throw new IOException("Unexpected name in backup: " + name);
+		}
+		return (String)name;
+	}
+}
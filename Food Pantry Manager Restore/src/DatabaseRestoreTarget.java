@@ -0,0 +1,244 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Restores straight into a database. Rows are sent with batched prepared
+ * statements, which the MySQL driver rewrites into multi-row INSERTs, sent
+ * every so many rows. Foreign key and unique checks are turned off
+ * for the load, as CreateDatabaseSQL.sql does, so tables load in any order
+ * and without a lookup per row. Foreign key checks are turned back on while
+ * an incremental backup's deleted rows are deleted, so deleting a client
+ * sets off the same ON DELETE actions as the original delete did.
+ *
+ * Every statement names the chosen database, including those from backups
+ * made before .fpmb files, so a recovery drill can restore into a scratch
+ * database beside the real one.
+ *
+ * The whole restore is one transaction, committed in finish(), which is only
+ * called once every backup file has been read and its manifest checked. A
+ * restore that fails part way, including one stopped by a damaged or cut off
+ * file, is rolled back and leaves the database as it was. InnoDB keeps undo
+ * records for every row until then, so a very large restore needs room for
+ * them.
+ *
+ * @author Scott Hoelsema
+ */
+public class DatabaseRestoreTarget implements IRestoreTarget<ArrayList<Object[]>> {
+	public static final int DEFAULT_BATCH_SIZE = 5000;
+	private static final String CONNECTION_OPTIONS = "?rewriteBatchedStatements=true&useUnicode=true&characterEncoding=UTF-8";
+	private static final String LEGACY_INSERT = "INSERT INTO `" + BackupSection.DEFAULT_DATABASE + "`."; // How statements from backups made before .fpmb files start
+	private final Connection conn;
+	private final String database;
+	private final int batchSize;
+	private final IRestoreProgress progress;
+	private final HashMap<String, PreparedStatement> prepared = new HashMap<String, PreparedStatement>();
+	private final Statement plain; // Statements from backups made before .fpmb files
+	private Statement batching; // The statement rows are being batched on; run before switching to another, to keep the backup's order
+	private boolean keyChecksOff = false;
+	private int unsent = 0;
+	private long loaded = 0;
+	private boolean finished = false;
+
+	/**
+	 * @param host
+	 *            The MySQL server, as host or host:port
+	 * @param database
+	 *            The database to restore into
+	 * @param user
+	 *            A user that may insert into and delete from every table
+	 * @param password
+	 *            The user's password
+	 * @param batchSize
+	 *            Rows sent to the server at a time
+	 * @param progress
+	 *            Told the number of rows loaded after each batch is sent
+	 */
+	public DatabaseRestoreTarget(String host, String database, String user, String password, int batchSize, IRestoreProgress progress) throws IOException {
+		this.database = database;
+		this.batchSize = batchSize;
+		this.progress = progress;
+		try {
+			conn = DriverManager.getConnection("jdbc:mysql://" + host + "/" + database + CONNECTION_OPTIONS, user, password);
+			conn.setAutoCommit(false);
+			plain = conn.createStatement();
+		} catch (SQLException e) {
+			throw new IOException("Could not connect to the database: " + e.getMessage(), e);
+		}
+	}
+
+	public void start(boolean replay) throws IOException {
+		try {
+			plain.execute("SET @OLD_UNIQUE_CHECKS=@@UNIQUE_CHECKS, UNIQUE_CHECKS=0;");
+			plain.execute("SET @OLD_FOREIGN_KEY_CHECKS=@@FOREIGN_KEY_CHECKS, FOREIGN_KEY_CHECKS=0;");
+			keyChecksOff = true;
+		} catch (SQLException e) {
+			throw databaseError(e);
+		}
+	}
+
+	public ArrayList<Object[]> encode(BackupSection section, ArrayList<Object[]> rows) {
+		return rows; // Bound on the restoring thread, which owns the connection
+	}
+
+	public void write(BackupSection section, ArrayList<Object[]> rows) throws IOException {
+		try {
+			setKeyChecksOff(section.mode != BackupSection.MODE_DELETE);
+			if(section.mode == BackupSection.MODE_DELETE) {
+				for(Object[] row : rows) {
+					PreparedStatement delete = prepare(BackupSection.deletePrefix(database, row) + "=?");
+					bind(delete, 1, BackupSection.INT, row[2]);
+					add(delete);
+				}
+				return;
+			}
+
+			StringBuilder sql = new StringBuilder(section.insertPrefix(database)).append('(');
+			for(int i = 0; i < section.columns.length; i++) {
+				sql.append(i > 0 ? ",?" : "?");
+			}
+			PreparedStatement insert = prepare(sql.append(')').append(section.insertSuffix()).toString());
+			for(Object[] row : rows) {
+				for(int i = 0; i < row.length; i++) {
+					bind(insert, i + 1, section.types[i], row[i]);
+				}
+				add(insert);
+			}
+		} catch (SQLException e) {
+			throw databaseError(e);
+		}
+	}
+
+	public void writeStatements(ArrayList<String> statements) throws IOException {
+		try {
+			setKeyChecksOff(true);
+			for(String statement : statements) {
+				statement = statement.trim();
+				if(statement.endsWith(";")) {
+					statement = statement.substring(0, statement.length() - 1);
+				}
+				if(statement.startsWith(LEGACY_INSERT)) {
+					statement = "INSERT INTO " + BackupSection.quoteName(database) + "." + statement.substring(LEGACY_INSERT.length());
+				}
+				if(!statement.isEmpty()) {
+					plain.addBatch(statement);
+					add(plain);
+				}
+			}
+		} catch (SQLException e) {
+			throw databaseError(e);
+		}
+	}
+
+	/**
+	 * Commit everything restored; every backup file's manifest has been
+	 * checked by now
+	 */
+	public void finish() throws IOException {
+		try {
+			send();
+			conn.commit();
+			plain.execute("SET FOREIGN_KEY_CHECKS=@OLD_FOREIGN_KEY_CHECKS;");
+			plain.execute("SET UNIQUE_CHECKS=@OLD_UNIQUE_CHECKS;");
+			finished = true;
+		} catch (SQLException e) {
+			throw databaseError(e);
+		}
+	}
+
+	/**
+	 * Roll back the restore, unless finished, and disconnect
+	 */
+	@Override
+	public void close() {
+		try {
+			if(!finished) {
+				conn.rollback();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		try {
+			conn.close(); // Closes the statements too
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement statement = prepared.get(sql);
+		if(statement == null) {
+			statement = conn.prepareStatement(sql);
+			prepared.put(sql, statement);
+		}
+		return statement;
+	}
+
+	private static void bind(PreparedStatement statement, int index, byte type, Object value) throws SQLException {
+		if(type == BackupSection.INT) {
+			if(value == null) {
+				statement.setNull(index, Types.INTEGER);
+			} else {
+				statement.setInt(index, (Integer)value);
+			}
+		} else {
+			statement.setString(index, (String)value); // MySQL converts dates and timestamps from their text
+		}
+	}
+
+	/**
+	 * Add the row just bound or batched on a statement, sending the batch
+	 * once there are enough
+	 */
+	private void add(Statement statement) throws SQLException {
+		if(statement instanceof PreparedStatement) {
+			((PreparedStatement)statement).addBatch();
+		}
+		if(batching != null && batching != statement) {
+			batching.executeBatch();
+		}
+		batching = statement;
+		unsent++;
+		if(unsent >= batchSize) {
+			send();
+		}
+	}
+
+	/**
+	 * Turn foreign key checks off or on, once the rows batched so far have
+	 * been sent, since the setting applies when a statement runs
+	 */
+	private void setKeyChecksOff(boolean off) throws SQLException {
+		if(off != keyChecksOff) {
+			if(batching != null) {
+				batching.executeBatch();
+				batching = null;
+			}
+			plain.execute(off ? "SET FOREIGN_KEY_CHECKS=0;" : "SET FOREIGN_KEY_CHECKS=1;");
+			keyChecksOff = off;
+		}
+	}
+
+	private void send() throws SQLException {
+		if(batching != null) {
+			batching.executeBatch();
+			batching = null;
+		}
+		loaded += unsent;
+		unsent = 0;
+		progress.loaded(loaded);
+	}
+
+	private static IOException databaseError(SQLException e) {
+		return new IOException("Database error: " + e.getMessage(), e);
+	}
+}
@@ -0,0 +1,24 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+/**
+ * Told how a restore is getting on, and asked whether to stop
+ *
+ * @author Scott Hoelsema
+ */
+public interface IRestoreProgress {
+	/**
+	 * @param bytes
+	 *            How much of the backup files has been read so far
+	 */
+	void read(long bytes);
+
+	/**
+	 * @param rows
+	 *            How many rows have been sent to the database so far; they
+	 *            are committed when the restore finishes
+	 */
+	void loaded(long rows);
+
+	boolean isCanceled();
+}
@@ -0,0 +1,51 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Where a restore puts the rows it decrypts. Each piece of a backup is first
+ * encoded on one of the decryption threads, then written on the restoring
+ * thread, in the order of the backup.
+ *
+ * @author Scott Hoelsema
+ */
+public interface IRestoreTarget<T> extends Closeable {
+	/**
+	 * Called once, before anything is written
+	 *
+	 * @param replay
+	 *            Whether several backups are being replayed, in which rows
+	 *            may arrive before the rows they refer to
+	 */
+	void start(boolean replay) throws IOException;
+
+	/**
+	 * Prepare rows of a .fpmb backup for writing; called on any thread
+	 *
+	 * @param rows
+	 *            Values as given by BackupSection.decode
+	 */
+	T encode(BackupSection section, ArrayList<Object[]> rows) throws IOException;
+
+	/**
+	 * Write rows prepared by encode
+	 */
+	void write(BackupSection section, T encoded) throws IOException;
+
+	/**
+	 * Write statements from a backup made before .fpmb files, each ending in
+	 * ";\n"
+	 */
+	void writeStatements(ArrayList<String> statements) throws IOException;
+
+	/**
+	 * Called once everything has been written and every backup file's
+	 * manifest has been checked. Rows from a file that turns out to be
+	 * damaged have been written by then, so a target keeps nothing for good
+	 * before this is called.
+	 */
+	void finish() throws IOException;
+}
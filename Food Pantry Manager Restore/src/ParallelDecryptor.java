@@ -0,0 +1,116 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decrypts the pieces of a backup on several threads at once and hands the
+ * results to write() in the order the pieces were added, so the restore
+ * script comes out in the same order as the backup. Adding waits once a few
+ * pieces per thread are outstanding, so memory stays bounded however large
+ * the backup.
+ *
+ * @author Scott Hoelsema
+ */
+public abstract class ParallelDecryptor<T> implements Closeable {
+	private static final int PIECES_PER_THREAD = 4;
+	private final ExecutorService workers;
+	private final int maxOutstanding;
+	private final ArrayDeque<Future<T>> outstanding = new ArrayDeque<Future<T>>();
+
+	/**
+	 * @param workers
+	 *            Threads to decrypt on, from createWorkers(); left running
+	 *            when this is closed
+	 */
+	public ParallelDecryptor(ExecutorService workers) {
+		this.workers = workers;
+		this.maxOutstanding = threadCount() * PIECES_PER_THREAD;
+	}
+
+	/**
+	 * Start the decryption threads, one per processor core; shut them down
+	 * once the restore is done
+	 */
+	public static ExecutorService createWorkers() {
+		return Executors.newFixedThreadPool(threadCount(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Restore-Decryption-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Queue a piece of work. Writes out finished pieces as needed to keep the
+	 * number outstanding bounded.
+	 */
+	public void add(Callable<T> work) throws IOException {
+		outstanding.addLast(workers.submit(work));
+		if(outstanding.size() >= maxOutstanding) {
+			writeOldest();
+		}
+	}
+
+	/**
+	 * Write every piece added so far
+	 */
+	public void finish() throws IOException {
+		while(!outstanding.isEmpty()) {
+			writeOldest();
+		}
+	}
+
+	/**
+	 * Drop pieces not yet written
+	 */
+	@Override
+	public void close() {
+		for(Future<T> f : outstanding) {
+			f.cancel(true);
+		}
+		outstanding.clear();
+	}
+
+	/**
+	 * Called with each finished piece, in the order they were added, on the
+	 * thread that adds them
+	 */
+	protected abstract void write(T result) throws IOException;
+
+	private void writeOldest() throws IOException {
+		T result;
+		try {
+			result = outstanding.peekFirst().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decrypting backup.", e);
+		} catch (ExecutionException e) {
+			// Let a wrong password (EncryptionOperationNotPossibleException) and damaged files through as themselves
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			} else if(e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException("Error decrypting backup.", e.getCause());
+		}
+		outstanding.removeFirst();
+		write(result);
+	}
+
+	private static int threadCount() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+}
@@ -3,74 +3,255 @@
 
 import java.awt.GridLayout;
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPasswordField;
+import javax.swing.JTextField;
+import javax.swing.ProgressMonitor;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 import org.jasypt.util.text.BasicTextEncryptor;
 
 public class RestoreUtility {	
-	private static void decrypt(File inputFile) {		
-		if(inputFile != null) {
+	private static final String PASSWORD_VARIABLE = "FPM_RESTORE_PASSWORD"; // Where the command line mode looks for the backup password
+	private static final String DATABASE_PASSWORD_VARIABLE = "FPM_DATABASE_PASSWORD"; // And the database password
+	private static final int LEGACY_LINES_PER_BATCH = 256; // Lines of an old backup decrypted together by one thread
+	private static final int PROGRESS_MAXIMUM = 1000;
+	private static final String[] TABLE_ORDER = {"Clients.sql", "Appointments.sql", "Households.sql", "Deletions.sql", "Backup" + BackupContainerReader.FILE_EXTENSION}; // Replay order of the files of one backup; newer backups are a single file
+	
+	/**
+	 * Orders backup files for replay: by the timestamp their names start
+	 * with, so a full backup comes before the incremental backups taken
+	 * after it; then, within one backup, by TABLE_ORDER
+	 */
+	private static final Comparator<File> REPLAY_ORDER = new Comparator<File>() {
+		public int compare(File a, File b) {
+			int order = backupTimestamp(a.getName()).compareTo(backupTimestamp(b.getName()));
+			if(order == 0) {
+				order = Integer.compare(tableRank(a.getName()), tableRank(b.getName()));
+			}
+			return order;
+		}
+	};
+	
+	private static void decrypt(File[] inputFiles) {		
+		if(inputFiles != null && inputFiles.length > 0) {
 			// Prompt for decryption password
 			String decryptionPassword = promptForDecryptionPassword();
 			if(decryptionPassword == null) { // No password provided
 				return;
 			}
 			
-			try {
-				ArrayList<String> lines = new ArrayList<String>();
-				BufferedReader br = new BufferedReader(new FileReader(inputFile));
+			// Restore to a script, or straight into a database
+			Object[] targets = {"Save SQL Script", "Load Into Database"};
+			int choice = JOptionPane.showOptionDialog(null, "Save the restore commands as a SQL script, or load the rows straight into a database?", "Restore To",
+					JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, targets, targets[0]);
+			if(choice == 0) {
+				File saveAs = selectOutputFile();
+				if(saveAs != null) {
+					decrypt(inputFiles, decryptionPassword, saveAs, null);
+				}
+			} else if(choice == 1) {
+				DatabaseSettings database = promptForDatabase();
+				if(database != null) {
+					decrypt(inputFiles, decryptionPassword, null, database);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Restore to a script if saveAs is given, otherwise into the database
+	 */
+	private static void decrypt(File[] inputFiles, String decryptionPassword, File saveAs, DatabaseSettings database) {
+		ProgressMonitor pm = new ProgressMonitor(null, "Restoring backup...", "", 0, PROGRESS_MAXIMUM);
+		try {
+			IRestoreProgress progress = new MonitorProgress(pm, totalLength(inputFiles));
+			if(saveAs != null) {
+				restore(inputFiles, decryptionPassword, new ScriptRestoreTarget(saveAs, ScriptRestoreTarget.DEFAULT_STATEMENT_BYTES), progress);
+				pm.close();
+				JOptionPane.showMessageDialog(null, "Restore commands generated.", "Success", JOptionPane.INFORMATION_MESSAGE);
+			} else {
+				restore(inputFiles, decryptionPassword, database.open(progress), progress);
+				pm.close();
+				JOptionPane.showMessageDialog(null, "Backup restored to the database.", "Success", JOptionPane.INFORMATION_MESSAGE);
+			}
+		} catch (IOException e1) {
+			pm.close();
+			JOptionPane.showMessageDialog(null, e1.getMessage() != null ? e1.getMessage() : "I/O Error", "Error", JOptionPane.ERROR_MESSAGE);
+			e1.printStackTrace();
+		} catch (EncryptionOperationNotPossibleException e) {
+			pm.close();
+			JOptionPane.showMessageDialog(null, "Decryption not possible - the decryption password is likely invalid.", "Error", JOptionPane.ERROR_MESSAGE);
+			String decryptionPassword2 = promptForDecryptionPassword();
+			if(decryptionPassword2 != null) {
+				decrypt(inputFiles, decryptionPassword2, saveAs, database);
+			}
+		}
+	}
+	
+	/**
+	 * Restore a set of backup files. Each file is read, decrypted on several
+	 * threads and handed to the target a piece at a time, so a backup of any
+	 * size restores in the same memory.
+	 * 
+	 * @param inputFiles
+	 *            The backup files; several are a full backup and the
+	 *            incremental backups after it, in any order
+	 * @param decryptionPassword
+	 *            The password the backups were encrypted with
+	 * @param target
+	 *            Where the rows go; closed by this method
+	 * @param progress
+	 *            Told how much has been read, and asked whether to stop
+	 * @throws EncryptionOperationNotPossibleException
+	 *             The password is wrong
+	 */
+	private static <T> void restore(File[] inputFiles, String decryptionPassword, IRestoreTarget<T> target, IRestoreProgress progress) throws IOException {
+		// Several files are a full backup and the incremental backups after it, replayed together; rows may arrive before the rows they refer to
+		inputFiles = inputFiles.clone();
+		Arrays.sort(inputFiles, REPLAY_ORDER);
+		
+		ExecutorService workers = ParallelDecryptor.createWorkers();
+		try {
+			target.start(inputFiles.length > 1);
+			long read = 0;
+			for(File inputFile : inputFiles) {
+				InputStream in = new ProgressInputStream(new FileInputStream(inputFile), progress, read);
+				if(BackupContainerReader.isContainer(inputFile)) {
+					BackupContainerReader.read(in, inputFile.getName(), decryptionPassword, target, workers);
+				} else {
+					decryptLegacy(in, decryptionPassword, target, workers);
+				}
+				read += inputFile.length();
+			}
+			target.finish();
+		} finally {
+			workers.shutdownNow();
+			target.close();
+		}
+	}
+	
+	/**
+	 * Decrypt a backup file from before backups were one .fpmb file: one
+	 * encrypted statement per line. Lines are decrypted a batch at a time on
+	 * the worker threads and written in order.
+	 * 
+	 * @param in
+	 *            The file's contents; closed by this method
+	 */
+	private static <T> void decryptLegacy(InputStream in, final String decryptionPassword, final IRestoreTarget<T> target, ExecutorService workers) throws IOException {
+		final ThreadLocal<BasicTextEncryptor> encryptors = new ThreadLocal<BasicTextEncryptor>() {
+			@Override
+			protected BasicTextEncryptor initialValue() {
 				BasicTextEncryptor bte = new BasicTextEncryptor();
 				bte.setPassword(decryptionPassword);
-				
-				// Read in and decrypt lines
-				String line = bte.decrypt(br.readLine());
-				while(line != null) {
-					lines.add(line);
-					line = bte.decrypt(br.readLine());
+				return bte;
+			}
+		};
+		ParallelDecryptor<ArrayList<String>> lines = new ParallelDecryptor<ArrayList<String>>(workers) {
+			protected void write(ArrayList<String> statements) throws IOException {
+				target.writeStatements(statements);
+			}
+		};
+		
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+		try {
+			// Read in lines, and decrypt them in batches
+			ArrayList<String> batch = new ArrayList<String>(LEGACY_LINES_PER_BATCH);
+			String line = br.readLine();
+			while(line != null) {
+				batch.add(line);
+				line = br.readLine();
+				if(batch.size() == LEGACY_LINES_PER_BATCH || line == null) {
+					final ArrayList<String> encrypted = batch;
+					lines.add(new Callable<ArrayList<String>>() {
+						public ArrayList<String> call() {
+							BasicTextEncryptor bte = encryptors.get();
+							ArrayList<String> statements = new ArrayList<String>(encrypted.size());
+							for(String l : encrypted) {
+								statements.add(bte.decrypt(l)); // Each statement ends with its own newline
+							}
+							return statements;
+						}
+					});
+					batch = new ArrayList<String>(LEGACY_LINES_PER_BATCH);
 				}
-				br.close();
-					
-					saveOutput(lines);
-			} catch (FileNotFoundException e2) {
-				JOptionPane.showMessageDialog(null, "I/O Error", "Error", JOptionPane.ERROR_MESSAGE);
-				e2.printStackTrace();
-			} catch (IOException e1) {
-				JOptionPane.showMessageDialog(null, "I/O Error", "Error", JOptionPane.ERROR_MESSAGE);
-				e1.printStackTrace();
-			} catch (EncryptionOperationNotPossibleException e) {
-				JOptionPane.showMessageDialog(null, "Decryption not possible - the decryption password is likely invalid.", "Error", JOptionPane.ERROR_MESSAGE);
-				decrypt(inputFile);
 			}
+			lines.finish();
+		} finally {
+			lines.close();
+			br.close();
+		}
+	}
+	
+	private static long totalLength(File[] files) {
+		long total = 0;
+		for(File f : files) {
+			total += f.length();
 		}
+		return total;
 	}
 	
 	private static void selectInputFile() {
 		JFileChooser open = new JFileChooser();
-		open.setDialogTitle("Open File to Decrypt...");
+		open.setDialogTitle("Open File(s) to Decrypt...");
+		open.setMultiSelectionEnabled(true); // A full backup and its incremental backups, to restore together
+		FileNameExtensionFilter backupFilter = new FileNameExtensionFilter("Backup File (*.fpmb)", "fpmb");
+		open.addChoosableFileFilter(backupFilter);
 		FileNameExtensionFilter openFilter = new FileNameExtensionFilter("SQL File (*.sql)", "sql");
 		open.addChoosableFileFilter(openFilter);
 		int retVal = open.showOpenDialog(null);
-		File inputFile = open.getSelectedFile();
+		File[] inputFiles = open.getSelectedFiles();
 		
-		if(retVal == JFileChooser.APPROVE_OPTION && open.getSelectedFile() != null) {
-			decrypt(inputFile);
+		if(retVal == JFileChooser.APPROVE_OPTION && inputFiles != null) {
+			decrypt(inputFiles);
 		}
 	}
 	
+	/**
+	 * The timestamp a backup file's name starts with, which Backup gives every
+	 * file of one backup; the table (or "_Backup.fpmb") and "_Incremental"
+	 * are cut off
+	 */
+	private static String backupTimestamp(String fileName) {
+		for(String table : TABLE_ORDER) {
+			if(fileName.endsWith("_" + table)) {
+				String timestamp = fileName.substring(0, fileName.length() - table.length() - 1);
+				if(timestamp.endsWith("_Incremental")) {
+					timestamp = timestamp.substring(0, timestamp.length() - "_Incremental".length());
+				}
+				return timestamp;
+			}
+		}
+		return fileName;
+	}
+	
+	private static int tableRank(String fileName) {
+		for(int i = 0; i < TABLE_ORDER.length; i++) {
+			if(fileName.endsWith(TABLE_ORDER[i])) {
+				return i;
+			}
+		}
+		return TABLE_ORDER.length;
+	}
+	
 	private static String promptForDecryptionPassword() {
 		// Set up custom JPanel with masked password field
 		JPanel decryptionPasswordInputPanel = new JPanel(new GridLayout(1,2));
@@ -87,8 +268,43 @@ public class RestoreUtility {
 		}
 	}
 	
-	private static void saveOutput(ArrayList<String> lines) {
-		// Save decrypted text to file
+	/**
+	 * Ask where to load the backup
+	 * 
+	 * @return The database to load into; null if cancelled
+	 */
+	private static DatabaseSettings promptForDatabase() {
+		JPanel databasePanel = new JPanel(new GridLayout(5,2));
+		JTextField host = new JTextField("localhost:3306");
+		JTextField database = new JTextField(BackupSection.DEFAULT_DATABASE);
+		JTextField user = new JTextField("root");
+		JPasswordField password = new JPasswordField();
+		JTextField batchSize = new JTextField(String.valueOf(DatabaseRestoreTarget.DEFAULT_BATCH_SIZE));
+		databasePanel.add(new JLabel("Server (host:port):"));
+		databasePanel.add(host);
+		databasePanel.add(new JLabel("Database:"));
+		databasePanel.add(database);
+		databasePanel.add(new JLabel("User:"));
+		databasePanel.add(user);
+		databasePanel.add(new JLabel("Password:"));
+		databasePanel.add(password);
+		databasePanel.add(new JLabel("Rows per batch:"));
+		databasePanel.add(batchSize);
+		
+		int result = JOptionPane.showConfirmDialog(null, databasePanel, "Restore Into Database", JOptionPane.OK_CANCEL_OPTION);
+		if(result != JOptionPane.OK_OPTION) {
+			return null;
+		}
+		try {
+			return new DatabaseSettings(host.getText().trim(), database.getText().trim(), user.getText().trim(), new String(password.getPassword()), Integer.parseInt(batchSize.getText().trim()));
+		} catch (NumberFormatException e) {
+			JOptionPane.showMessageDialog(null, "Rows per batch must be a whole number.", "Error", JOptionPane.ERROR_MESSAGE);
+			return promptForDatabase();
+		}
+	}
+	
+	private static File selectOutputFile() {
+		// Choose where to save the decrypted text
 		JFileChooser save = new JFileChooser();
 		save.setDialogTitle("Save Decrypted File As...");
 		FileNameExtensionFilter saveFilter = new FileNameExtensionFilter("SQL File (*.sql)", "sql");
@@ -97,39 +313,249 @@ public class RestoreUtility {
 		int saveRetVal = save.showSaveDialog(null);
 		File saveAs = save.getSelectedFile();
 		
+		if(saveRetVal != JFileChooser.APPROVE_OPTION || saveAs == null) {
+			JOptionPane.showMessageDialog(null, "No output file specified!", "Error", JOptionPane.ERROR_MESSAGE);
+			return null;
+		}
+		
 		// Ascertain being saved as a .sql file
 		int enteredNameLengh = saveAs.getName().length();
 		if(enteredNameLengh < 5 || !saveAs.getName().substring(enteredNameLengh - 4, enteredNameLengh).equals(".sql")) {
 			saveAs = new File(saveAs.getAbsolutePath() + ".sql");
 		}
-		
-		if(saveRetVal == JFileChooser.APPROVE_OPTION) {
-			try {
-				FileOutputStream fout = new FileOutputStream(saveAs);
-				DataOutputStream dout = new DataOutputStream(fout);
-				
-				if(save.getSelectedFile()!=null) {
-					for(String s : lines) {
-						dout.writeBytes(s);
-					}
+		return saveAs;
+	}
+	
+	/**
+	 * Restore without any windows, for scripted recovery drills:
+	 * <pre>
+	 * RestoreUtility -o restore.sql [-p bytes per statement] backup.fpmb [backup.fpmb ...]
+	 * RestoreUtility -db host[:port] -u user [-d database] [-b rows per batch] backup.fpmb [backup.fpmb ...]
+	 * </pre>
+	 * The backup password is taken from the FPM_RESTORE_PASSWORD environment
+	 * variable and the database password from FPM_DATABASE_PASSWORD, if they
+	 * are set; otherwise they are asked for on the console, or read from
+	 * standard input one per line, in that order.
+	 * 
+	 * @return The exit status: 0 on success, 1 if the restore failed, 2 if
+	 *         the command line was wrong
+	 */
+	private static int restoreFromCommandLine(String[] args) {
+		String output = null;
+		String host = null;
+		String user = null;
+		String database = BackupSection.DEFAULT_DATABASE;
+		int batchSize = DatabaseRestoreTarget.DEFAULT_BATCH_SIZE;
+		int statementBytes = ScriptRestoreTarget.DEFAULT_STATEMENT_BYTES;
+		int i = 0;
+		try {
+			for(; i < args.length - 1 && args[i].startsWith("-"); i += 2) {
+				switch(args[i]) {
+				case "-o": output = args[i + 1]; break;
+				case "-db": host = args[i + 1]; break;
+				case "-u": user = args[i + 1]; break;
+				case "-d": database = args[i + 1]; break;
+				case "-b": batchSize = Integer.parseInt(args[i + 1]); break;
+				case "-p": statementBytes = Integer.parseInt(args[i + 1]); break;
+				default: return usage();
 				}
-				System.out.flush();
-				dout.close();
-				fout.close();
-				JOptionPane.showMessageDialog(null, "Restore commands generated.", "Success", JOptionPane.INFORMATION_MESSAGE);
-			} catch (FileNotFoundException e2) 	{
-				JOptionPane.showMessageDialog(null, "I/O Exception", "Error", JOptionPane.ERROR_MESSAGE);
-				e2.printStackTrace();
-			} catch (IOException e1) {
-				JOptionPane.showMessageDialog(null, "I/O Exception", "Error", JOptionPane.ERROR_MESSAGE);
-				e1.printStackTrace();
-			}
-		} else {
-			JOptionPane.showMessageDialog(null, "No output file specified!", "Error", JOptionPane.ERROR_MESSAGE);
+			}
+		} catch (NumberFormatException e) {
+			return usage();
+		}
+		if(i == args.length || (output == null) == (host == null) || (host != null && user == null) || batchSize <= 0 || statementBytes <= 0) {
+			return usage();
+		}
+		File[] inputFiles = new File[args.length - i];
+		for(int f = 0; f < inputFiles.length; f++) {
+			inputFiles[f] = new File(args[i + f]);
+			if(!inputFiles[f].isFile()) {
+				System.err.println("No such backup file: " + args[i + f]);
+				return 2;
+			}
+		}
+		
+		BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in));
+		try {
+			String decryptionPassword = readPassword(PASSWORD_VARIABLE, "Enter decryption password: ", stdin);
+			String databasePassword = host == null ? null : readPassword(DATABASE_PASSWORD_VARIABLE, "Enter database password: ", stdin);
+			if(decryptionPassword == null || (host != null && databasePassword == null)) {
+				System.err.println("No password given.");
+				return 2;
+			}
+			
+			long started = System.currentTimeMillis();
+			IRestoreProgress progress = new ConsoleProgress(totalLength(inputFiles));
+			if(output != null) {
+				restore(inputFiles, decryptionPassword, new ScriptRestoreTarget(new File(output), statementBytes), progress);
+				System.out.println("Restore commands written to " + output + " in " + (System.currentTimeMillis() - started) / 1000.0 + " seconds.");
+			} else {
+				restore(inputFiles, decryptionPassword, new DatabaseSettings(host, database, user, databasePassword, batchSize).open(progress), progress);
+				System.out.println("Backup restored to " + host + " in " + (System.currentTimeMillis() - started) / 1000.0 + " seconds.");
+			}
+			return 0;
+		} catch (IOException e) {
+			System.err.println("Restore failed: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+			e.printStackTrace();
+			return 1;
+		} catch (EncryptionOperationNotPossibleException e) {
+			System.err.println("Decryption not possible - the decryption password is likely invalid.");
+			return 1;
+		}
+	}
+	
+	private static int usage() {
+		System.err.println("Usage: RestoreUtility -o <restore script.sql> [-p <bytes per statement>] <backup file>...");
+		System.err.println("   or: RestoreUtility -db <host[:port]> -u <user> [-d <database>] [-b <rows per batch>] <backup file>...");
+		return 2;
+	}
+	
+	private static String readPassword(String variable, String prompt, BufferedReader stdin) throws IOException {
+		String password = System.getenv(variable);
+		if(password == null) {
+			if(System.console() != null) {
+				char[] typed = System.console().readPassword(prompt);
+				password = typed == null ? null : new String(typed);
+			} else {
+				password = stdin.readLine();
+			}
 		}
+		return password;
 	}
 	
 	public static void main(String[] args) {
+		if(args.length > 0) {
+			System.exit(restoreFromCommandLine(args));
+		}
 		selectInputFile();
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * A database to restore into
+	 */
+	private static class DatabaseSettings {
+		final String host;
+		final String database;
+		final String user;
+		final String password;
+		final int batchSize;
+		
+		DatabaseSettings(String host, String database, String user, String password, int batchSize) {
+			this.host = host;
+			this.database = database;
+			this.user = user;
+			this.password = password;
+			this.batchSize = batchSize;
+		}
+		
+		DatabaseRestoreTarget open(IRestoreProgress progress) throws IOException {
+			return new DatabaseRestoreTarget(host, database, user, password, batchSize, progress);
+		}
+	}
+	
+	/**
+	 * Shows a restore's progress in a ProgressMonitor, which can cancel it
+	 */
+	private static class MonitorProgress implements IRestoreProgress {
+		private final ProgressMonitor pm;
+		private final long total;
+		
+		MonitorProgress(ProgressMonitor pm, long total) {
+			this.pm = pm;
+			this.total = Math.max(total, 1);
+		}
+		
+		public void read(long bytes) {
+			pm.setProgress((int)(bytes * PROGRESS_MAXIMUM / total));
+		}
+		
+		public void loaded(long rows) {
+			pm.setNote(rows + " rows loaded");
+		}
+		
+		public boolean isCanceled() {
+			return pm.isCanceled();
+		}
+	}
+	
+	/**
+	 * Prints a restore's progress every few seconds
+	 */
+	private static class ConsoleProgress implements IRestoreProgress {
+		private static final long INTERVAL_MILLIS = 5000;
+		private final long total;
+		private long percent = 0;
+		private long rows = 0;
+		private long lastPrinted = System.currentTimeMillis();
+		
+		ConsoleProgress(long total) {
+			this.total = Math.max(total, 1);
+		}
+		
+		public void read(long bytes) {
+			percent = bytes * 100 / total;
+			print();
+		}
+		
+		public void loaded(long rows) {
+			this.rows = rows;
+			print();
+		}
+		
+		public boolean isCanceled() {
+			return false;
+		}
+		
+		private void print() {
+			if(System.currentTimeMillis() - lastPrinted >= INTERVAL_MILLIS) {
+				lastPrinted = System.currentTimeMillis();
+				System.err.println(percent + "% read" + (rows > 0 ? ", " + rows + " rows loaded" : ""));
+			}
+		}
+	}
+	
+	/**
+	 * Reports how much of the backup files has been read, and stops the
+	 * restore if it is cancelled
+	 */
+	private static class ProgressInputStream extends FilterInputStream {
+		private final IRestoreProgress progress;
+		private long read;
+		
+		/**
+		 * @param read
+		 *            Bytes of earlier files already read
+		 */
+		ProgressInputStream(InputStream in, IRestoreProgress progress, long read) {
+			super(in);
+			this.progress = progress;
+			this.read = read;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0) {
+				advance(1);
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n > 0) {
+				advance(n);
+			}
+			return n;
+		}
+		
+		private void advance(int n) throws IOException {
+			if(progress.isCanceled()) {
+				throw new IOException("Restore cancelled.");
+			}
+			read += n;
+			progress.read(read);
+		}
+	}
+}
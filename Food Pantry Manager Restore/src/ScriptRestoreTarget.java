@@ -0,0 +1,216 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Restores into a script of SQL statements, one per line, to be run with the
+ * mysql client. The script is written as the backup is read; if the restore
+ * fails, the partly written script is deleted.
+ *
+ * Rows of a .fpmb backup are grouped into extended INSERTs, INSERT ... VALUES
+ * (...),(...), and deleted rows into DELETE ... WHERE id IN (...), each up to
+ * a maximum size, so the mysql client replays thousands of rows per round
+ * trip rather than one. Statements from older backups are copied as they
+ * are, one row each.
+ *
+ * When several backups are replayed, foreign key checks are off while rows
+ * are inserted, since rows may arrive before the rows they refer to, and on
+ * while deleted rows are deleted, so deleting a client sets off the same ON
+ * DELETE actions as the original delete did.
+ *
+ * @author Scott Hoelsema
+ */
+public class ScriptRestoreTarget implements IRestoreTarget<ArrayList<ScriptRestoreTarget.Tuple>> {
+	public static final int DEFAULT_STATEMENT_BYTES = 1024 * 1024; // Well within max_allowed_packet, which is at least 4 MB from MySQL 5.6 on
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final File output;
+	private final Writer out;
+	private final int maxStatementBytes;
+	private boolean replay = false;
+	private boolean keyChecksOff = false; // As last set by the script
+	private boolean finished = false;
+	private String openPrefix = null; // Start of the statement being written, or null between statements
+	private String openSuffix;
+	private long openBytes;
+
+	/**
+	 * @param output
+	 *            The script to write
+	 * @param maxStatementBytes
+	 *            How long a statement may grow, in bytes, before rows start
+	 *            a new one; must be below the server's max_allowed_packet
+	 */
+	public ScriptRestoreTarget(File output, int maxStatementBytes) throws IOException {
+		this.output = output;
+		this.maxStatementBytes = maxStatementBytes;
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), BUFFER_SIZE); // Names may have accents
+	}
+
+	public void start(boolean replay) throws IOException {
+		this.replay = replay;
+		if(replay) {
+			out.write("SET @OLD_FOREIGN_KEY_CHECKS=@@FOREIGN_KEY_CHECKS, FOREIGN_KEY_CHECKS=0;\n");
+			keyChecksOff = true;
+		}
+	}
+
+	public ArrayList<Tuple> encode(BackupSection section, ArrayList<Object[]> rows) throws IOException {
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>(rows.size());
+		if(section.mode == BackupSection.MODE_DELETE) {
+			for(Object[] row : rows) {
+				tuples.add(new Tuple(BackupSection.deletePrefix(BackupSection.DEFAULT_DATABASE, row) + " IN (", literal(row[2]), ")"));
+			}
+			return tuples;
+		}
+
+		String prefix = section.insertPrefix(BackupSection.DEFAULT_DATABASE);
+		String suffix = section.insertSuffix();
+		for(Object[] row : rows) {
+			StringBuilder sb = new StringBuilder("(");
+			for(int i = 0; i < row.length; i++) {
+				sb.append(i > 0 ? "," : "").append(literal(row[i]));
+			}
+			tuples.add(new Tuple(prefix, sb.append(')').toString(), suffix));
+		}
+		return tuples;
+	}
+
+	public void write(BackupSection section, ArrayList<Tuple> tuples) throws IOException {
+		setKeyChecksOff(replay && section.mode != BackupSection.MODE_DELETE);
+		for(Tuple tuple : tuples) {
+			// Start a new statement for another table, or once this one is full
+			if(openPrefix != null && (!openPrefix.equals(tuple.prefix) || openBytes + 1 + tuple.bytes > maxStatementBytes)) {
+				endStatement();
+			}
+			if(openPrefix == null) {
+				out.write(tuple.prefix);
+				openPrefix = tuple.prefix;
+				openSuffix = tuple.suffix;
+				openBytes = utf8Length(tuple.prefix) + utf8Length(tuple.suffix) + 2; // And ";\n"
+			} else {
+				out.write(',');
+				openBytes++;
+			}
+			out.write(tuple.values);
+			openBytes += tuple.bytes;
+		}
+	}
+
+	public void writeStatements(ArrayList<String> statements) throws IOException {
+		endStatement();
+		setKeyChecksOff(replay);
+		for(String statement : statements) {
+			out.write(statement);
+		}
+	}
+
+	public void finish() throws IOException {
+		endStatement();
+		if(replay) {
+			out.write("SET FOREIGN_KEY_CHECKS=@OLD_FOREIGN_KEY_CHECKS;\n");
+		}
+		out.close();
+		finished = true;
+	}
+
+	/**
+	 * Delete the script unless it was finished
+	 */
+	@Override
+	public void close() throws IOException {
+		if(!finished) {
+			out.close();
+			output.delete();
+		}
+	}
+
+	private void endStatement() throws IOException {
+		if(openPrefix != null) {
+			out.write(openSuffix);
+			out.write(";\n");
+			openPrefix = null;
+		}
+	}
+
+	/**
+	 * Turn foreign key checks off or on, between statements
+	 */
+	private void setKeyChecksOff(boolean off) throws IOException {
+		if(off != keyChecksOff) {
+			endStatement();
+			out.write(off ? "SET FOREIGN_KEY_CHECKS=0;\n" : "SET FOREIGN_KEY_CHECKS=1;\n");
+			keyChecksOff = off;
+		}
+	}
+
+	private static String literal(Object value) {
+		if(value == null) {
+			return "NULL";
+		} else if(value instanceof Integer) {
+			return value.toString();
+		}
+		return quote((String)value);
+	}
+
+	/**
+	 * Quote text as a MySQL string literal, escaping every character that
+	 * could end it or break the statement across lines
+	 */
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('\'');
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch(c) {
+			case '\'': sb.append("\\'"); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\0': sb.append("\\0"); break;
+			case '\u001A': sb.append("\\Z"); break;
+			default: sb.append(c);
+			}
+		}
+		sb.append('\'');
+		return sb.toString();
+	}
+
+	private static int utf8Length(String s) {
+		int bytes = s.length();
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c >= 0x800) {
+				bytes += 2; // Surrogate pairs count 2 + 2, for 4 bytes
+			} else if(c >= 0x80) {
+				bytes += 1;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * One row's values in parentheses, or a deleted row's ID, and the
+	 * statement it goes in
+	 */
+	static class Tuple {
+		final String prefix;
+		final String values;
+		final String suffix;
+		final int bytes; // Of values, in UTF-8
+
+		Tuple(String prefix, String values, String suffix) {
+			this.prefix = prefix;
+			this.values = values;
+			this.suffix = suffix;
+			this.bytes = utf8Length(values);
+		}
+	}
+}
@@ -14,7 +14,7 @@ import utils.Utilities;
  * 
  * @author Scott Hoelsema
  */
-public class Appointment {
+public class Appointment implements IBackupRecord {
 	// Database fields
 	private int appointment_id; // Primary key (surrogate)
 	private int client_id; // Identifies client that this appointment is tied to
@@ -73,39 +73,12 @@ public class Appointment {
 		return Utilities.translateToReadableDate(getDate(), true) + " (" + getPounds() + "#)";
 	}
 	
-	public String asInsertStatement() {
-		StringBuilder sb = new StringBuilder();
-		
-		// Add Insert Information
-		sb.append("INSERT INTO `food_pantry_manager`.`appointment` (`appointment_id`,`client_id`,`date`,`pounds`) VALUES (");
-		
-		// Add appointment_id
-		sb.append(getAppointmentID());
-		sb.append(",");
-		
-		// Add client_id
-		sb.append(getClientID());
-		sb.append(",");
-		
-		// Add date
-		sb.append("\"");
-		sb.append(getDate());
-		sb.append("\",");
-		
-		// Add pounds
-		if(getPounds() != null)
-		{
-			sb.append(getPounds());
-		}
-		else
-		{
-			sb.append("NULL");
-		}
-		
-		// Close Line
-		sb.append(");\n");
-		
-		return sb.toString();
+	public BackupTable getBackupTable() {
+		return BackupTable.APPOINTMENT;
+	}
+	
+	public Object[] getBackupValues() {
+		return new Object[]{appointment_id, client_id != 0 ? client_id : null, date, pounds}; // client_id is 0 when the client was deleted; the row holds NULL
 	}
 	
 	public int getAppointmentID() {
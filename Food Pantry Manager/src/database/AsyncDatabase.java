@@ -0,0 +1,287 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import utils.Configuration;
+import utils.Utilities;
+
+/**
+ * Runs Queries, Inserts and Updates off the Swing event thread, so the window
+ * keeps painting while MySQL responds. Each method returns a CompletableFuture
+ * completed with what the matching Queries, Inserts or Updates method
+ * returns, including null, false or -1 after a database or connection problem
+ * (which has already been reported to the user).
+ *
+ * Callbacks that touch Swing components must run on the event thread; chain
+ * them with EVENT_THREAD, e.g.
+ * getClientProfile(id).thenAcceptAsync(callback, AsyncDatabase.EVENT_THREAD).
+ * Writes that depend on each other are chained with thenCompose, so they run
+ * one after another without coming back to the event thread in between.
+ *
+ * Queries run on virtual threads where the JVM has them (Java 21 and later),
+ * otherwise on a small pool of daemon threads the size of the connection
+ * pool; more threads than that would only wait for a connection.
+ *
+ * @author Scott Hoelsema
+ */
+public class AsyncDatabase {
+	/**
+	 * Runs callbacks on the Swing event thread
+	 */
+	public static final Executor EVENT_THREAD = new Executor() {
+		public void execute(Runnable r) {
+			Utilities.invokeOnEventThread(r);
+		}
+	};
+
+	private static final ExecutorService executor = createExecutor();
+
+	/**
+	 * Run any database work off the event thread
+	 *
+	 * @param work
+	 *            The work, typically one or more calls to Queries
+	 * @return A future completed with the work's result
+	 */
+	public static <T> CompletableFuture<T> supply(Supplier<T> work) {
+		return CompletableFuture.supplyAsync(work, executor);
+	}
+
+	/**
+	 * Run database work off the event thread when nothing waits for its
+	 * result
+	 */
+	static void execute(Runnable work) {
+		executor.execute(work);
+	}
+
+	/*****************\
+	 * CLIENT LOOKUP *
+	\*****************/
+
+	public static CompletableFuture<ClientProfile> getClientProfile(final int clientID) {
+		return supply(new Supplier<ClientProfile>() {
+			public ClientProfile get() {
+				return Queries.getClientProfile(clientID);
+			}
+		});
+	}
+
+	public static CompletableFuture<Client> getClientByID(final int clientID) {
+		return supply(new Supplier<Client>() {
+			public Client get() {
+				return Queries.getClientByID(clientID);
+			}
+		});
+	}
+
+	/**
+	 * @param search
+	 *            May be cancelled while it runs; the future then completes
+	 *            with null
+	 */
+	public static CompletableFuture<ArrayList<ClientSummary>> searchClients(final ClientSearch search, final ClientSummary after, final int pageSize) {
+		return supply(new Supplier<ArrayList<ClientSummary>>() {
+			public ArrayList<ClientSummary> get() {
+				return Queries.searchClients(search, after, pageSize);
+			}
+		});
+	}
+
+	public static CompletableFuture<ArrayList<String>> getCities() {
+		return supply(new Supplier<ArrayList<String>>() {
+			public ArrayList<String> get() {
+				return Queries.getCities();
+			}
+		});
+	}
+
+	/***********\
+	 * REPORTS *
+	\***********/
+
+	public static CompletableFuture<ArrayList<Appointment>> getAppointmentsForDate(final DateRange range) {
+		return supply(new Supplier<ArrayList<Appointment>>() {
+			public ArrayList<Appointment> get() {
+				return Queries.getAppointmentsForDate(range);
+			}
+		});
+	}
+
+	public static CompletableFuture<PoundageReport> getPoundageReport(final DateRange range, final boolean includeDetail) {
+		return supply(new Supplier<PoundageReport>() {
+			public PoundageReport get() {
+				return Queries.getPoundageReport(range, includeDetail);
+			}
+		});
+	}
+
+	public static CompletableFuture<ArrayList<Client>> getClientsForCity(final String city) {
+		return supply(new Supplier<ArrayList<Client>>() {
+			public ArrayList<Client> get() {
+				return Queries.getClientsForCity(city);
+			}
+		});
+	}
+
+	public static CompletableFuture<ArrayList<Appointment>> lookupInactiveClients(final Timestamp reference) {
+		return supply(new Supplier<ArrayList<Appointment>>() {
+			public ArrayList<Appointment> get() {
+				return Queries.lookupInactiveClients(reference);
+			}
+		});
+	}
+
+	/****************\
+	 * APPOINTMENTS *
+	\****************/
+
+	public static CompletableFuture<Appointment> getNextAppointment(final int clientID) {
+		return supply(new Supplier<Appointment>() {
+			public Appointment get() {
+				return Queries.getNextAppointment(clientID);
+			}
+		});
+	}
+
+	public static CompletableFuture<ArrayList<Appointment>> getCompletedApptsForClient(final int clientID) {
+		return supply(new Supplier<ArrayList<Appointment>>() {
+			public ArrayList<Appointment> get() {
+				return Queries.getCompletedApptsForClient(clientID);
+			}
+		});
+	}
+
+	public static CompletableFuture<Boolean> doPickup(final Appointment pickupAppt) {
+		return supply(new Supplier<Boolean>() {
+			public Boolean get() {
+				return Updates.doPickup(pickupAppt);
+			}
+		});
+	}
+
+	public static CompletableFuture<Boolean> addNextAppointment(final Appointment appt) {
+		return supply(new Supplier<Boolean>() {
+			public Boolean get() {
+				return Inserts.addNextAppointment(appt);
+			}
+		});
+	}
+
+	public static CompletableFuture<Boolean> updateAppointment(final Appointment appt) {
+		return supply(new Supplier<Boolean>() {
+			public Boolean get() {
+				return Updates.updateAppointment(appt);
+			}
+		});
+	}
+
+	public static CompletableFuture<Boolean> deleteAppointment(final Appointment appt) {
+		return supply(new Supplier<Boolean>() {
+			public Boolean get() {
+				return Updates.deleteAppointment(appt);
+			}
+		});
+	}
+
+	/******************\
+	 * CLIENT CHANGES *
+	\******************/
+
+	public static CompletableFuture<Integer> checkForDuplicateAddresses(final String address, final String city, final Client exempt) {
+		return supply(new Supplier<Integer>() {
+			public Integer get() {
+				return Queries.checkForDuplicateAddresses(address, city, exempt);
+			}
+		});
+	}
+
+	/**
+	 * Queries.isAddressInUse reports nothing and throws instead; here a
+	 * database or connection problem completes the future with false, since
+	 * the check on save will report it
+	 */
+	public static CompletableFuture<Boolean> isAddressInUse(final String address, final String city, final int exemptClientID) {
+		return supply(new Supplier<Boolean>() {
+			public Boolean get() {
+				try {
+					return Queries.isAddressInUse(address, city, exemptClientID);
+				} catch (SQLException e) {
+					return false;
+				}
+			}
+		});
+	}
+
+	public static CompletableFuture<Integer> insertClient(final Client c) {
+		return supply(new Supplier<Integer>() {
+			public Integer get() {
+				return Inserts.insertClient(c);
+			}
+		});
+	}
+
+	public static CompletableFuture<Boolean> updateClient(final Client c) {
+		return supply(new Supplier<Boolean>() {
+			public Boolean get() {
+				return Updates.updateClient(c);
+			}
+		});
+	}
+
+	public static CompletableFuture<Boolean> deleteClient(final Client c) {
+		return supply(new Supplier<Boolean>() {
+			public Boolean get() {
+				return Updates.deleteClient(c);
+			}
+		});
+	}
+
+	public static CompletableFuture<Boolean> addHouseholdMember(final Household hm) {
+		return supply(new Supplier<Boolean>() {
+			public Boolean get() {
+				return Inserts.addHouseholdMember(hm);
+			}
+		});
+	}
+
+	public static CompletableFuture<Boolean> deleteHouseholdMember(final Household hm) {
+		return supply(new Supplier<Boolean>() {
+			public Boolean get() {
+				return Updates.deleteHouseholdMember(hm);
+			}
+		});
+	}
+
+	/**
+	 * Use a virtual thread per task if this JVM supports it; looked up by
+	 * reflection since Food Pantry Manager is built for Java 8
+	 */
+	private static ExecutorService createExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(Configuration.DATABASE_POOL_MAX_CONNECTIONS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Database-" + count.incrementAndGet());
+					t.setDaemon(true); // Must not keep the application open after the window closes
+					return t;
+				}
+			});
+		}
+	}
+}
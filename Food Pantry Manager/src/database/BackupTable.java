@@ -0,0 +1,77 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+/**
+ * The columns a table's rows are saved with in a backup, in the order
+ * IBackupRecord.getBackupValues() gives them, and their types. A backup
+ * writes them into each table's section so that RestoreUtility can turn rows
+ * back into SQL without knowing about Client, Appointment or Household.
+ *
+ * @author Scott Hoelsema
+ */
+public class BackupTable {
+	// Column types; every type but INT is saved as text and quoted in SQL
+	public static final byte INT = 1;
+	public static final byte STRING = 2;
+	public static final byte DATE = 3;
+	public static final byte TIMESTAMP = 4;
+
+	public static final BackupTable CLIENT = new BackupTable("client",
+			new String[]{"client_id", "first_name", "last_name", "ssn", "address", "city", "telephone", "gender", "birthday", "notes", "valid_as_of"},
+			new byte[]{INT, STRING, STRING, STRING, STRING, STRING, STRING, STRING, DATE, STRING, TIMESTAMP},
+			new String[]{"address_key"}); // Filled in again by SchemaMigrations once cleared
+	public static final BackupTable APPOINTMENT = new BackupTable("appointment",
+			new String[]{"appointment_id", "client_id", "date", "pounds"},
+			new byte[]{INT, INT, TIMESTAMP, INT},
+			new String[0]);
+	public static final BackupTable HOUSEHOLD = new BackupTable("household",
+			new String[]{"household_member_id", "client_id", "name", "birthday", "gender", "relationship"},
+			new byte[]{INT, INT, STRING, DATE, STRING, STRING},
+			new String[0]);
+	/**
+	 * Rows deleted since the last backup; restored by deleting the row named
+	 * by id_column and row_id from table_name
+	 */
+	public static final BackupTable DELETED_ROW = new BackupTable("deleted_row",
+			new String[]{"table_name", "id_column", "row_id"},
+			new byte[]{STRING, STRING, INT},
+			new String[0]);
+
+	private final String name;
+	private final String[] columns;
+	private final byte[] types;
+	private final String[] derivedColumns;
+
+	private BackupTable(String name, String[] columns, byte[] types, String[] derivedColumns) {
+		this.name = name;
+		this.columns = columns;
+		this.types = types;
+		this.derivedColumns = derivedColumns;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The saved columns; the first is the primary key
+	 */
+	public String[] getColumns() {
+		return columns.clone();
+	}
+
+	public byte[] getTypes() {
+		return types.clone();
+	}
+
+	/**
+	 * @return Columns that are not saved because they are computed from the
+	 *         others; a restore that overwrites a row sets them to NULL so
+	 *         they are computed afresh
+	 */
+	public String[] getDerivedColumns() {
+		return derivedColumns.clone();
+	}
+}
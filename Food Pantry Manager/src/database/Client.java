@@ -7,6 +7,7 @@ import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Locale;
 
 /**
  * Database object representing an entry in the client table, or
@@ -14,7 +15,7 @@ import java.sql.Timestamp;
  * 
  * @author Scott Hoelsema
  */
-public class Client {
+public class Client implements IBackupRecord {
 	// Database fields
 	private int client_id; // Primary key
 	private String first_name; // First name
@@ -63,88 +64,49 @@ public class Client {
 		return first_name + " " + last_name;
 	}
 	
-	public String asInsertStatement() {
-		StringBuilder sb = new StringBuilder();
-		
-		// Add Insert Information
-		// Use double quotes in the SQL because of names like O'Brien
-		sb.append("INSERT INTO `food_pantry_manager`.`client` (`client_id`,`first_name`,`last_name`,`ssn`,`address`,`city`,`telephone`,`gender`,`valid_as_of`,`birthday`,`notes`) VALUES (");
-		
-		// Add client_id
-		sb.append(client_id);
-		sb.append(",");
-		
-		// Add first_name
-		sb.append("\"");
-		sb.append(first_name.replaceAll("\"", "\"\"")); // Account for user putting quotes in first name to represent preferred name (example: Billy "Bob")
-		sb.append("\",");
-		
-		// Add last_name
-		sb.append("\"");
-		sb.append(last_name);
-		sb.append("\",");
-		
-		// Add ssn
-		sb.append("\"");
-		sb.append(ssn);
-		sb.append("\",");
-		
-		// Add address
-		sb.append("\"");
-		sb.append(address);
-		sb.append("\",");
-		
-		// Add city
-		sb.append("\"");
-		sb.append(city);
-		sb.append("\",");
-		
-		// Add telephone
-		if(telephone != null)
-		{
-			sb.append("\"");
-			sb.append(telephone);
-			sb.append("\",");
-		}
-		else
-		{
-			sb.append("NULL");
-			sb.append(",");
-		}
-		
-		// Add gender
-		sb.append("\"");
-		sb.append(gender);
-		sb.append("\",");
-		
-		// Add valid_as_of
-		sb.append("\"");
-		sb.append(valid_as_of);
-		sb.append("\",");
-		
-		// Add birthday
-		if(birthday != null) {
-			sb.append("\"");
-			sb.append(birthday);
-			sb.append("\",");
-		} else {
-			sb.append("NULL");
-			sb.append(",");
-		}
-		
-		// Add notes
-		if(notes != null) {
-			sb.append("\"");
-			sb.append(notes);
-			sb.append("\"");
-		} else {
-			sb.append("NULL");
-		}
-		
-		// Close Line
-		sb.append(");\n");
-		
-		return sb.toString();
+	/**
+	 * Clients are the same client if they have the same ID, so that a freshly
+	 * loaded copy can be found in lists holding an older one
+	 */
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Client && ((Client)o).client_id == client_id;
+	}
+	
+	@Override
+	public int hashCode() {
+		return client_id;
+	}
+	
+	/**
+	 * Build the value stored in client.address_key, which the duplicate
+	 * address check looks up by index. Case, punctuation, and spacing are
+	 * ignored, so "12 Main St." and "12 main st" count as the same address.
+	 * 
+	 * @param address
+	 *            Street address
+	 * @param city
+	 *            City
+	 * @return The normalized key for the address and city
+	 */
+	public static String makeAddressKey(String address, String city) {
+		return normalizeForKey(address) + "|" + normalizeForKey(city);
+	}
+	
+	private static String normalizeForKey(String s) {
+		return s.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", " ").trim();
+	}
+	
+	public String getAddressKey() {
+		return makeAddressKey(address, city);
+	}
+	
+	public BackupTable getBackupTable() {
+		return BackupTable.CLIENT;
+	}
+	
+	public Object[] getBackupValues() {
+		return new Object[]{client_id, first_name, last_name, ssn, address, city, telephone, gender, birthday, notes, valid_as_of};
 	}
 	
 	public String getAddress() {
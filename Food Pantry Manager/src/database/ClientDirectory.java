@@ -0,0 +1,443 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import utils.Configuration;
+import utils.Logger;
+
+/**
+ * Every client's ClientSummary held in memory and indexed, so that client
+ * search is answered without a trip to the database. Name prefixes are looked
+ * up in a trie per name, which lists last names in order; text anywhere in a
+ * name is looked up through an index of the three-letter sequences (trigrams)
+ * in each name.
+ *
+ * Loaded in the background at log in; until then, and for searches it cannot
+ * answer, search() returns null and the caller should ask the database. Kept
+ * current by Inserts and Updates for changes made at this station, and by
+ * reading clients changed since the last refresh when a search finds the
+ * directory more than DATABASE_CLIENT_DIRECTORY_SYNC_SECONDS old. If the
+ * number of clients then disagrees with the database, a client was deleted
+ * elsewhere and the directory is reloaded.
+ *
+ * SSNs are not held, so searches by SSN go to the database, which matches
+ * the start of the SSN.
+ *
+ * @author Scott Hoelsema
+ */
+public class ClientDirectory {
+	private static final long SYNC_INTERVAL_MILLIS = Configuration.DATABASE_CLIENT_DIRECTORY_SYNC_SECONDS * 1000L;
+	private static final int GRAM_LENGTH = 3;
+
+	private static HashMap<Integer, ClientSummary> clients = new HashMap<Integer, ClientSummary>();
+	private static Trie byLastName = new Trie();
+	private static Trie byFirstName = new Trie();
+	private static NGramIndex lastNameGrams = new NGramIndex();
+	private static NGramIndex firstNameGrams = new NGramIndex();
+	private static boolean loaded = false;
+	private static boolean refreshing = false;
+	private static Timestamp syncedTo; // Database time the last refresh started; the next reads clients changed since
+	private static long syncedAt; // Local time of the last refresh
+	private static int generation = 0; // Bumped on log in and log out so a refresh for an old session is discarded
+
+	/**
+	 * Load every client in the background; called at log in
+	 */
+	public static void load() {
+		final int loadGeneration;
+		synchronized(ClientDirectory.class) {
+			loadGeneration = ++generation;
+			refreshing = true;
+		}
+		AsyncDatabase.supply(new Supplier<Void>() {
+			public Void get() {
+				refresh(loadGeneration, null);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Empty the directory; called at log out
+	 */
+	public static synchronized void clear() {
+		generation++;
+		reset();
+		loaded = false;
+		refreshing = false;
+	}
+
+	public static synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Find the clients whose names start with the search's first and last
+	 * names, in the same order as Queries.searchClients
+	 *
+	 * @param search
+	 *            The names to search by
+	 * @return The matching clients; null if the directory is not loaded or the
+	 *         search needs the database
+	 */
+	public static ArrayList<ClientSummary> search(ClientSearch search) {
+		ArrayList<ClientSummary> found;
+		synchronized(ClientDirectory.class) {
+			if(!loaded || !canAnswer(search)) {
+				return null;
+			}
+			String first = search.getFirstName().toLowerCase(Locale.ROOT);
+			String last = search.getLastName().toLowerCase(Locale.ROOT);
+			found = new ArrayList<ClientSummary>();
+			if(!last.isEmpty() || first.isEmpty()) {
+				byLastName.collect(last, found); // Already in order
+				filter(found, first, null);
+			} else {
+				byFirstName.collect(first, found);
+				filter(found, null, null);
+				Collections.sort(found, ClientSummary.BY_NAME);
+			}
+		}
+		syncIfStale();
+		return found;
+	}
+
+	/**
+	 * Find the clients whose names contain the search's first and last names
+	 * anywhere, not only at the start; e.g. for a misremembered spelling
+	 *
+	 * @param search
+	 *            The name fragments to search by
+	 * @return The matching clients by name; null if the directory is not loaded
+	 *         or the search needs the database
+	 */
+	public static ArrayList<ClientSummary> searchContaining(ClientSearch search) {
+		ArrayList<ClientSummary> found;
+		synchronized(ClientDirectory.class) {
+			if(!loaded || !canAnswer(search)) {
+				return null;
+			}
+			String first = search.getFirstName().toLowerCase(Locale.ROOT);
+			String last = search.getLastName().toLowerCase(Locale.ROOT);
+
+			// Start from the clients sharing the rarest trigram of the longer fragment
+			ArrayList<ClientSummary> candidates = null;
+			if(last.length() >= first.length()) {
+				candidates = lastNameGrams.candidates(last);
+			} else {
+				candidates = firstNameGrams.candidates(first);
+			}
+			found = new ArrayList<ClientSummary>(candidates != null ? candidates : clients.values());
+			filter(found, first, last);
+			Collections.sort(found, ClientSummary.BY_NAME);
+		}
+		syncIfStale();
+		return found;
+	}
+
+	/**
+	 * Add or replace a client; called by Inserts and Updates
+	 */
+	static synchronized void put(ClientSummary summary) {
+		if(loaded) {
+			putLocked(summary);
+		}
+	}
+
+	/**
+	 * Drop a client; called by Updates
+	 */
+	static synchronized void remove(int clientID) {
+		ClientSummary old = clients.remove(clientID);
+		if(old != null) {
+			unindex(old);
+		}
+	}
+
+	/***********\
+	 * REFRESH *
+	\***********/
+
+	private static void syncIfStale() {
+		final int syncGeneration;
+		final Timestamp since;
+		synchronized(ClientDirectory.class) {
+			if(!loaded || refreshing || System.currentTimeMillis() - syncedAt < SYNC_INTERVAL_MILLIS) {
+				return;
+			}
+			refreshing = true;
+			syncGeneration = generation;
+			since = syncedTo;
+		}
+		AsyncDatabase.supply(new Supplier<Void>() {
+			public Void get() {
+				refresh(syncGeneration, since);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Read clients from the database into the directory
+	 *
+	 * @param refreshGeneration
+	 *            The generation the refresh was started in
+	 * @param since
+	 *            Read clients changed at or after this time; null to reload
+	 *            every client
+	 */
+	private static void refresh(int refreshGeneration, Timestamp since) {
+		boolean reload = false;
+		try {
+			Timestamp now = Queries.getDatabaseTime();
+			ArrayList<ClientSummary> changed = Queries.getClientSummaries(since);
+			int count = Queries.countClients();
+			synchronized(ClientDirectory.class) {
+				if(refreshGeneration != generation) {
+					return;
+				}
+				if(since == null) {
+					reset();
+				}
+				for(ClientSummary s : changed) {
+					putLocked(s);
+				}
+				loaded = true;
+				refreshing = false;
+				syncedTo = now;
+				syncedAt = System.currentTimeMillis();
+				reload = since != null && count != clients.size(); // Deleted at another station
+			}
+		} catch (SQLException e) {
+			Logger.logThrowable(e);
+			e.printStackTrace();
+			synchronized(ClientDirectory.class) {
+				if(refreshGeneration == generation) {
+					refreshing = false;
+					syncedAt = System.currentTimeMillis(); // Try again after the usual interval; searches go to the database until loaded
+				}
+			}
+		}
+		if(reload) {
+			synchronized(ClientDirectory.class) {
+				if(refreshGeneration != generation || refreshing) {
+					return;
+				}
+				refreshing = true;
+			}
+			refresh(refreshGeneration, null);
+		}
+	}
+
+	/***********\
+	 * INDEXES *
+	\***********/
+
+	private static void reset() {
+		clients = new HashMap<Integer, ClientSummary>();
+		byLastName = new Trie();
+		byFirstName = new Trie();
+		lastNameGrams = new NGramIndex();
+		firstNameGrams = new NGramIndex();
+	}
+
+	private static void putLocked(ClientSummary summary) {
+		ClientSummary old = clients.put(summary.getClientID(), summary);
+		if(old != null) {
+			unindex(old);
+		}
+		byLastName.add(summary.getLastName().toLowerCase(Locale.ROOT), summary);
+		byFirstName.add(summary.getFirstName().toLowerCase(Locale.ROOT), summary);
+		lastNameGrams.add(summary.getLastName().toLowerCase(Locale.ROOT), summary);
+		firstNameGrams.add(summary.getFirstName().toLowerCase(Locale.ROOT), summary);
+	}
+
+	private static void unindex(ClientSummary old) {
+		byLastName.remove(old.getLastName().toLowerCase(Locale.ROOT), old);
+		byFirstName.remove(old.getFirstName().toLowerCase(Locale.ROOT), old);
+		lastNameGrams.remove(old.getLastName().toLowerCase(Locale.ROOT), old);
+		firstNameGrams.remove(old.getFirstName().toLowerCase(Locale.ROOT), old);
+	}
+
+	/**
+	 * Whether the directory holds what the search needs: it has no LIKE
+	 * wildcards and no SSN
+	 */
+	private static boolean canAnswer(ClientSearch search) {
+		return !search.hasWildcards() && search.getSsn().isEmpty();
+	}
+
+	/**
+	 * Remove the clients that do not match, keeping the order of the rest
+	 *
+	 * @param firstPart
+	 *            Lower case start of the first name, or fragment for a
+	 *            containing search; null not to check
+	 * @param lastPart
+	 *            Lower case fragment of the last name; null not to check
+	 */
+	private static void filter(ArrayList<ClientSummary> found, String firstPart, String lastPart) {
+		boolean containing = lastPart != null; // Containing searches check both names for fragments; prefix searches check the first name's start
+		int kept = 0;
+		for(ClientSummary s : found) {
+			boolean matches = true;
+			if(firstPart != null && !firstPart.isEmpty()) {
+				String first = s.getFirstName().toLowerCase(Locale.ROOT);
+				matches = containing ? first.contains(firstPart) : first.startsWith(firstPart);
+			}
+			if(matches && containing && !lastPart.isEmpty()) {
+				matches = s.getLastName().toLowerCase(Locale.ROOT).contains(lastPart);
+			}
+			if(matches) {
+				found.set(kept++, s);
+			}
+		}
+		found.subList(kept, found.size()).clear();
+	}
+
+	/**
+	 * Clients by name, one character per level. Each node holds the clients
+	 * whose name ends there, in ClientSummary.BY_NAME order, and its children
+	 * in character order, so walking a subtree lists its names in order.
+	 */
+	private static class Trie {
+		private final Node root = new Node();
+
+		void add(String name, ClientSummary summary) {
+			Node node = root;
+			for(int i = 0; i < name.length(); i++) {
+				node = node.child(name.charAt(i), true);
+			}
+			if(node.clients == null) {
+				node.clients = new ArrayList<ClientSummary>(1);
+			}
+			int at = Collections.binarySearch(node.clients, summary, ClientSummary.BY_NAME);
+			node.clients.add(at < 0 ? -at - 1 : at, summary);
+		}
+
+		void remove(String name, ClientSummary summary) {
+			Node node = find(name);
+			if(node != null && node.clients != null) {
+				node.clients.remove(summary);
+			}
+		}
+
+		/**
+		 * Add every client whose name starts with prefix, in order
+		 */
+		void collect(String prefix, ArrayList<ClientSummary> into) {
+			Node node = find(prefix);
+			if(node != null) {
+				node.collect(into);
+			}
+		}
+
+		private Node find(String name) {
+			Node node = root;
+			for(int i = 0; i < name.length() && node != null; i++) {
+				node = node.child(name.charAt(i), false);
+			}
+			return node;
+		}
+	}
+
+	private static class Node {
+		private char[] keys = new char[0]; // Sorted
+		private Node[] children = new Node[0]; // Parallel to keys; arrays rather than a map, as most nodes have one child
+		ArrayList<ClientSummary> clients; // Null if no name ends here
+
+		Node child(char key, boolean create) {
+			int at = Arrays.binarySearch(keys, key);
+			if(at >= 0) {
+				return children[at];
+			}
+			if(!create) {
+				return null;
+			}
+			at = -at - 1;
+			char[] newKeys = new char[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, at);
+			System.arraycopy(children, 0, newChildren, 0, at);
+			newKeys[at] = key;
+			newChildren[at] = new Node();
+			System.arraycopy(keys, at, newKeys, at + 1, keys.length - at);
+			System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+			keys = newKeys;
+			children = newChildren;
+			return newChildren[at];
+		}
+
+		void collect(ArrayList<ClientSummary> into) {
+			if(clients != null) {
+				into.addAll(clients);
+			}
+			for(Node child : children) {
+				child.collect(into);
+			}
+		}
+	}
+
+	/**
+	 * Clients by every trigram in a name. A fragment can only be in a name
+	 * holding all of its trigrams, so the clients listed under its rarest
+	 * trigram are the only ones worth checking.
+	 */
+	private static class NGramIndex {
+		private final HashMap<String, ArrayList<ClientSummary>> postings = new HashMap<String, ArrayList<ClientSummary>>();
+
+		void add(String name, ClientSummary summary) {
+			for(int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+				String gram = name.substring(i, i + GRAM_LENGTH);
+				ArrayList<ClientSummary> posting = postings.get(gram);
+				if(posting == null) {
+					posting = new ArrayList<ClientSummary>(2);
+					postings.put(gram, posting);
+				}
+				if(posting.isEmpty() || posting.get(posting.size() - 1) != summary) { // A trigram repeated in the name is listed once
+					posting.add(summary);
+				}
+			}
+		}
+
+		void remove(String name, ClientSummary summary) {
+			for(int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+				ArrayList<ClientSummary> posting = postings.get(name.substring(i, i + GRAM_LENGTH));
+				if(posting != null) {
+					posting.remove(summary);
+				}
+			}
+		}
+
+		/**
+		 * @return The clients that may contain fragment, to be checked; null if
+		 *         fragment is too short to narrow anything down
+		 */
+		ArrayList<ClientSummary> candidates(String fragment) {
+			if(fragment.length() < GRAM_LENGTH) {
+				return null;
+			}
+			ArrayList<ClientSummary> rarest = null;
+			for(int i = 0; i + GRAM_LENGTH <= fragment.length(); i++) {
+				ArrayList<ClientSummary> posting = postings.get(fragment.substring(i, i + GRAM_LENGTH));
+				if(posting == null) {
+					return new ArrayList<ClientSummary>(); // No name has this trigram
+				}
+				if(rarest == null || posting.size() < rarest.size()) {
+					rarest = posting;
+				}
+			}
+			return rarest;
+		}
+	}
+}
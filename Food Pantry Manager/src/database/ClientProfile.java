@@ -0,0 +1,49 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.util.ArrayList;
+
+/**
+ * Everything the client tabs show about one client: the client record, their
+ * household, their next appointment, and their completed appointments. Loaded
+ * in one round trip by Queries.getClientProfile and shared by the panels, so
+ * selecting a client costs one exchange with the database instead of one per
+ * panel per table.
+ *
+ * @author Scott Hoelsema
+ */
+public class ClientProfile {
+	private Client client;
+	private ArrayList<Household> household;
+	private Appointment nextAppointment; // Null if the client has no appointment scheduled
+	private ArrayList<Appointment> completedAppointments; // Most recent first
+
+	ClientProfile(Client client, ArrayList<Household> household, Appointment nextAppointment, ArrayList<Appointment> completedAppointments) {
+		this.client = client;
+		this.household = household;
+		this.nextAppointment = nextAppointment;
+		this.completedAppointments = completedAppointments;
+	}
+
+	public Client getClient() {
+		return client;
+	}
+
+	public int getClientID() {
+		return client.getClientID();
+	}
+
+	public ArrayList<Household> getHousehold() {
+		return household;
+	}
+
+	public Appointment getNextAppointment() {
+		return nextAppointment;
+	}
+
+	public ArrayList<Appointment> getCompletedAppointments() {
+		return completedAppointments;
+	}
+}
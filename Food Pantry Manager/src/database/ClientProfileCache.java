@@ -0,0 +1,126 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import utils.Configuration;
+
+/**
+ * Recently viewed client profiles, so flipping back to a client already
+ * looked at is served from memory. Queries.getClientProfile checks here first
+ * and revalidates a hit with one indexed query for the profile's version: the
+ * latest valid_as_of of the client, their household members and their
+ * appointments, and how many of those there are, so changes made at another
+ * station, deletions included, are noticed without reloading the household
+ * and appointment history.
+ *
+ * Writes from this station that touch a client (Inserts and Updates) drop
+ * that client's entry.
+ *
+ * The least recently used profile is dropped when the cache is full.
+ *
+ * @author Scott Hoelsema
+ */
+public class ClientProfileCache {
+	private static final int CAPACITY = Configuration.DATABASE_CLIENT_PROFILE_CACHE_SIZE;
+
+	private static final LinkedHashMap<Integer, CachedProfile> profiles = new LinkedHashMap<Integer, CachedProfile>(16, 0.75f, true) { // Access order, so the eldest entry is the least recently used
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, CachedProfile> eldest) {
+			return size() > CAPACITY;
+		}
+	};
+
+	// Statistics
+	private static long hits = 0;
+	private static long misses = 0;
+	private static long stale = 0; // Found in the cache but out of date
+	private static long invalidations = 0;
+
+	/**
+	 * Supply a cached profile that still needs revalidating against the
+	 * database
+	 *
+	 * @param clientID
+	 *            The client
+	 * @return The cached profile and its version; null if not cached
+	 */
+	static synchronized CachedProfile get(int clientID) {
+		CachedProfile e = profiles.get(clientID);
+		if(e == null) {
+			misses++;
+		}
+		return e;
+	}
+
+	/**
+	 * Record the outcome of revalidating an entry supplied by get()
+	 *
+	 * @param e
+	 *            The entry that was revalidated
+	 * @param current
+	 *            Whether it was still current; if not it is dropped
+	 */
+	static synchronized void revalidated(CachedProfile e, boolean current) {
+		if(current) {
+			hits++;
+		} else {
+			stale++;
+			int clientID = e.profile.getClientID();
+			if(profiles.get(clientID) == e) {
+				profiles.remove(clientID);
+			}
+		}
+	}
+
+	/**
+	 * @param version
+	 *            The profile's version, read before the profile was
+	 */
+	static synchronized void put(ClientProfile profile, String version) {
+		if(CAPACITY > 0) {
+			profiles.put(profile.getClientID(), new CachedProfile(profile, version));
+		}
+	}
+
+	/**
+	 * Drop a client's profile; called by every write that touches the client,
+	 * their household, or their appointments
+	 *
+	 * @param clientID
+	 *            The client written to
+	 */
+	public static synchronized void invalidate(int clientID) {
+		if(profiles.remove(clientID) != null) {
+			invalidations++;
+		}
+	}
+
+	/**
+	 * Drop every profile; called on log out
+	 */
+	public static synchronized void clear() {
+		profiles.clear();
+	}
+
+	/**
+	 * @return A one-line summary of cache use
+	 */
+	public static synchronized String getStatistics() {
+		return "cached=" + profiles.size() + " capacity=" + CAPACITY + " hits=" + hits + " misses=" + misses
+				+ " stale=" + stale + " invalidations=" + invalidations;
+	}
+
+	static class CachedProfile {
+		final ClientProfile profile;
+		final String version;
+
+		CachedProfile(ClientProfile profile, String version) {
+			this.profile = profile;
+			this.version = version;
+		}
+	}
+}
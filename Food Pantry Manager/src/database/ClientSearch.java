@@ -0,0 +1,171 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * One client search: the first name, last name and SSN prefixes the user has
+ * typed. Run by Queries.searchClients, and can be cancelled from another
+ * thread while MySQL is still working on it, so a search made stale by
+ * further typing stops using the server.
+ *
+ * A search that only narrows an earlier one ("Smi" to "Smit") matches a
+ * subset of the earlier results; filter() finds them in memory instead of
+ * asking the database again.
+ *
+ * @author Scott Hoelsema
+ */
+public class ClientSearch {
+	private final String firstName;
+	private final String lastName;
+	private final String ssn;
+	private Statement running; // Set while the query is executing
+	private boolean cancelled = false;
+
+	public ClientSearch(String firstName, String lastName, String ssn) {
+		this.firstName = firstName;
+		this.lastName = lastName;
+		this.ssn = ssn;
+	}
+
+	public String getFirstName() {
+		return firstName;
+	}
+
+	public String getLastName() {
+		return lastName;
+	}
+
+	public String getSsn() {
+		return ssn;
+	}
+
+	/**
+	 * Whether every client matching this search also matches an earlier one,
+	 * so this search's results can be filtered from the earlier results. The
+	 * SSN must be the same as before; results are ClientSummary objects, which
+	 * do not hold the whole SSN to filter by.
+	 *
+	 * @param earlier
+	 *            A search that has already been run
+	 */
+	public boolean refines(ClientSearch earlier) {
+		return narrows(firstName, earlier.firstName) && narrows(lastName, earlier.lastName) && ssn.equals(earlier.ssn) && !hasWildcard(ssn);
+	}
+
+	/**
+	 * Pick the clients matching this search out of the results of a search it
+	 * refines, keeping their order
+	 *
+	 * @param earlierResults
+	 *            Results of the earlier search
+	 * @return The clients that match this search
+	 */
+	public ArrayList<ClientSummary> filter(ArrayList<ClientSummary> earlierResults) {
+		ArrayList<ClientSummary> matches = new ArrayList<ClientSummary>();
+		for(ClientSummary c : earlierResults) {
+			if(startsWith(c.getFirstName(), firstName) && startsWith(c.getLastName(), lastName)) {
+				matches.add(c);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Stop the search. If MySQL is executing it, the query is cancelled on the
+	 * server; Queries.searchClients then returns null without reporting an
+	 * error. Returns at once: the driver cancels a query by connecting to the
+	 * server again, so that is done off the calling thread, which is usually
+	 * the event thread.
+	 */
+	public void cancel() {
+		synchronized(this) {
+			cancelled = true;
+			if(running == null) {
+				return;
+			}
+		}
+		AsyncDatabase.execute(new Runnable() {
+			public void run() {
+				stopQuery();
+			}
+		});
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Called by Queries just before executing the query
+	 *
+	 * @return False if the search was cancelled before it started
+	 */
+	synchronized boolean started(Statement statement) {
+		if(cancelled) {
+			return false;
+		}
+		running = statement;
+		return true;
+	}
+
+	/**
+	 * Called by Queries once the query is done; the statement goes back to the
+	 * statement cache and must not be cancelled after this
+	 */
+	synchronized void finished() {
+		running = null;
+	}
+
+	/**
+	 * Cancel the query on the server if it is still executing
+	 */
+	private synchronized void stopQuery() {
+		if(running != null) {
+			try {
+				running.cancel();
+			} catch (SQLException e) {
+				e.printStackTrace(); // The query runs to completion and its results are ignored
+			}
+		}
+	}
+
+	/**
+	 * Whether a LIKE 'prefix%' on the narrower prefix can only match rows the
+	 * wider one matched. Prefixes containing LIKE wildcards are not compared;
+	 * those searches go to the database.
+	 */
+	private static boolean narrows(String narrower, String wider) {
+		if(hasWildcard(narrower) || hasWildcard(wider)) {
+			return false;
+		}
+		return startsWith(narrower, wider);
+	}
+
+	/**
+	 * Whether any of the search terms contains a LIKE wildcard or escape,
+	 * which only the database interprets
+	 */
+	boolean hasWildcards() {
+		return hasWildcard(firstName) || hasWildcard(lastName) || hasWildcard(ssn);
+	}
+
+	private static boolean hasWildcard(String s) {
+		return s.indexOf('%') >= 0 || s.indexOf('_') >= 0 || s.indexOf('\\') >= 0;
+	}
+
+	/**
+	 * Case insensitive, as the database's collation is
+	 */
+	private static boolean startsWith(String value, String prefix) {
+		if(value == null) {
+			return false; // NULL is not LIKE anything
+		}
+		return value.toLowerCase(Locale.ROOT).startsWith(prefix.toLowerCase(Locale.ROOT));
+	}
+}
@@ -0,0 +1,101 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+
+/**
+ * Just enough about a client to find and list them: ID, name and city. Held
+ * for every client by ClientDirectory and shown in the search results; the
+ * full Client is loaded once one is selected.
+ *
+ * @author Scott Hoelsema
+ */
+public class ClientSummary {
+	/**
+	 * The order client search results are listed in: last name, then first
+	 * name, ignoring case as the database does
+	 */
+	public static final Comparator<ClientSummary> BY_NAME = new Comparator<ClientSummary>() {
+		public int compare(ClientSummary a, ClientSummary b) {
+			int order = a.lastName.compareToIgnoreCase(b.lastName);
+			if(order == 0) {
+				order = a.firstName.compareToIgnoreCase(b.firstName);
+			}
+			if(order == 0) {
+				order = Integer.compare(a.clientID, b.clientID);
+			}
+			return order;
+		}
+	};
+
+	private final int clientID;
+	private final String firstName;
+	private final String lastName;
+	private final String city;
+
+	public ClientSummary(Client c) {
+		this(c.getClientID(), c);
+	}
+
+	/**
+	 * Summarize a client just inserted, whose Client object has no ID yet
+	 */
+	ClientSummary(int clientID, Client c) {
+		this.clientID = clientID;
+		this.firstName = c.getFirstName();
+		this.lastName = c.getLastName();
+		this.city = c.getCity();
+	}
+
+	/**
+	 * Build from a row of Queries.getClientSummaries
+	 */
+	ClientSummary(ResultSet rs) throws SQLException {
+		this.clientID = rs.getInt("client_id");
+		this.firstName = rs.getString("first_name");
+		this.lastName = rs.getString("last_name");
+		this.city = rs.getString("city");
+	}
+
+	/**
+	 * Used for display in the search results
+	 */
+	@Override
+	public String toString() {
+		return firstName + " " + lastName;
+	}
+
+	/**
+	 * Summaries are of the same client if they have the same ID, so a client
+	 * can be selected in a list by a freshly loaded summary
+	 */
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof ClientSummary && ((ClientSummary)o).clientID == clientID;
+	}
+
+	@Override
+	public int hashCode() {
+		return clientID;
+	}
+
+	public int getClientID() {
+		return clientID;
+	}
+
+	public String getFirstName() {
+		return firstName;
+	}
+
+	public String getLastName() {
+		return lastName;
+	}
+
+	public String getCity() {
+		return city;
+	}
+}
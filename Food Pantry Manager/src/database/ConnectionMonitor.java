@@ -0,0 +1,73 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+/**
+ * Background thread that checks the health of a ConnectionPool on an
+ * interval. Idle connections are pinged and dropped if dead, so queries do not
+ * need to test their connection first; the pool is told whether the database
+ * is reachable so that borrowers fail fast while it is not.
+ *
+ * @author Scott Hoelsema
+ */
+public class ConnectionMonitor extends Thread {
+	private final ConnectionPool pool;
+	private final long intervalMillis;
+	private final int pingTimeoutSeconds;
+	private volatile boolean running = true;
+	private volatile long lastCheck = 0; // When the last check finished
+	private volatile int consecutiveFailures = 0;
+
+	/**
+	 * @param pool
+	 *            The pool to watch
+	 * @param intervalSeconds
+	 *            Seconds between checks
+	 * @param pingTimeoutSeconds
+	 *            Seconds to wait on each ping
+	 */
+	public ConnectionMonitor(ConnectionPool pool, int intervalSeconds, int pingTimeoutSeconds) {
+		super("Database Connection Monitor");
+		setDaemon(true); // Never keep the application alive on its own
+		this.pool = pool;
+		this.intervalMillis = Math.max(1, intervalSeconds) * 1000L;
+		this.pingTimeoutSeconds = pingTimeoutSeconds;
+	}
+
+	@Override
+	public void run() {
+		while(running) {
+			try {
+				Thread.sleep(intervalMillis);
+			} catch (InterruptedException e) {
+				if(!running) {
+					return;
+				}
+			}
+
+			if(pool.checkHealth(pingTimeoutSeconds)) {
+				consecutiveFailures = 0;
+			} else {
+				consecutiveFailures++;
+			}
+			lastCheck = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Stop checking; called when the pool is closed
+	 */
+	public void shutdown() {
+		running = false;
+		interrupt();
+	}
+
+	public long getLastCheck() {
+		return lastCheck;
+	}
+
+	public int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+}
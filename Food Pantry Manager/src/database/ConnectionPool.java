@@ -0,0 +1,446 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A bounded pool of database connections. Connections are borrowed for the
+ * length of one operation and then returned, so the intake stations, the
+ * Swing event thread, and the backup thread no longer queue up behind a
+ * single shared connection.
+ *
+ * Connections are not tested when borrowed; that would cost a round trip
+ * before every query. Instead a ConnectionMonitor calls checkHealth() on an
+ * interval to ping idle connections and record whether the database is
+ * reachable, and callers discard connections that turn out to be broken with
+ * invalidate(). Connections that sit idle longer than the idle limit are
+ * closed, and counts of what the pool has done are kept for getStatistics().
+ *
+ * @author Scott Hoelsema
+ */
+public class ConnectionPool {
+	private final String url;
+	private final String username;
+	private final String password;
+	private final int maxConnections; // Most connections open at once, borrowed or idle
+	private final long maxIdleMillis; // Idle connections older than this are closed
+	private final long borrowTimeoutMillis; // How long a borrower waits for a connection when all are in use
+	private final int statementCacheSize; // Prepared statements kept open per connection
+
+	private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>(); // Most recently returned first
+	private int openConnections = 0; // Borrowed plus idle, plus any being opened
+	private boolean closed = false;
+	private volatile boolean reachable = true; // Result of the last health check; a connection opening successfully also sets it
+	private boolean probing = false; // A borrower is opening a connection while the database is marked unreachable
+
+	// Statistics
+	private long borrows = 0;
+	private long connectionsCreated = 0;
+	private long borrowsThatWaited = 0;
+	private long borrowTimeouts = 0;
+	private long healthChecks = 0;
+	private long pingFailures = 0;
+	private long idleEvictions = 0;
+	private long invalidated = 0;
+
+	/**
+	 * Set up a pool; no connections are opened until the first borrow
+	 *
+	 * @param url
+	 *            JDBC URL of the database
+	 * @param username
+	 *            Database username
+	 * @param password
+	 *            Database password
+	 * @param maxConnections
+	 *            Most connections open at once
+	 * @param maxIdleSeconds
+	 *            Seconds a connection may sit idle before it is closed
+	 * @param borrowTimeoutSeconds
+	 *            Seconds to wait for a connection when all are in use
+	 * @param statementCacheSize
+	 *            Prepared statements kept open per connection; 0 to close
+	 *            statements after every use
+	 */
+	public ConnectionPool(String url, String username, String password, int maxConnections, int maxIdleSeconds, int borrowTimeoutSeconds, int statementCacheSize) {
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.maxConnections = Math.max(1, maxConnections);
+		this.maxIdleMillis = maxIdleSeconds * 1000L;
+		this.borrowTimeoutMillis = borrowTimeoutSeconds * 1000L;
+		this.statementCacheSize = Math.max(0, statementCacheSize);
+	}
+
+	/**
+	 * Check a connection out of the pool. The most recently returned idle
+	 * connection is reused; otherwise a new connection is opened if the pool
+	 * is below its limit; otherwise this waits for a connection to be
+	 * returned. While the last health check found the database unreachable,
+	 * idle connections are still handed out and one borrower at a time may
+	 * try to open a new connection; any other borrower fails immediately
+	 * rather than waiting on a dead server. Only checkHealth() marks the
+	 * database unreachable, so one failed attempt to open a connection does
+	 * not shut out borrowers that would have been given a working idle one.
+	 *
+	 * @return A connection, which must be handed back with release() or
+	 *         invalidate()
+	 * @throws NoConnectionException
+	 *             The pool is closed, the database cannot be reached, or no
+	 *             connection was returned within the borrow timeout
+	 */
+	public PooledConnection borrow() throws NoConnectionException {
+		long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+		boolean waited = false;
+
+		while(true) {
+			PooledConnection idleConnection = null;
+			ArrayList<PooledConnection> expired;
+			boolean probe = false;
+			boolean refuse = false;
+
+			synchronized(this) {
+				if(closed) {
+					throw new NoConnectionException("Connection pool is closed.");
+				}
+
+				expired = removeExpiredIdle();
+
+				if(!idle.isEmpty()) {
+					idleConnection = idle.removeFirst();
+					borrows++;
+				} else if(!reachable) {
+					if(probing || openConnections >= maxConnections) {
+						refuse = true;
+					} else {
+						probing = true; // Let this borrower find out whether the database is back
+						probe = true;
+						openConnections++;
+					}
+				} else if(openConnections < maxConnections) {
+					openConnections++; // Reserve the slot; the connection is opened outside the lock
+				} else {
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0) {
+						borrowTimeouts++;
+						throw new NoConnectionException("Timed out waiting for a database connection.");
+					}
+					if(!waited) {
+						borrowsThatWaited++;
+						waited = true;
+					}
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new NoConnectionException("Interrupted waiting for a database connection.", e);
+					}
+					continue;
+				}
+			}
+
+			closeAll(expired);
+
+			if(refuse) {
+				throw new NoConnectionException("Database unreachable.");
+			}
+			if(idleConnection != null) {
+				return idleConnection;
+			}
+			PooledConnection conn;
+			try {
+				conn = openConnection();
+			} finally {
+				if(probe) {
+					synchronized(this) {
+						probing = false;
+					}
+				}
+			}
+			synchronized(this) {
+				borrows++;
+			}
+			return conn;
+		}
+	}
+
+	/**
+	 * Ping each idle connection, dropping the ones that do not answer, and
+	 * close connections idle past the limit. If nothing is open at all, one
+	 * connection is opened so the check still says whether the database can be
+	 * reached, and is kept idle for the next borrower. Called on an interval
+	 * by ConnectionMonitor.
+	 *
+	 * @param pingTimeoutSeconds
+	 *            Seconds to wait on each ping
+	 * @return Whether the database is reachable
+	 */
+	public boolean checkHealth(int pingTimeoutSeconds) {
+		ArrayList<PooledConnection> expired;
+		int toCheck;
+		boolean openOne;
+		synchronized(this) {
+			if(closed) {
+				return false;
+			}
+			healthChecks++;
+			expired = removeExpiredIdle();
+			toCheck = idle.size();
+			openOne = openConnections == 0;
+			if(openOne) {
+				openConnections++;
+			}
+		}
+		closeAll(expired);
+
+		boolean healthy = true;
+		if(openOne) {
+			try {
+				release(openConnection());
+			} catch (NoConnectionException e) {
+				healthy = false;
+			}
+		}
+
+		// Ping from the least recently used end, one at a time, so borrowers can keep taking the fresh end meanwhile
+		for(int i = 0; i < toCheck; i++) {
+			PooledConnection conn;
+			synchronized(this) {
+				if(closed || idle.isEmpty()) {
+					break;
+				}
+				conn = idle.removeLast();
+			}
+
+			if(conn.isValid(pingTimeoutSeconds)) {
+				synchronized(this) {
+					if(!closed) {
+						idle.addLast(conn); // Goes back where it was; a ping is not use
+						continue;
+					}
+					openConnections--;
+				}
+				conn.close();
+			} else {
+				synchronized(this) {
+					pingFailures++;
+				}
+				discard(conn);
+				healthy = false;
+			}
+		}
+
+		// One dead connection (e.g. killed by the server's wait_timeout) does not mean the server is gone; confirm with a fresh one
+		if(!healthy && !openOne) {
+			boolean reserved;
+			synchronized(this) {
+				reserved = !closed && openConnections < maxConnections;
+				if(reserved) {
+					openConnections++;
+				}
+			}
+			if(reserved) {
+				try {
+					release(openConnection());
+					healthy = true;
+				} catch (NoConnectionException e) {
+					healthy = false;
+				}
+			}
+		}
+
+		reachable = healthy;
+		return healthy;
+	}
+
+	/**
+	 * @return Whether the last health check found the database reachable
+	 */
+	public boolean isReachable() {
+		return reachable;
+	}
+
+	/**
+	 * Return a borrowed connection to the pool
+	 *
+	 * @param conn
+	 *            The connection to return; null is ignored
+	 */
+	public void release(PooledConnection conn) {
+		if(conn == null) {
+			return;
+		}
+
+		boolean closeNow = false;
+		synchronized(this) {
+			if(closed) {
+				openConnections--;
+				closeNow = true;
+			} else {
+				conn.markReturned();
+				idle.addFirst(conn);
+			}
+			notifyAll();
+		}
+
+		if(closeNow) {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Discard a borrowed connection that is known to be broken rather than
+	 * returning it to the pool. Idle connections are closed along with it;
+	 * whatever broke this one, usually a server restart or a dropped network,
+	 * has almost always broken them too, and reopening is cheaper than
+	 * handing each of them to a borrower to fail on.
+	 *
+	 * @param conn
+	 *            The broken connection; null is ignored
+	 */
+	public void invalidate(PooledConnection conn) {
+		if(conn == null) {
+			return;
+		}
+
+		ArrayList<PooledConnection> toClose;
+		synchronized(this) {
+			invalidated++;
+			toClose = new ArrayList<PooledConnection>(idle);
+			openConnections -= idle.size();
+			idle.clear();
+		}
+		discard(conn);
+		closeAll(toClose);
+	}
+
+	/**
+	 * Close every idle connection and refuse further borrows. Connections that
+	 * are currently borrowed are closed as they are returned.
+	 */
+	public void close() {
+		ArrayList<PooledConnection> toClose;
+		synchronized(this) {
+			closed = true;
+			toClose = new ArrayList<PooledConnection>(idle);
+			openConnections -= idle.size();
+			idle.clear();
+			notifyAll();
+		}
+		closeAll(toClose);
+	}
+
+	/**
+	 * Summarize what the pool has done since it was created
+	 *
+	 * @return A one-line summary of the pool statistics
+	 */
+	public synchronized String getStatistics() {
+		return "open=" + openConnections + " idle=" + idle.size() + " max=" + maxConnections
+				+ " borrows=" + borrows + " created=" + connectionsCreated + " waited=" + borrowsThatWaited
+				+ " timeouts=" + borrowTimeouts + " healthChecks=" + healthChecks + " pingFailures=" + pingFailures
+				+ " idleEvictions=" + idleEvictions + " invalidated=" + invalidated + " reachable=" + reachable;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public synchronized int getOpenConnections() {
+		return openConnections;
+	}
+
+	public synchronized int getIdleConnections() {
+		return idle.size();
+	}
+
+	public synchronized long getBorrows() {
+		return borrows;
+	}
+
+	public synchronized long getConnectionsCreated() {
+		return connectionsCreated;
+	}
+
+	public synchronized long getBorrowsThatWaited() {
+		return borrowsThatWaited;
+	}
+
+	public synchronized long getBorrowTimeouts() {
+		return borrowTimeouts;
+	}
+
+	public synchronized long getPingFailures() {
+		return pingFailures;
+	}
+
+	public synchronized long getIdleEvictions() {
+		return idleEvictions;
+	}
+
+	/**
+	 * Open a new connection into a slot already reserved by the caller
+	 */
+	private PooledConnection openConnection() throws NoConnectionException {
+		try {
+			PooledConnection conn = new PooledConnection(DriverManager.getConnection(url, username, password), statementCacheSize);
+			synchronized(this) {
+				connectionsCreated++;
+			}
+			reachable = true;
+			return conn;
+		} catch (SQLException e) {
+			synchronized(this) {
+				openConnections--;
+				notifyAll();
+			}
+			throw new NoConnectionException("Could not connect to the database.", e);
+		}
+	}
+
+	/**
+	 * Close a connection that is not in the idle list and free its slot
+	 */
+	private void discard(PooledConnection conn) {
+		synchronized(this) {
+			openConnections--;
+			notifyAll();
+		}
+		conn.close();
+	}
+
+	/**
+	 * Pull idle connections that have been idle too long out of the idle list;
+	 * the caller closes them outside the lock. Must hold the lock.
+	 */
+	private ArrayList<PooledConnection> removeExpiredIdle() {
+		ArrayList<PooledConnection> expired = new ArrayList<PooledConnection>();
+		long cutoff = System.currentTimeMillis() - maxIdleMillis;
+		Iterator<PooledConnection> it = idle.iterator();
+		while(it.hasNext()) {
+			PooledConnection conn = it.next();
+			if(conn.getLastReturnedAt() < cutoff) {
+				it.remove();
+				expired.add(conn);
+			}
+		}
+		if(!expired.isEmpty()) {
+			openConnections -= expired.size();
+			idleEvictions += expired.size();
+			notifyAll(); // Freed slots may let a waiting borrower open a connection
+		}
+		return expired;
+	}
+
+	private static void closeAll(ArrayList<PooledConnection> conns) {
+		for(PooledConnection conn : conns) {
+			conn.close();
+		}
+	}
+}
@@ -3,64 +3,260 @@
 
 package database;
 
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-
-import java.sql.Connection;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
 
 import javax.swing.JOptionPane;
 
 import utils.Configuration;
-import utils.Logger;
 
 /**
- * Utility for logging in to the database system
- * 
+ * Utility for logging in to the database system and handing out connections
+ * from the connection pool
+ *
  * @author Scott Hoelsema
  */
 public class DatabaseConnection {
-	private static final String SERVER_URL = "jdbc:mysql://" + Configuration.DATABASE_IP_ADDRESS + ":" + Configuration.DATABASE_PORT + "/" + Configuration.DATABASE_NAME;
-	private static Connection conn;
-	
+	private static final String SERVER_URL = "jdbc:mysql://" + Configuration.DATABASE_IP_ADDRESS + ":" + Configuration.DATABASE_PORT + "/" + Configuration.DATABASE_NAME
+			+ "?allowMultiQueries=true"; // Lets Queries.getClientProfile send its SELECTs in one round trip
+	private static final int CONNECTION_TIMEOUT_LENGTH = 2; // Timeout tolerance for pinging a pooled connection
+	private static volatile ConnectionPool pool;
+	private static ConnectionMonitor monitor; // Guarded by the class lock
+
 	/**
-	 * Log in to the database
-	 * 
+	 * Log in to the database. A new connection pool is created with the given
+	 * credentials and tested by checking out one connection; if this is a log
+	 * in after a timeout, the old pool is closed once the new one works. A
+	 * ConnectionMonitor is started to keep an eye on the new pool, any
+	 * pending SchemaMigrations are applied, and the ClientDirectory starts
+	 * loading in the background.
+	 *
 	 * @param username
 	 *            Database username
 	 * @param password
 	 *            Database password
 	 * @return boolean indicating the success of attempted log in
 	 */
-	public static boolean logIn(String username, String password) {
+	public static synchronized boolean logIn(String username, String password) {
+		ConnectionPool newPool = new ConnectionPool(SERVER_URL, username, password,
+				Configuration.DATABASE_POOL_MAX_CONNECTIONS,
+				Configuration.DATABASE_POOL_MAX_IDLE_SECONDS,
+				Configuration.DATABASE_POOL_BORROW_TIMEOUT_SECONDS,
+				Configuration.DATABASE_STATEMENT_CACHE_SIZE);
 		try {
-			conn = DriverManager.getConnection(SERVER_URL, username, password);
-			return true;
+			newPool.release(newPool.borrow());
 		} catch (SQLException e) {
+			newPool.close();
 			JOptionPane.showMessageDialog(null, "Failed log in attempt.", "Error", JOptionPane.ERROR_MESSAGE);
 			e.printStackTrace();
 			return false;
 		}
+
+		ConnectionPool oldPool = pool;
+		pool = newPool;
+		if(monitor != null) {
+			monitor.shutdown();
+		}
+		monitor = new ConnectionMonitor(newPool, Configuration.DATABASE_HEALTH_CHECK_INTERVAL_SECONDS, CONNECTION_TIMEOUT_LENGTH);
+		monitor.start();
+		if(oldPool != null) {
+			oldPool.close();
+		}
+
+		SchemaMigrations.migrate();
+		ClientDirectory.load();
+		return true;
+	}
+
+	/**
+	 * Log out of the database; closes every pooled connection and empties
+	 * the client profile cache and client directory
+	 */
+	public static synchronized void logOut() {
+		if(monitor != null) {
+			monitor.shutdown();
+			monitor = null;
+		}
+		ConnectionPool oldPool = pool;
+		pool = null;
+		if(oldPool != null) {
+			oldPool.close();
+		}
+		ClientProfileCache.clear();
+		ClientDirectory.clear();
+	}
+
+	/**
+	 * Check a connection out of the pool, run the operation on it, and return
+	 * the connection to the pool. If the connection turns out to be broken
+	 * (the server restarted or dropped it), it is discarded and the operation
+	 * is run once more on a fresh connection; only use this for operations
+	 * that are safe to repeat.
+	 *
+	 * @param operation
+	 *            The work to do with the connection
+	 * @return The result of the operation
+	 * @throws NoConnectionException
+	 *             Not logged in, or no working connection could be supplied
+	 * @throws SQLException
+	 *             The operation failed
+	 */
+	public static <T> T execute(IDatabaseOperation<T> operation) throws SQLException {
+		return execute(operation, true);
+	}
+
+	/**
+	 * Check a connection out of the pool, run the operation on it, and return
+	 * the connection to the pool. A connection that turns out to be broken is
+	 * discarded rather than returned.
+	 *
+	 * @param operation
+	 *            The work to do with the connection
+	 * @param retryOnBrokenConnection
+	 *            Whether to run the operation again on a fresh connection if
+	 *            the first one was broken; false for operations that must not
+	 *            run twice, such as inserts, since the first attempt may have
+	 *            reached the server before the connection failed
+	 * @return The result of the operation
+	 * @throws NoConnectionException
+	 *             Not logged in, or no working connection could be supplied
+	 * @throws SQLException
+	 *             The operation failed
+	 */
+	public static <T> T execute(IDatabaseOperation<T> operation, boolean retryOnBrokenConnection) throws SQLException {
+		ConnectionPool currentPool = pool;
+		if(currentPool == null) {
+			throw new NoConnectionException("Not logged in.");
+		}
+
+		int attempts = retryOnBrokenConnection ? 2 : 1;
+		for(int attempt = 1; ; attempt++) {
+			PooledConnection conn = currentPool.borrow();
+			try {
+				T result = operation.perform(conn);
+				currentPool.release(conn);
+				return result;
+			} catch (SQLException e) {
+				if(!isConnectionFailure(e)) {
+					currentPool.release(conn);
+					throw e;
+				}
+				currentPool.invalidate(conn);
+				if(attempt >= attempts) {
+					throw new NoConnectionException("Lost connection to the database.", e);
+				}
+			} catch (RuntimeException e) {
+				currentPool.release(conn);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Run a query and return a cursor over its rows. MySQL streams the rows
+	 * to the cursor as it is read (a forward-only, read-only statement with a
+	 * fetch size of Integer.MIN_VALUE) instead of the driver buffering the
+	 * whole result; the connection stays checked out until the cursor is
+	 * closed. The statement is prepared for the cursor alone rather than taken
+	 * from the statement cache, since it is closed with the cursor. Like
+	 * execute, the query is run once more on a fresh connection if the first
+	 * one turns out to be broken.
+	 *
+	 * @param sql
+	 *            The query
+	 * @param mapper
+	 *            Turns each row into an object
+	 * @param parameters
+	 *            Values for the query's ? placeholders, in order
+	 * @return An open cursor positioned before the first row
+	 * @throws NoConnectionException
+	 *             Not logged in, or no working connection could be supplied
+	 * @throws SQLException
+	 *             The query failed
+	 */
+	public static <T> RowCursor<T> openCursor(String sql, IRowMapper<T> mapper, Object... parameters) throws SQLException {
+		ConnectionPool currentPool = pool;
+		if(currentPool == null) {
+			throw new NoConnectionException("Not logged in.");
+		}
+
+		for(int attempt = 1; ; attempt++) {
+			PooledConnection conn = currentPool.borrow();
+			PreparedStatement statement = null;
+			try {
+				statement = prepareStreaming(conn, sql, parameters);
+				final ConnectionPool owner = currentPool;
+				return new RowCursor<T>(conn, statement, statement.executeQuery(), mapper) {
+					void release(PooledConnection conn, boolean broken) {
+						if(broken) {
+							owner.invalidate(conn);
+						} else {
+							owner.release(conn);
+						}
+					}
+				};
+			} catch (SQLException e) {
+				if(statement != null) {
+					StatementCache.closeQuietly(statement);
+				}
+				if(!isConnectionFailure(e)) {
+					currentPool.release(conn);
+					throw e;
+				}
+				currentPool.invalidate(conn);
+				if(attempt >= 2) {
+					throw new NoConnectionException("Lost connection to the database.", e);
+				}
+			} catch (RuntimeException e) {
+				if(statement != null) {
+					StatementCache.closeQuietly(statement);
+				}
+				currentPool.release(conn);
+				throw e;
+			}
+		}
 	}
-	
+
 	/**
-	 * Log out of the database
+	 * Prepare a statement, outside the statement cache, whose result MySQL
+	 * streams a row at a time, and bind its parameters
 	 */
-	public static void logOut() {
+	static PreparedStatement prepareStreaming(PooledConnection conn, String sql, Object[] parameters) throws SQLException {
+		PreparedStatement statement = conn.getConnection().prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
 		try {
-			conn.close();
+			statement.setFetchSize(Integer.MIN_VALUE);
+			for(int i = 0; i < parameters.length; i++) {
+				statement.setObject(i + 1, parameters[i]);
+			}
+			return statement;
 		} catch (SQLException e) {
-			Logger.logThrowable(e);
-			JOptionPane.showMessageDialog(null, "Problem logging out.", "Error", JOptionPane.ERROR_MESSAGE);
-			e.printStackTrace();
+			StatementCache.closeQuietly(statement);
+			throw e;
+		}
+	}
+
+	/**
+	 * Whether an exception means the connection itself is broken, as opposed
+	 * to a problem with the statement. SQLState class 08 is a connection
+	 * exception.
+	 */
+	static boolean isConnectionFailure(SQLException e) {
+		if(e instanceof SQLRecoverableException || e instanceof SQLNonTransientConnectionException) {
+			return true;
 		}
+		String state = e.getSQLState();
+		return state != null && state.startsWith("08");
 	}
-	
+
 	/**
-	 * Supply the connection to the database
-	 * 
-	 * @return conn The connection to the database
+	 * Supply the connection pool, e.g. to report its statistics
+	 *
+	 * @return The connection pool; null if not logged in
 	 */
-	public static Connection getConnection() {
-		return conn;
+	public static ConnectionPool getPool() {
+		return pool;
 	}
 }
@@ -0,0 +1,85 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/**
+ * A span of time to filter appointments by: from the start of the first day
+ * (inclusive) to the start of the day after the last (exclusive). Queries bind
+ * both ends as timestamps in "date >= ? AND date < ?" so MySQL can read the
+ * range from the index on appointment.date instead of converting every row's
+ * date to a string to match a LIKE pattern.
+ *
+ * @author Scott Hoelsema
+ */
+public class DateRange {
+	private final Timestamp start; // Inclusive
+	private final Timestamp end; // Exclusive
+
+	private DateRange(Calendar start, int field) {
+		this.start = new Timestamp(start.getTimeInMillis());
+		start.add(field, 1);
+		this.end = new Timestamp(start.getTimeInMillis());
+	}
+
+	/**
+	 * @param date
+	 *            Any time on the day
+	 * @return The range covering that whole day
+	 */
+	public static DateRange forDay(Date date) {
+		Calendar c = Calendar.getInstance();
+		c.setTime(date);
+		return new DateRange(startOfDay(c.get(Calendar.YEAR), c.get(Calendar.MONTH), c.get(Calendar.DAY_OF_MONTH)), Calendar.DAY_OF_MONTH);
+	}
+
+	/**
+	 * @param year
+	 *            Four digit year
+	 * @param month
+	 *            January = 1, June = 6, etc.
+	 * @return The range covering that whole month
+	 */
+	public static DateRange forMonth(int year, int month) {
+		return new DateRange(startOfDay(year, month - 1, 1), Calendar.MONTH);
+	}
+
+	/**
+	 * @param year
+	 *            Four digit year
+	 * @return The range covering that whole year
+	 */
+	public static DateRange forYear(int year) {
+		return new DateRange(startOfDay(year, Calendar.JANUARY, 1), Calendar.YEAR);
+	}
+
+	/**
+	 * @return The first instant in the range
+	 */
+	public Timestamp getStart() {
+		return start;
+	}
+
+	/**
+	 * @return The first instant after the range
+	 */
+	public Timestamp getEnd() {
+		return end;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + start + ", " + end + ")";
+	}
+
+	private static Calendar startOfDay(int year, int month, int day) {
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(year, month, day);
+		return c;
+	}
+}
@@ -0,0 +1,63 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * An entry in the deleted_row table, which triggers fill in whenever a row is
+ * deleted from the client, appointment or household table. Incremental
+ * backups carry these so that restoring them deletes the same rows.
+ *
+ * @author Scott Hoelsema
+ */
+public class DeletedRow implements IBackupRecord {
+	private final String table_name; // Table the row was deleted from
+	private final int row_id; // Primary key of the deleted row
+
+	/**
+	 * Constructor called in Queries; assumes SELECT *
+	 * 
+	 * @param rs
+	 *            The ResultSet with the cursor at the desired record
+	 * @throws SQLException
+	 *             Error in getting data from the provided ResultSet.
+	 */
+	public DeletedRow(ResultSet rs) throws SQLException {
+		table_name = rs.getString("table_name");
+		row_id = rs.getInt("row_id");
+	}
+
+	public BackupTable getBackupTable() {
+		return BackupTable.DELETED_ROW;
+	}
+
+	/**
+	 * Only rows deleted by a statement of their own are logged; MySQL does not
+	 * fire triggers for foreign key actions. Restoring deletes rows with
+	 * foreign key checks on, so deleting a client again sets off the same ON
+	 * DELETE actions as the original delete: its household members go and its
+	 * appointments are kept with no client. Those changes come from the
+	 * restore, not from the log.
+	 */
+	public Object[] getBackupValues() {
+		return new Object[]{table_name, idColumn(), row_id};
+	}
+
+	public String getTableName() {
+		return table_name;
+	}
+
+	public int getRowID() {
+		return row_id;
+	}
+
+	private String idColumn() {
+		if(table_name.equals("household")) {
+			return "household_member_id";
+		}
+		return table_name + "_id"; // client_id, appointment_id
+	}
+}
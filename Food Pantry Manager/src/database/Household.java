@@ -13,7 +13,7 @@ import java.sql.SQLException;
  * 
  * @author Scott Hoelsema
  */
-public class Household {
+public class Household implements IBackupRecord {
 	// Database fields
 	private int household_member_id; // Primary key
 	private int client_id; // Identifies client that this household member is tied to
@@ -52,49 +52,12 @@ public class Household {
 		return getName() + ": " + getRelationship();
 	}
 	
-	public String asInsertStatement() {
-		StringBuilder sb = new StringBuilder();
-		
-		// Add Insert Information
-		sb.append("INSERT INTO `food_pantry_manager`.`household` (`client_id`,`household_member_id`,`name`,`birthday`,`gender`,`relationship`) VALUES (");
-		
-		// Add ClientID
-		sb.append(client_id);
-		sb.append(",");
-		
-		// Add HouseholdMemberID
-		sb.append(household_member_id);
-		sb.append(",");
-		
-		// Add Name
-		sb.append("\"");
-		sb.append(name);
-		sb.append("\",");
-		
-		// Add Birthday
-		if(birthday != null) {
-			sb.append("\"");
-			sb.append(birthday);
-			sb.append("\",");
-		} else {
-			sb.append("NULL");
-			sb.append(",");
-		}
-		
-		// Add Gender
-		sb.append("\"");
-		sb.append(gender);
-		sb.append("\",");
-		
-		// Add Relationship
-		sb.append("\"");
-		sb.append(relationship);
-		sb.append("\"");
-		
-		// Close Line
-		sb.append(");\n");
-		
-		return sb.toString();
+	public BackupTable getBackupTable() {
+		return BackupTable.HOUSEHOLD;
+	}
+	
+	public Object[] getBackupValues() {
+		return new Object[]{household_member_id, client_id, name, birthday, gender, relationship};
 	}
 	
 	public Date getBirthday() {
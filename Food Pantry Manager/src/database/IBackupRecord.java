@@ -0,0 +1,25 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+/**
+ * A row of one of the tables that Backup saves, and that RestoreUtility
+ * turns back into SQL
+ *
+ * @author Scott Hoelsema
+ */
+public interface IBackupRecord {
+	/**
+	 * @return The table the row belongs to, which gives the order and types
+	 *         of getBackupValues()
+	 */
+	public BackupTable getBackupTable();
+
+	/**
+	 * @return The row's values: Integer for INT columns, and for the others
+	 *         anything whose toString() is the value as MySQL writes it
+	 *         (String, java.sql.Date, Timestamp); null for NULL
+	 */
+	public Object[] getBackupValues();
+}
@@ -0,0 +1,19 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.SQLException;
+
+/**
+ * A unit of work run against a connection checked out of the connection pool.
+ * Passed to DatabaseConnection.execute, which takes care of checking the
+ * connection out and returning it.
+ *
+ * @author Scott Hoelsema
+ * @param <T>
+ *            The type of the result of the operation
+ */
+public interface IDatabaseOperation<T> {
+	public T perform(PooledConnection conn) throws SQLException;
+}
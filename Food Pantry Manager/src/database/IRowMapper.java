@@ -0,0 +1,19 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a result set into an object. Used by RowCursor,
+ * which calls it once for each row as the rows arrive from the server.
+ *
+ * @author Scott Hoelsema
+ * @param <T>
+ *            The type of object each row becomes
+ */
+public interface IRowMapper<T> {
+	public T map(ResultSet rs) throws SQLException;
+}
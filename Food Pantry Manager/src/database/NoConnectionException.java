@@ -0,0 +1,23 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown when a connection to the database cannot be supplied, as opposed to
+ * an error in a statement run on a working connection. Queries, Inserts, and
+ * Updates catch this separately so that the user is prompted to log in again.
+ *
+ * @author Scott Hoelsema
+ */
+public class NoConnectionException extends SQLException {
+	public NoConnectionException(String reason) {
+		super(reason, "08001");
+	}
+
+	public NoConnectionException(String reason, Throwable cause) {
+		super(reason, "08001", cause);
+	}
+}
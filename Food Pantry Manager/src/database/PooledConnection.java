@@ -0,0 +1,127 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * A connection owned by a ConnectionPool. It is handed to one
+ * IDatabaseOperation at a time and goes back to the pool afterward, so
+ * callers should never close it or the statements it prepares; statements are
+ * kept in a StatementCache and reused by later operations on this connection.
+ *
+ * @author Scott Hoelsema
+ */
+public class PooledConnection {
+	private final Connection conn;
+	private final long createdAt;
+	private long lastReturnedAt; // When this connection last went back to the idle list
+	private final StatementCache statementCache;
+	private final ArrayList<PreparedStatement> inUse = new ArrayList<PreparedStatement>(); // Statements handed out during the current borrow
+
+	PooledConnection(Connection conn, int statementCacheSize) {
+		this.conn = conn;
+		this.statementCache = new StatementCache(statementCacheSize);
+		this.createdAt = System.currentTimeMillis();
+		this.lastReturnedAt = createdAt;
+	}
+
+	/**
+	 * Prepare a statement on this connection, or reuse the one already
+	 * prepared for the same SQL
+	 *
+	 * @param sql
+	 *            The SQL of the statement
+	 * @return The prepared statement
+	 * @throws SQLException
+	 *             Error preparing the statement
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return checkOut(statementCache.prepare(conn, sql, null));
+	}
+
+	/**
+	 * Prepare a statement on this connection that returns generated keys, or
+	 * reuse the one already prepared for the same SQL
+	 *
+	 * @param sql
+	 *            The SQL of the statement
+	 * @param keyColumns
+	 *            The names of the generated columns to return
+	 * @return The prepared statement
+	 * @throws SQLException
+	 *             Error preparing the statement
+	 */
+	public PreparedStatement prepareStatement(String sql, String[] keyColumns) throws SQLException {
+		return checkOut(statementCache.prepare(conn, sql, keyColumns));
+	}
+
+	/**
+	 * Supply the underlying JDBC connection, for the rare operation that needs
+	 * more than prepared statements (transactions, for example)
+	 *
+	 * @return The underlying JDBC connection
+	 */
+	public Connection getConnection() {
+		return conn;
+	}
+
+	long getCreatedAt() {
+		return createdAt;
+	}
+
+	long getLastReturnedAt() {
+		return lastReturnedAt;
+	}
+
+	/**
+	 * Called by the pool when this connection is returned. Statements used
+	 * during the borrow have their parameters cleared so they do not hold on
+	 * to values; if statement caching is turned off they are closed instead.
+	 */
+	void markReturned() {
+		for(PreparedStatement ps : inUse) {
+			if(statementCache.isEnabled()) {
+				try {
+					ps.clearParameters();
+				} catch (SQLException e) {
+					StatementCache.closeQuietly(ps); // A statement that cannot be reset is not worth reusing; the cache prepares a new one
+				}
+			} else {
+				StatementCache.closeQuietly(ps);
+			}
+		}
+		inUse.clear();
+		lastReturnedAt = System.currentTimeMillis();
+	}
+
+	private PreparedStatement checkOut(PreparedStatement ps) {
+		inUse.add(ps);
+		return ps;
+	}
+
+	boolean isValid(int timeoutSeconds) {
+		try {
+			return conn.isValid(timeoutSeconds);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Close the underlying connection; only the pool should do this
+	 */
+	void close() {
+		statementCache.closeAll();
+		inUse.clear();
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+}
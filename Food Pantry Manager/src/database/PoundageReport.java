@@ -0,0 +1,59 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.util.ArrayList;
+
+/**
+ * Pounds distributed and visits completed over a date range, and optionally
+ * the completed appointments themselves. Built by
+ * Queries.getPoundageReport from a single statement, so the totals always
+ * agree with the detail even if a pick up is recorded while the report runs.
+ *
+ * @author Scott Hoelsema
+ */
+public class PoundageReport {
+	private int totalPounds = 0;
+	private int visits = 0; // Completed appointments, including those of clients since deleted
+	private ArrayList<Appointment> appointments; // Null if detail was not requested
+
+	PoundageReport(boolean includeDetail) {
+		if(includeDetail) {
+			appointments = new ArrayList<Appointment>();
+		}
+	}
+
+	void setTotals(int totalPounds, int visits) {
+		this.totalPounds = totalPounds;
+		this.visits = visits;
+	}
+
+	/**
+	 * Count one completed appointment toward the totals, and keep it for the
+	 * detail if it was requested and the client still exists
+	 */
+	void addAppointment(Appointment a, int pounds, boolean hasClient) {
+		totalPounds += pounds;
+		visits++;
+		if(appointments != null && hasClient) {
+			appointments.add(a);
+		}
+	}
+
+	public int getTotalPounds() {
+		return totalPounds;
+	}
+
+	public int getVisits() {
+		return visits;
+	}
+
+	/**
+	 * @return Completed appointments in date order, with client names; null if
+	 *         detail was not requested
+	 */
+	public ArrayList<Appointment> getAppointments() {
+		return appointments;
+	}
+}
@@ -5,7 +5,6 @@ package database;
 
 import gui.LogIn;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -15,6 +14,7 @@ import java.util.ArrayList;
 import javax.swing.JOptionPane;
 
 import utils.Logger;
+import utils.Utilities;
 
 /**
  * A collection of static methods that query the database
@@ -22,17 +22,7 @@ import utils.Logger;
  * @author Scott Hoelsema
  */
 public class Queries {
-	private static Connection conn = DatabaseConnection.getConnection();
-	private static final int CONNECTION_TIMEOUT_LENGTH = 2; // Timeout tolerance for testing database connection
-	private static boolean accessBlocked = false; // Allows other classes to forbid querying; used by LogIn
-	
-	/**
-	 * Refresh the connection to the database. This is used when a timeout has
-	 * kicked the user off.
-	 */
-	public static void resetConnection() {
-		conn = DatabaseConnection.getConnection();
-	}
+	private static volatile boolean accessBlocked = false; // Allows other classes to forbid querying; used by LogIn
 	
 	/*
 	 * Allows other classes to block querying. This is necessary because after a
@@ -59,12 +49,31 @@ public class Queries {
 	
 	private static void showNoConnectionError() {
 		blockQuerying();
-		JOptionPane.showMessageDialog(null, "No database connection.", "Error", JOptionPane.ERROR_MESSAGE);
-		new LogIn(false);
+		Utilities.invokeOnEventThread(new Runnable() { // Queries may be run off the event thread by AsyncDatabase
+			public void run() {
+				JOptionPane.showMessageDialog(null, "No database connection.", "Error", JOptionPane.ERROR_MESSAGE);
+				new LogIn(false);
+			}
+		});
 	}
 	
 	private static void showDatabaseError() {
-		JOptionPane.showMessageDialog(null, "Database error.", "Error", JOptionPane.ERROR_MESSAGE);
+		Utilities.invokeOnEventThread(new Runnable() {
+			public void run() {
+				JOptionPane.showMessageDialog(null, "Database error.", "Error", JOptionPane.ERROR_MESSAGE);
+			}
+		});
+	}
+	
+	/**
+	 * Open a cursor in the snapshot if there is one, otherwise on a pooled
+	 * connection
+	 */
+	private static <T> RowCursor<T> openCursor(ReadSnapshot snapshot, String sql, IRowMapper<T> mapper) throws SQLException {
+		if(snapshot != null) {
+			return snapshot.openCursor(sql, mapper);
+		}
+		return DatabaseConnection.openCursor(sql, mapper);
 	}
 	
 	/***************************\
@@ -72,28 +81,33 @@ public class Queries {
 	\***************************/
 	
 	/**
-	 * Get all the clients in the database
+	 * Read every client in the database, a row at a time
+	 * 
+	 * @return An open cursor over every client; the caller must close it.
+	 *         Null if database or connection error
+	 */
+	public static RowCursor<Client> streamAllClients() {
+		return streamAllClients(null);
+	}
+	
+	/**
+	 * Read every client in a snapshot of the database, a row at a time
 	 * 
-	 * @return an ArrayList of Client objects for each client in the database
+	 * @param snapshot
+	 *            The snapshot to read; null to read the database as it is
+	 * @return An open cursor over every client; the caller must close it.
+	 *         Null if database or connection error
 	 */
-	public static ArrayList<Client> getAllClients() {
+	public static RowCursor<Client> streamAllClients(ReadSnapshot snapshot) {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement getAllClients = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`client`;");
-				ResultSet allClientsRS = getAllClients.executeQuery();
-				
-				// Put results into Client ArrayList and return
-				ArrayList<Client> allClients = new ArrayList<Client>();
-				while(allClientsRS.next()) {
-					Client c = new Client(allClientsRS);
-					allClients.add(c);
+			return openCursor(snapshot, "SELECT * FROM `food_pantry_manager`.`client`;", new IRowMapper<Client>() {
+				public Client map(ResultSet rs) throws SQLException {
+					return new Client(rs);
 				}
-				return allClients;
-			} else {
-				showNoConnectionError();
-				return null;
-			}
+			});
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
 		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
@@ -103,38 +117,77 @@ public class Queries {
 	}
 	
 	/**
-	 * Search clients based on passed in criteria
+	 * Search clients a page at a time, with a search that may be cancelled
+	 * from another thread. Only the columns of a ClientSummary are read; the
+	 * rest of a client, notes included, is loaded when one is selected. Pages are found by keyset: each page starts after
+	 * the last client of the one before, in (last_name, first_name, client_id)
+	 * order, which the ClientName index covers (InnoDB indexes end with the
+	 * primary key). Unlike LIMIT with OFFSET, a later page costs no more than
+	 * the first.
 	 * 
-	 * @param firstName
-	 *            Blank, partial or full first name
-	 * @param lastName
-	 *            Blank, partial or full last name
-	 * @param ssn
-	 *            Blank, partial or full social security number
-	 * @return ArrayList of clients that match the search criteria
+	 * @param search
+	 *            The names and SSN to search by
+	 * @param after
+	 *            The last client of the previous page; null for the first
+	 *            page
+	 * @param pageSize
+	 *            Most clients to return; 0 for all of them
+	 * @return Summaries of the clients that match the search criteria, in
+	 *         order; null if the search was cancelled or there was a database
+	 *         or connection problem
 	 */
-	public static ArrayList<Client> searchClients(String firstName, String lastName, String ssn) {
+	public static ArrayList<ClientSummary> searchClients(final ClientSearch search, final ClientSummary after, final int pageSize) {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement searchClients = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`client` WHERE first_name LIKE ? AND last_name LIKE ? AND ssn LIKE ? ORDER BY last_name, first_name ASC;");
-				searchClients.setString(1, firstName + "%");
-				searchClients.setString(2, lastName + "%");
-				searchClients.setString(3, ssn + "%");
-				ResultSet matchingClients = searchClients.executeQuery();
-				
-				// Put results into Client ArrayList and return
-				ArrayList<Client> clients = new ArrayList<Client>();
-				while(matchingClients.next()) {
-					Client c = new Client(matchingClients);
-					clients.add(c);
+			return DatabaseConnection.execute(new IDatabaseOperation<ArrayList<ClientSummary>>() {
+				public ArrayList<ClientSummary> perform(PooledConnection conn) throws SQLException {
+					// Prepare and execute SQL
+					String sql = "SELECT client_id, first_name, last_name, city FROM `food_pantry_manager`.`client` WHERE first_name LIKE ? AND last_name LIKE ? AND ssn LIKE ?";
+					if(after != null) {
+						sql += " AND (last_name > ? OR (last_name = ? AND (first_name > ? OR (first_name = ? AND client_id > ?))))"; // Spelled out; MySQL does not use an index for a row comparison
+					}
+					sql += " ORDER BY last_name, first_name, client_id";
+					if(pageSize > 0) {
+						sql += " LIMIT ?";
+					}
+					PreparedStatement searchClients = conn.prepareStatement(sql + ";");
+					int i = 1;
+					searchClients.setString(i++, search.getFirstName() + "%");
+					searchClients.setString(i++, search.getLastName() + "%");
+					searchClients.setString(i++, search.getSsn() + "%");
+					if(after != null) {
+						searchClients.setString(i++, after.getLastName());
+						searchClients.setString(i++, after.getLastName());
+						searchClients.setString(i++, after.getFirstName());
+						searchClients.setString(i++, after.getFirstName());
+						searchClients.setInt(i++, after.getClientID());
+					}
+					if(pageSize > 0) {
+						searchClients.setInt(i++, pageSize);
+					}
+					if(!search.started(searchClients)) {
+						return null; // Cancelled before it reached the database
+					}
+					try {
+						ResultSet matchingClients = searchClients.executeQuery();
+					
+						// Put results into ClientSummary ArrayList and return
+						ArrayList<ClientSummary> clients = new ArrayList<ClientSummary>();
+						while(matchingClients.next()) {
+							clients.add(new ClientSummary(matchingClients));
+						}
+						return search.isCancelled() ? null : clients;
+					} finally {
+						search.finished();
+					}
 				}
-				return clients;
-			} else {
-				showNoConnectionError();
+			});
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
+		} catch (SQLException e) {
+			if(search.isCancelled()) { // MySQL stopped the query because it was cancelled
 				return null;
 			}
-		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
 			e.printStackTrace();
@@ -149,21 +202,23 @@ public class Queries {
 	 */
 	public static ArrayList<String> getCities() {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement searchClients = conn.prepareStatement("SELECT DISTINCT city FROM `food_pantry_manager`.`client`;");
-				ResultSet citiesInDatabase = searchClients.executeQuery();
+			return DatabaseConnection.execute(new IDatabaseOperation<ArrayList<String>>() {
+				public ArrayList<String> perform(PooledConnection conn) throws SQLException {
+					// Prepare and execute SQL
+					PreparedStatement searchClients = conn.prepareStatement("SELECT DISTINCT city FROM `food_pantry_manager`.`client`;");
+					ResultSet citiesInDatabase = searchClients.executeQuery();
 				
-				// Put results into ArrayList and return
-				ArrayList<String> cities = new ArrayList<String>();
-				while(citiesInDatabase.next()) {
-					cities.add(citiesInDatabase.getString("city"));
+					// Put results into ArrayList and return
+					ArrayList<String> cities = new ArrayList<String>();
+					while(citiesInDatabase.next()) {
+						cities.add(citiesInDatabase.getString("city"));
+					}
+					return cities;
 				}
-				return cities;
-			} else {
-				showNoConnectionError();
-				return null;
-			}
+			});
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
 		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
@@ -172,25 +227,42 @@ public class Queries {
 		}
 	}
 	
-	public static ArrayList<Client> getClientsForCity(String city) {
+	/**
+	 * Get the clients in a city for the district report. Only what the report
+	 * lists is read: ID, name, address, city and telephone; the other fields
+	 * of the Client objects, notes and SSN included, are left unset.
+	 * 
+	 * @param city
+	 *            The city
+	 * @return The city's clients by name
+	 */
+	public static ArrayList<Client> getClientsForCity(final String city) {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement searchClients = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`client` WHERE city = ? ORDER BY last_name, first_name;");
-				searchClients.setString(1, city);
-				ResultSet matchingClients = searchClients.executeQuery();
+			return DatabaseConnection.execute(new IDatabaseOperation<ArrayList<Client>>() {
+				public ArrayList<Client> perform(PooledConnection conn) throws SQLException {
+					// Prepare and execute SQL
+					PreparedStatement searchClients = conn.prepareStatement("SELECT client_id, first_name, last_name, address, city, telephone FROM `food_pantry_manager`.`client` WHERE city = ? ORDER BY last_name, first_name;");
+					searchClients.setString(1, city);
+					ResultSet matchingClients = searchClients.executeQuery();
 				
-				// Put results into Client ArrayList and return
-				ArrayList<Client> clients = new ArrayList<Client>();
-				while(matchingClients.next()) {
-					Client c = new Client(matchingClients);
-					clients.add(c);
+					// Put results into Client ArrayList and return
+					ArrayList<Client> clients = new ArrayList<Client>();
+					while(matchingClients.next()) {
+						Client c = new Client();
+						c.setClientID(matchingClients.getInt("client_id"));
+						c.setFirstName(matchingClients.getString("first_name"));
+						c.setLastName(matchingClients.getString("last_name"));
+						c.setAddress(matchingClients.getString("address"));
+						c.setCity(matchingClients.getString("city"));
+						c.setTelephone(matchingClients.getString("telephone"));
+						clients.add(c);
+					}
+					return clients;
 				}
-				return clients;
-			} else {
-				showNoConnectionError();
-				return null;
-			}
+			});
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
 		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
@@ -205,23 +277,136 @@ public class Queries {
 	 * @param clientID The client ID to lookup
 	 * @return Client object representing the client in the database with this clientID
 	 */
-	public static Client getClientByID(int clientID) {
+	public static Client getClientByID(final int clientID) {
 		if(!accessBlocked) {
 			try {
-				if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-					// Prepare and execute SQL
-					PreparedStatement getClientByID = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`client` WHERE client_id = ?");
-					getClientByID.setInt(1, clientID);
-					ResultSet resultClient = getClientByID.executeQuery();
+				return DatabaseConnection.execute(new IDatabaseOperation<Client>() {
+					public Client perform(PooledConnection conn) throws SQLException {
+						// Prepare and execute SQL
+						PreparedStatement getClientByID = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`client` WHERE client_id = ?");
+						getClientByID.setInt(1, clientID);
+						ResultSet resultClient = getClientByID.executeQuery();
 					
-					// Put results into Client object and return
-					resultClient.next();
-					Client client = new Client(resultClient);
-					return client;
-				} else {
-					showNoConnectionError();
-					return null;
-				}
+						// Put results into Client object and return
+						resultClient.next();
+						Client client = new Client(resultClient);
+						return client;
+					}
+				});
+			} catch (NoConnectionException e) {
+				showNoConnectionError();
+				return null;
+			} catch (SQLException e) {
+				Logger.logThrowable(e);
+				showDatabaseError();
+				e.printStackTrace();
+				return null;
+			}
+		} else {
+			return null;
+		}
+	}
+	
+	/**
+	 * Load everything the client tabs show about a client in one round trip:
+	 * the client, their household, their next appointment, and their
+	 * completed appointments, most recent first. The four SELECTs are sent
+	 * together and their results read in turn. A recently loaded profile is
+	 * taken from ClientProfileCache instead if its version shows it is still
+	 * current.
+	 * 
+	 * @param clientID
+	 *            The client to load
+	 * @return ClientProfile for the client; null if database or connection
+	 *         error, or the client no longer exists
+	 */
+	public static ClientProfile getClientProfile(final int clientID) {
+		if(!accessBlocked) {
+			try {
+				return DatabaseConnection.execute(new IDatabaseOperation<ClientProfile>() {
+					public ClientProfile perform(PooledConnection conn) throws SQLException {
+						// The profile's version changes with any change to the client, their household or their appointments; counting rows catches deletions
+						boolean cacheable = SchemaMigrations.isUpToDate(); // Household and appointment rows have valid_as_of
+						String versionSql = "SELECT CONCAT(GREATEST(c.valid_as_of, COALESCE(h.changed, c.valid_as_of), COALESCE(a.changed, c.valid_as_of)), '/', h.n + a.n) AS version "
+								+ "FROM `food_pantry_manager`.`client` c, "
+								+ "(SELECT MAX(valid_as_of) AS changed, COUNT(*) AS n FROM `food_pantry_manager`.`household` WHERE client_id = ?) h, "
+								+ "(SELECT MAX(valid_as_of) AS changed, COUNT(*) AS n FROM `food_pantry_manager`.`appointment` WHERE client_id = ?) a "
+								+ "WHERE c.client_id = ?;";
+						
+						// Try the cache; a cached profile is current if its version has not changed since
+						ClientProfileCache.CachedProfile cached = cacheable ? ClientProfileCache.get(clientID) : null;
+						if(cached != null) {
+							PreparedStatement versionLookup = conn.prepareStatement(versionSql);
+							for(int i = 1; i <= 3; i++) {
+								versionLookup.setInt(i, clientID);
+							}
+							ResultSet version = versionLookup.executeQuery();
+							boolean current = version.next() && cached.version.equals(version.getString("version"));
+							ClientProfileCache.revalidated(cached, current);
+							if(current) {
+								return cached.profile;
+							}
+						}
+						
+						// Prepare and execute SQL; needs allowMultiQueries on the connection. The version is read first, so a change made while the rest is read makes the cached profile stale rather than lost.
+						PreparedStatement profileLookup = conn.prepareStatement((cacheable ? versionSql + " " : "")
+								+ "SELECT * FROM `food_pantry_manager`.`client` WHERE client_id = ?; "
+								+ "SELECT * FROM `food_pantry_manager`.`household` WHERE client_id = ?; "
+								+ "SELECT * FROM `food_pantry_manager`.`appointment` WHERE client_id = ? AND pounds IS NULL; "
+								+ "SELECT * FROM `food_pantry_manager`.`appointment` WHERE client_id = ? AND pounds IS NOT NULL ORDER BY appointment_id DESC;");
+						int parameters = cacheable ? 7 : 4;
+						for(int i = 1; i <= parameters; i++) {
+							profileLookup.setInt(i, clientID);
+						}
+						profileLookup.execute();
+						
+						// Version
+						ResultSet rs = profileLookup.getResultSet();
+						String version = null;
+						if(cacheable) {
+							version = rs.next() ? rs.getString("version") : null;
+							profileLookup.getMoreResults();
+							rs = profileLookup.getResultSet();
+						}
+						
+						// Client
+						Client client = rs.next() ? new Client(rs) : null;
+						
+						// Household
+						profileLookup.getMoreResults();
+						rs = profileLookup.getResultSet();
+						ArrayList<Household> household = new ArrayList<Household>();
+						while(rs.next()) {
+							household.add(new Household(rs));
+						}
+						
+						// Next appointment
+						profileLookup.getMoreResults();
+						rs = profileLookup.getResultSet();
+						Appointment nextAppointment = rs.next() ? new Appointment(rs, false) : null;
+						
+						// Completed appointments
+						profileLookup.getMoreResults();
+						rs = profileLookup.getResultSet();
+						ArrayList<Appointment> completedAppointments = new ArrayList<Appointment>();
+						while(rs.next()) {
+							completedAppointments.add(new Appointment(rs, false));
+						}
+						rs.close();
+						
+						if(client == null) { // Deleted, perhaps at another station
+							return null;
+						}
+						ClientProfile profile = new ClientProfile(client, household, nextAppointment, completedAppointments);
+						if(version != null) {
+							ClientProfileCache.put(profile, version);
+						}
+						return profile;
+					}
+				});
+			} catch (NoConnectionException e) {
+				showNoConnectionError();
+				return null;
 			} catch (SQLException e) {
 				Logger.logThrowable(e);
 				showDatabaseError();
@@ -235,43 +420,24 @@ public class Queries {
 	
 	/**
 	 * Checks if the given address is listed for another client in the database.
-	 * If it is, it returns true; else false.
 	 * 
 	 * @param address
-	 *            The address to compare to; must be exact
+	 *            The address to compare to; compared ignoring case,
+	 *            punctuation, and spacing
 	 * @param city
-	 *            The city to compare to; must be exact
+	 *            The city to compare to; compared the same way
 	 * @param exempt
 	 *            A client that is exempt from the check; used if checking for
 	 *            duplicates on update of existing client
 	 * @return -1 if database or connection error, 0 if no duplicates, 1 if a
 	 *         duplicate exists
 	 */
-	public static int checkForDuplicateAddresses(String address, String city, Client exempt) {
+	public static int checkForDuplicateAddresses(final String address, final String city, final Client exempt) {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement getAllClients = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`client`");
-				ResultSet allClients = getAllClients.executeQuery();
-				
-				// Put results into Client ArrayList and return
-				while(allClients.next()) {
-					if(exempt == null) {
-						if(allClients.getString("address").equals(address) && allClients.getString("city").equals(city)) {
-							return 1;
-						}
-					} else {
-						if(allClients.getString("address").equals(address) && allClients.getString("city").equals(city) && exempt.getClientID() != allClients.getInt("client_id")) {
-							return 1;
-						}
-					}
-					
-				}
-				return 0;
-			} else {
-				showNoConnectionError();
-				return -1;
-			}
+			return isAddressInUse(address, city, exempt == null ? 0 : exempt.getClientID()) ? 1 : 0;
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return -1;
 		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
@@ -280,33 +446,139 @@ public class Queries {
 		}
 	}
 	
+	/**
+	 * Checks if the given address is listed for another client, without
+	 * showing any errors; for checks that run in the background while the user
+	 * types, where the check on save will report any problem
+	 * 
+	 * @param address
+	 *            The address to compare to
+	 * @param city
+	 *            The city to compare to
+	 * @param exemptClientID
+	 *            ID of a client that is exempt from the check; 0 for none
+	 * @return Whether another client has the address
+	 * @throws SQLException
+	 *             Database or connection error
+	 */
+	public static boolean isAddressInUse(final String address, final String city, final int exemptClientID) throws SQLException {
+		return DatabaseConnection.execute(new IDatabaseOperation<Boolean>() {
+			public Boolean perform(PooledConnection conn) throws SQLException {
+				PreparedStatement checkAddress = conn.prepareStatement("SELECT EXISTS(SELECT 1 FROM `food_pantry_manager`.`client` WHERE address_key = ? AND client_id <> ?);");
+				checkAddress.setString(1, Client.makeAddressKey(address, city));
+				checkAddress.setInt(2, exemptClientID);
+				ResultSet exists = checkAddress.executeQuery();
+				exists.next();
+				return exists.getBoolean(1);
+			}
+		});
+	}
+	
+	/**
+	 * Summaries of clients for ClientDirectory. Runs in the background, so
+	 * errors are thrown rather than shown.
+	 * 
+	 * @param changedSince
+	 *            Only clients added or changed at or after this time (database
+	 *            clock); null for every client
+	 * @return The summaries, in no particular order
+	 * @throws SQLException
+	 *             Database or connection error
+	 */
+	public static ArrayList<ClientSummary> getClientSummaries(final Timestamp changedSince) throws SQLException {
+		return DatabaseConnection.execute(new IDatabaseOperation<ArrayList<ClientSummary>>() {
+			public ArrayList<ClientSummary> perform(PooledConnection conn) throws SQLException {
+				PreparedStatement getSummaries;
+				if(changedSince == null) {
+					getSummaries = conn.prepareStatement("SELECT client_id, first_name, last_name, city FROM `food_pantry_manager`.`client`;");
+				} else {
+					getSummaries = conn.prepareStatement("SELECT client_id, first_name, last_name, city FROM `food_pantry_manager`.`client` WHERE valid_as_of >= ?;");
+					getSummaries.setTimestamp(1, changedSince);
+				}
+				ResultSet summariesRS = getSummaries.executeQuery();
+				
+				ArrayList<ClientSummary> summaries = new ArrayList<ClientSummary>();
+				while(summariesRS.next()) {
+					summaries.add(new ClientSummary(summariesRS));
+				}
+				summariesRS.close();
+				return summaries;
+			}
+		});
+	}
+	
+	/**
+	 * Count the clients; lets ClientDirectory notice clients deleted at other
+	 * stations
+	 * 
+	 * @return The number of clients
+	 * @throws SQLException
+	 *             Database or connection error
+	 */
+	public static int countClients() throws SQLException {
+		return DatabaseConnection.execute(new IDatabaseOperation<Integer>() {
+			public Integer perform(PooledConnection conn) throws SQLException {
+				ResultSet countRS = conn.prepareStatement("SELECT COUNT(*) FROM `food_pantry_manager`.`client`;").executeQuery();
+				countRS.next();
+				int count = countRS.getInt(1);
+				countRS.close();
+				return count;
+			}
+		});
+	}
+	
+	/**
+	 * Read the database clock, which valid_as_of is set from; the stations'
+	 * own clocks may not agree with it
+	 * 
+	 * @return The database's current time
+	 * @throws SQLException
+	 *             Database or connection error
+	 */
+	public static Timestamp getDatabaseTime() throws SQLException {
+		return DatabaseConnection.execute(new IDatabaseOperation<Timestamp>() {
+			public Timestamp perform(PooledConnection conn) throws SQLException {
+				ResultSet nowRS = conn.prepareStatement("SELECT NOW();").executeQuery();
+				nowRS.next();
+				Timestamp now = nowRS.getTimestamp(1);
+				nowRS.close();
+				return now;
+			}
+		});
+	}
+	
 	/********************************\
 	 * QUERIES ON appointment TABLE *
 	\********************************/
 	
 	/**
-	 * Get all the appointments in the database
+	 * Read every appointment in the database, a row at a time
+	 * 
+	 * @return An open cursor over every appointment; the caller must close
+	 *         it. Null if database or connection error
+	 */
+	public static RowCursor<Appointment> streamAllAppointments() {
+		return streamAllAppointments(null);
+	}
+	
+	/**
+	 * Read every appointment in a snapshot of the database, a row at a time
 	 * 
-	 * @return An ArrayList of Appointment objects for each appoitnment in the database
+	 * @param snapshot
+	 *            The snapshot to read; null to read the database as it is
+	 * @return An open cursor over every appointment; the caller must close it.
+	 *         Null if database or connection error
 	 */
-	public static ArrayList<Appointment> getAllAppointments() {
+	public static RowCursor<Appointment> streamAllAppointments(ReadSnapshot snapshot) {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement getAllAppointments = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`appointment`;");
-				ResultSet allApptsRS = getAllAppointments.executeQuery();
-				
-				// Put results into Client ArrayList and return
-				ArrayList<Appointment> allAppts = new ArrayList<Appointment>();
-				while(allApptsRS.next()) {
-					Appointment a = new Appointment(allApptsRS, false);
-					allAppts.add(a);
+			return openCursor(snapshot, "SELECT * FROM `food_pantry_manager`.`appointment`;", new IRowMapper<Appointment>() {
+				public Appointment map(ResultSet rs) throws SQLException {
+					return new Appointment(rs, false);
 				}
-				return allAppts;
-			} else {
-				showNoConnectionError();
-				return null;
-			}
+			});
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
 		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
@@ -322,22 +594,24 @@ public class Queries {
 	 *            The client for whom we are looking up the next appointment
 	 * @return Appointment object for this client's next appointment
 	 */
-	public static Appointment getNextAppointment(int clientID) {
+	public static Appointment getNextAppointment(final int clientID) {
 		if(!accessBlocked) {
 			try {
-				if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-					// Prepare and execute SQL
-					PreparedStatement nextApptLookup = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`appointment` WHERE client_id = ? AND pounds IS NULL;");
-					nextApptLookup.setInt(1, clientID);
-					ResultSet nextAppt = nextApptLookup.executeQuery();
+				return DatabaseConnection.execute(new IDatabaseOperation<Appointment>() {
+					public Appointment perform(PooledConnection conn) throws SQLException {
+						// Prepare and execute SQL
+						PreparedStatement nextApptLookup = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`appointment` WHERE client_id = ? AND pounds IS NULL;");
+						nextApptLookup.setInt(1, clientID);
+						ResultSet nextAppt = nextApptLookup.executeQuery();
 					
-					// Put results into Appointment object and return
-					nextAppt.next();
-					return new Appointment(nextAppt, false);
-				} else {
-					showNoConnectionError();
-					return null;
-				}
+						// Put results into Appointment object and return
+						nextAppt.next();
+						return new Appointment(nextAppt, false);
+					}
+				});
+			} catch (NoConnectionException e) {
+				showNoConnectionError();
+				return null;
 			} catch (SQLException e) {
 				Logger.logThrowable(e);
 				showDatabaseError();
@@ -357,26 +631,28 @@ public class Queries {
 	 *            The client for whom to lookup appointments
 	 * @return An ArrayList of appointments
 	 */
-	public static ArrayList<Appointment> getCompletedApptsForClient(int clientID) {
+	public static ArrayList<Appointment> getCompletedApptsForClient(final int clientID) {
 		if(!accessBlocked) {
 			try {
-				if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-					// Prepare and execute SQL
-					PreparedStatement apptsForClientLookup = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`appointment` WHERE client_id = ? AND pounds IS NOT NULL ORDER BY appointment_id DESC");
-					apptsForClientLookup.setInt(1, clientID);
-					ResultSet clientAppts = apptsForClientLookup.executeQuery();
+				return DatabaseConnection.execute(new IDatabaseOperation<ArrayList<Appointment>>() {
+					public ArrayList<Appointment> perform(PooledConnection conn) throws SQLException {
+						// Prepare and execute SQL
+						PreparedStatement apptsForClientLookup = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`appointment` WHERE client_id = ? AND pounds IS NOT NULL ORDER BY appointment_id DESC");
+						apptsForClientLookup.setInt(1, clientID);
+						ResultSet clientAppts = apptsForClientLookup.executeQuery();
 					
-					// Put results into Appointment ArrayList and return
-					ArrayList<Appointment> appts = new ArrayList<Appointment>();
-					while(clientAppts.next()) {
-						Appointment appt = new Appointment(clientAppts, false);
-						appts.add(appt);
+						// Put results into Appointment ArrayList and return
+						ArrayList<Appointment> appts = new ArrayList<Appointment>();
+						while(clientAppts.next()) {
+							Appointment appt = new Appointment(clientAppts, false);
+							appts.add(appt);
+						}
+						return appts;
 					}
-					return appts;
-				} else {
-					showNoConnectionError();
-					return null;
-				}
+				});
+			} catch (NoConnectionException e) {
+				showNoConnectionError();
+				return null;
 			} catch (SQLException e) {
 				Logger.logThrowable(e);
 				showDatabaseError();
@@ -389,130 +665,149 @@ public class Queries {
 	}
 	
 	/**
-	 * Returns total number of pounds distributed in the passed in
-	 * date/date range
+	 * Returns the pounds distributed and visits completed in the passed in
+	 * date/date range, and optionally the completed appointments themselves.
+	 * Everything comes from one statement and one read of the date range, so
+	 * the totals and the detail always agree.
 	 * 
-	 * @param ts
-	 *            String in format YYYY-MM-DD, may contain SQL wildcards
-	 * @return int identifying the total number of pounds distributed in the passed
-	 *         in date/date range
+	 * @param range
+	 *            The day, month, or year to cover
+	 * @param includeDetail
+	 *            Whether to return the completed appointments, with client
+	 *            names, as well as the totals
+	 * @return PoundageReport for the range; null if database or connection
+	 *         error
 	 */
-	public static int getTotalPoundageForTimestamp(String ts) {
+	public static PoundageReport getPoundageReport(final DateRange range, final boolean includeDetail) {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement getTotalPoundage = conn.prepareStatement("SELECT SUM(pounds) FROM `food_pantry_manager`.`appointment` WHERE date LIKE ?;");
-				getTotalPoundage.setString(1, ts);
-				ResultSet sumPounds = getTotalPoundage.executeQuery();
-				
-				// Return the sum of the pounds for the given timestamp
-				sumPounds.next();
-				return sumPounds.getInt("SUM(pounds)");
-			} else {
-				showNoConnectionError();
-				return -1;
-			}
+			return DatabaseConnection.execute(new IDatabaseOperation<PoundageReport>() {
+				public PoundageReport perform(PooledConnection conn) throws SQLException {
+					PoundageReport report = new PoundageReport(includeDetail);
+					
+					if(!includeDetail) { // Totals alone can be summed by the server
+						PreparedStatement getTotals = conn.prepareStatement("SELECT COALESCE(SUM(pounds), 0), COUNT(*) FROM `food_pantry_manager`.`appointment` WHERE date >= ? AND date < ? AND pounds IS NOT NULL;");
+						getTotals.setTimestamp(1, range.getStart());
+						getTotals.setTimestamp(2, range.getEnd());
+						ResultSet totals = getTotals.executeQuery();
+						totals.next();
+						report.setTotals(totals.getInt(1), totals.getInt(2));
+						return report;
+					}
+					
+					// Totals are summed from the detail rows as they stream in; the left join keeps appointments of deleted clients in the totals
+					PreparedStatement getCompleted = conn.prepareStatement("SELECT appointment.*, client.first_name, client.last_name FROM `food_pantry_manager`.`appointment` LEFT JOIN `food_pantry_manager`.`client` ON appointment.client_id = client.client_id WHERE date >= ? AND date < ? AND pounds IS NOT NULL ORDER BY date ASC;");
+					getCompleted.setTimestamp(1, range.getStart());
+					getCompleted.setTimestamp(2, range.getEnd());
+					getCompleted.setFetchSize(Integer.MIN_VALUE); // Stream rows rather than have the driver buffer a year of appointments
+					ResultSet completed = getCompleted.executeQuery();
+					try {
+						while(completed.next()) {
+							report.addAppointment(new Appointment(completed, true), completed.getInt("pounds"), completed.getString("first_name") != null);
+						}
+					} finally {
+						completed.close(); // A streaming result must be finished before the connection runs anything else
+					}
+					return report;
+				}
+			});
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
 		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
 			e.printStackTrace();
-			return -1;
+			return null;
 		}
 	}
 	
 	/**
-	 * Returns total number of distinct clients served in the passed in
-	 * date/date range
+	 * Returns appointments scheduled in the given date/date range.
 	 * 
-	 * @param ts
-	 *            String in format YYYY-MM-DD, may contain SQL wildcards
-	 * @return int identifying the total number of clients served in the passed
-	 *         in date/date range
+	 * @param range
+	 *            The day, month, or year to cover
+	 * @return ArrayList containing appointments scheduled in given date range
 	 */
-	public static int getVisitsForTimePeriod(String ts) {
+	public static ArrayList<Appointment> getAppointmentsForDate(final DateRange range) {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement getNumClientsServed = conn.prepareStatement("SELECT COUNT(appointment_id) FROM `food_pantry_manager`.`appointment` WHERE date LIKE ? AND pounds IS NOT NULL;");
-				getNumClientsServed.setString(1, ts);
-				ResultSet numClientsServed = getNumClientsServed.executeQuery();
+			return DatabaseConnection.execute(new IDatabaseOperation<ArrayList<Appointment>>() {
+				public ArrayList<Appointment> perform(PooledConnection conn) throws SQLException {
+					// Prepare and execute SQL
+					PreparedStatement clientsServed = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`appointment`, `food_pantry_manager`.`client` WHERE date >= ? AND date < ? AND appointment.client_id = client.client_id ORDER BY date ASC;");
+					clientsServed.setTimestamp(1, range.getStart());
+					clientsServed.setTimestamp(2, range.getEnd());
+					ResultSet matchingClients = clientsServed.executeQuery();
 				
-				// Return number of visits for the given time period
-				numClientsServed.next();
-				return numClientsServed.getInt("COUNT(appointment_id)");
-			} else {
-				showNoConnectionError();
-				return -1;
-			}
+					// Put results into Client ArrayList and return
+					ArrayList<Appointment> clientsForPeriod = new ArrayList<Appointment>();
+					while(matchingClients.next()) {
+						Appointment a = new Appointment(matchingClients, true);
+						clientsForPeriod.add(a);
+					}
+					return clientsForPeriod;
+				}
+			});
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
 		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
 			e.printStackTrace();
-			return -1;
+			return null;
 		}
 	}
 	
 	/**
-	 * Returns clients served in the passed in
-	 * date/date range
+	 * Lookup clients whose last visit was before the passed in Timestamp
 	 * 
-	 * @param ts
-	 *            String in format YYYY-MM-DD, may contain SQL wildcards
-	 * @return ArrayList containing appointments completed in given date range
+	 * @param dateThreshold
+	 *            The earliest a client could have a completed appointment and
+	 *            still be considered active
+	 * @return An ArrayList of clients who are inactive by the criterion given
 	 */
-	public static ArrayList<Appointment> getCompletedAppointmentsForDate(String ts) {
+	public static ArrayList<Appointment> lookupInactiveClients(final Timestamp dateThreshold) {
+		RowCursor<Appointment> inactiveClients = streamInactiveClients(dateThreshold);
+		if(inactiveClients == null) {
+			return null;
+		}
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement clientsServed = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`appointment`, `food_pantry_manager`.`client` WHERE date LIKE ? AND appointment.client_id = client.client_id AND pounds IS NOT NULL ORDER BY date ASC;");
-				clientsServed.setString(1, ts);
-				ResultSet matchingClients = clientsServed.executeQuery();
-				
-				// Put results into Client ArrayList and return
-				ArrayList<Appointment> clientsForPeriod = new ArrayList<Appointment>();
-				while(matchingClients.next()) {
-					Appointment a = new Appointment(matchingClients, true);
-					clientsForPeriod.add(a);
-				}
-				return clientsForPeriod;
-			} else {
-				showNoConnectionError();
+			// Put results into Appointment ArrayList and return
+			ArrayList<Appointment> inactive = new ArrayList<Appointment>();
+			while(inactiveClients.hasNext()) {
+				inactive.add(inactiveClients.next());
+			}
+			if(!inactiveClients.isComplete()) {
+				showDatabaseError();
 				return null;
 			}
-		} catch (SQLException e) {
-			Logger.logThrowable(e);
-			showDatabaseError();
-			e.printStackTrace();
-			return null;
+			return inactive;
+		} finally {
+			inactiveClients.close();
 		}
 	}
 	
 	/**
-	 * Returns appointments scheduled in the given date/date range.
+	 * Lookup clients whose last visit was before the passed in Timestamp, a
+	 * row at a time; each row is the client's last completed appointment,
+	 * oldest first
 	 * 
-	 * @param ts
-	 *            String in format YYYY-MM-DD, may contain SQL wildcards
-	 * @return ArrayList containing appointments scheduled in given date range
+	 * @param dateThreshold
+	 *            The earliest a client could have a completed appointment and
+	 *            still be considered active
+	 * @return An open cursor over the inactive clients; the caller must close
+	 *         it. Null if database or connection error
 	 */
-	public static ArrayList<Appointment> getAppointmentsForDate(String ts) {
+	public static RowCursor<Appointment> streamInactiveClients(final Timestamp dateThreshold) {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement clientsServed = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`appointment`, `food_pantry_manager`.`client` WHERE date LIKE ? AND appointment.client_id = client.client_id ORDER BY date ASC;");
-				clientsServed.setString(1, ts);
-				ResultSet matchingClients = clientsServed.executeQuery();
-				
-				// Put results into Client ArrayList and return
-				ArrayList<Appointment> clientsForPeriod = new ArrayList<Appointment>();
-				while(matchingClients.next()) {
-					Appointment a = new Appointment(matchingClients, true);
-					clientsForPeriod.add(a);
+			return DatabaseConnection.openCursor("SELECT appointment_id, pounds, client.client_id, first_name, last_name, MAX(date) AS date FROM `food_pantry_manager`.`appointment`,`food_pantry_manager`.`client` WHERE pounds IS NOT NULL AND appointment.client_id = client.client_id GROUP BY appointment.client_id HAVING MAX(date) < ? ORDER BY date ASC;", new IRowMapper<Appointment>() {
+				public Appointment map(ResultSet rs) throws SQLException {
+					return new Appointment(rs, true);
 				}
-				return clientsForPeriod;
-			} else {
-				showNoConnectionError();
-				return null;
-			}
+			}, dateThreshold);
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
 		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
@@ -521,33 +816,38 @@ public class Queries {
 		}
 	}
 	
+	/******************************\
+	 * QUERIES ON household TABLE *
+	\******************************/
+	
 	/**
-	 * Lookup clients whose last visit was before the passed in Timestamp
+	 * Read every household member in the database, a row at a time
 	 * 
-	 * @param dateThreshold
-	 *            The earliest a client could have a completed appointment and
-	 *            still be considered active
-	 * @return An ArrayList of clients who are inactive by the criterion given
+	 * @return An open cursor over every household member; the caller must
+	 *         close it. Null if database or connection error
 	 */
-	public static ArrayList<Appointment> lookupInactiveClients(Timestamp dateThreshold) {
+	public static RowCursor<Household> streamAllHouseholds() {
+		return streamAllHouseholds(null);
+	}
+	
+	/**
+	 * Read every household member in a snapshot of the database, a row at a time
+	 * 
+	 * @param snapshot
+	 *            The snapshot to read; null to read the database as it is
+	 * @return An open cursor over every household member; the caller must close it.
+	 *         Null if database or connection error
+	 */
+	public static RowCursor<Household> streamAllHouseholds(ReadSnapshot snapshot) {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement inactiveClients = conn.prepareStatement("SELECT appointment_id, pounds, client.client_id, first_name, last_name, MAX(date) AS date FROM `food_pantry_manager`.`appointment`,`food_pantry_manager`.`client` WHERE pounds IS NOT NULL AND appointment.client_id = client.client_id GROUP BY appointment.client_id HAVING MAX(date) < ? ORDER BY date ASC;");
-				inactiveClients.setTimestamp(1, dateThreshold);
-				ResultSet matchingClients = inactiveClients.executeQuery();
-				
-				// Put results into Appointment ArrayList and return
-				ArrayList<Appointment> inactive = new ArrayList<Appointment>();
-				while(matchingClients.next()) {
-					Appointment a = new Appointment(matchingClients, true);
-					inactive.add(a);
+			return openCursor(snapshot, "SELECT * FROM `food_pantry_manager`.`household`;", new IRowMapper<Household>() {
+				public Household map(ResultSet rs) throws SQLException {
+					return new Household(rs);
 				}
-				return inactive;
-			} else {
-				showNoConnectionError();
-				return null;
-			}
+			});
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
 		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
@@ -556,33 +856,42 @@ public class Queries {
 		}
 	}
 	
-	/******************************\
-	 * QUERIES ON household TABLE *
-	\******************************/
+	/***********************************\
+	 * QUERIES FOR INCREMENTAL BACKUPS *
+	\***********************************/
 	
 	/**
-	 * Get all the household members in the database
+	 * Find the point an incremental backup taken from this snapshot covers
+	 * changes up to: the latest valid_as_of or deletion in the snapshot
 	 * 
-	 * @return An ArrayList of Household objects for each household member in the database
+	 * @param snapshot
+	 *            The snapshot the backup reads
+	 * @return The watermark, by the database's clock; null if database or
+	 *         connection error
 	 */
-	public static ArrayList<Household> getAllHouseholds() {
+	public static Timestamp getBackupWatermark(ReadSnapshot snapshot) {
 		try {
-			if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-				// Prepare and execute SQL
-				PreparedStatement getAllHouseholds = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`household`;");
-				ResultSet allHouseholdsRS = getAllHouseholds.executeQuery();
-				
-				// Put results into Client ArrayList and return
-				ArrayList<Household> allHouseholds = new ArrayList<Household>();
-				while(allHouseholdsRS.next()) {
-					Household h = new Household(allHouseholdsRS);
-					allHouseholds.add(h);
+			RowCursor<Timestamp> watermark = openCursor(snapshot, "SELECT GREATEST("
+					+ "COALESCE((SELECT MAX(valid_as_of) FROM `food_pantry_manager`.`client`), 0), "
+					+ "COALESCE((SELECT MAX(valid_as_of) FROM `food_pantry_manager`.`appointment`), 0), "
+					+ "COALESCE((SELECT MAX(valid_as_of) FROM `food_pantry_manager`.`household`), 0), "
+					+ "COALESCE((SELECT MAX(deleted_at) FROM `food_pantry_manager`.`deleted_row`), 0)) AS watermark;", new IRowMapper<Timestamp>() {
+				public Timestamp map(ResultSet rs) throws SQLException {
+					return rs.getTimestamp("watermark");
 				}
-				return allHouseholds;
-			} else {
-				showNoConnectionError();
-				return null;
+			});
+			try {
+				Timestamp latest = watermark.hasNext() ? watermark.next() : null;
+				if(watermark.getFailure() != null) {
+					throw watermark.getFailure();
+				}
+				return latest != null ? latest : new Timestamp(0); // Empty database
+			} finally {
+				watermark.close();
 			}
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
 		} catch (SQLException e) {
 			Logger.logThrowable(e);
 			showDatabaseError();
@@ -592,39 +901,89 @@ public class Queries {
 	}
 	
 	/**
-	 * Get household members for the given client
+	 * Read the clients added or changed since the given time, a row at a time
 	 * 
-	 * @param clientID
-	 *            The client for whom we are looking up the household members
-	 * @return ArrayList of household members belonging to this client
+	 * @param snapshot
+	 *            The snapshot to read
+	 * @param changedSince
+	 *            Earliest valid_as_of to include
+	 * @return An open cursor over the changed clients; the caller must close
+	 *         it. Null if database or connection error
 	 */
-	public static ArrayList<Household> getHouseholdForClient(int clientID) {
-		if(!accessBlocked) {
-			try {
-				if(conn != null && conn.isValid(CONNECTION_TIMEOUT_LENGTH)) {
-					// Prepare and execute SQL
-					PreparedStatement getHouseholdMembers = conn.prepareStatement("SELECT * FROM `food_pantry_manager`.`household` WHERE client_id = ?");
-					getHouseholdMembers.setInt(1, clientID);
-					ResultSet householdMembers = getHouseholdMembers.executeQuery();
-					
-					// Put results into Client ArrayList and return
-					ArrayList<Household> clients = new ArrayList<Household>();
-					while(householdMembers.next()) {
-						Household h = new Household(householdMembers);
-						clients.add(h);
-					}
-					return clients;
-				} else {
-					showNoConnectionError();
-					return null;
-				}
-			} catch (SQLException e) {
-				Logger.logThrowable(e);
-				showDatabaseError();
-				e.printStackTrace();
-				return null;
+	public static RowCursor<Client> streamClientsChangedSince(ReadSnapshot snapshot, Timestamp changedSince) {
+		return streamChangedSince(snapshot, "SELECT * FROM `food_pantry_manager`.`client` WHERE valid_as_of >= ?;", new IRowMapper<Client>() {
+			public Client map(ResultSet rs) throws SQLException {
+				return new Client(rs);
 			}
-		} else {
+		}, changedSince);
+	}
+	
+	/**
+	 * Read the appointments made or changed since the given time, a row at a
+	 * time
+	 * 
+	 * @param snapshot
+	 *            The snapshot to read
+	 * @param changedSince
+	 *            Earliest valid_as_of to include
+	 * @return An open cursor over the changed appointments; the caller must
+	 *         close it. Null if database or connection error
+	 */
+	public static RowCursor<Appointment> streamAppointmentsChangedSince(ReadSnapshot snapshot, Timestamp changedSince) {
+		return streamChangedSince(snapshot, "SELECT * FROM `food_pantry_manager`.`appointment` WHERE valid_as_of >= ?;", new IRowMapper<Appointment>() {
+			public Appointment map(ResultSet rs) throws SQLException {
+				return new Appointment(rs, false);
+			}
+		}, changedSince);
+	}
+	
+	/**
+	 * Read the household members added since the given time, a row at a time
+	 * 
+	 * @param snapshot
+	 *            The snapshot to read
+	 * @param changedSince
+	 *            Earliest valid_as_of to include
+	 * @return An open cursor over the new household members; the caller must
+	 *         close it. Null if database or connection error
+	 */
+	public static RowCursor<Household> streamHouseholdsChangedSince(ReadSnapshot snapshot, Timestamp changedSince) {
+		return streamChangedSince(snapshot, "SELECT * FROM `food_pantry_manager`.`household` WHERE valid_as_of >= ?;", new IRowMapper<Household>() {
+			public Household map(ResultSet rs) throws SQLException {
+				return new Household(rs);
+			}
+		}, changedSince);
+	}
+	
+	/**
+	 * Read the rows deleted from the client, appointment and household tables
+	 * since the given time, in the order they were deleted
+	 * 
+	 * @param snapshot
+	 *            The snapshot to read
+	 * @param deletedSince
+	 *            Earliest deletion to include
+	 * @return An open cursor over the deletions; the caller must close it.
+	 *         Null if database or connection error
+	 */
+	public static RowCursor<DeletedRow> streamDeletionsSince(ReadSnapshot snapshot, Timestamp deletedSince) {
+		return streamChangedSince(snapshot, "SELECT * FROM `food_pantry_manager`.`deleted_row` WHERE deleted_at >= ? ORDER BY deletion_id;", new IRowMapper<DeletedRow>() {
+			public DeletedRow map(ResultSet rs) throws SQLException {
+				return new DeletedRow(rs);
+			}
+		}, deletedSince);
+	}
+	
+	private static <T> RowCursor<T> streamChangedSince(ReadSnapshot snapshot, String sql, IRowMapper<T> mapper, Timestamp since) {
+		try {
+			return snapshot.openCursor(sql, mapper, since);
+		} catch (NoConnectionException e) {
+			showNoConnectionError();
+			return null;
+		} catch (SQLException e) {
+			Logger.logThrowable(e);
+			showDatabaseError();
+			e.printStackTrace();
 			return null;
 		}
 	}
@@ -0,0 +1,274 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read-only view of the whole database as it was at one moment, for
+ * reading several tables that must agree with each other, as a backup does.
+ * Pickups and intake carry on while the snapshot is read; InnoDB shows the
+ * snapshot's readers the rows as they were when it was opened.
+ *
+ * An InnoDB snapshot belongs to the connection that started it. With one
+ * reader, which is the default, the snapshot takes no locks at all and
+ * cursors are read one after another.
+ *
+ * Asking for more readers (application.backup_parallel_snapshot) makes every
+ * reader connection start its snapshot while writes are held off with FLUSH
+ * TABLES WITH READ LOCK. That lock is global: while it is requested and held,
+ * every write from every station waits. Once granted it is released as soon
+ * as the snapshots have started, typically within milliseconds, but getting
+ * it first means waiting for any long statement on the tables to finish. The
+ * wait is bounded by lock_wait_timeout, set to LOCK_WAIT_SECONDS (5 seconds),
+ * so a pickup being saved can stall for up to that long. If the lock is not
+ * granted in time, or the account lacks the RELOAD privilege, the snapshot
+ * falls back to a single connection.
+ *
+ * Each open cursor has a connection to itself; openCursor waits for one to
+ * become free. The connections are held until the snapshot is closed.
+ *
+ * @author Scott Hoelsema
+ */
+public class ReadSnapshot implements Closeable {
+	private static final int LOCK_WAIT_SECONDS = 5; // How long to wait for FLUSH TABLES WITH READ LOCK before settling for one reader
+	private final ConnectionPool pool;
+	private final ArrayList<PooledConnection> connections;
+	private final LinkedBlockingQueue<PooledConnection> free;
+	private final ArrayList<PooledConnection> broken = new ArrayList<PooledConnection>(); // Guarded by this
+	private boolean closed = false; // Guarded by this
+
+	private ReadSnapshot(ConnectionPool pool, ArrayList<PooledConnection> connections) {
+		this.pool = pool;
+		this.connections = connections;
+		this.free = new LinkedBlockingQueue<PooledConnection>(connections);
+	}
+
+	/**
+	 * Open a snapshot of the database
+	 *
+	 * @param readers
+	 *            How many cursors should be able to read at once; fewer are
+	 *            used if the pool cannot spare them or the read lock cannot
+	 *            be had. More than one holds off every write to the database
+	 *            while the snapshots start, for up to LOCK_WAIT_SECONDS.
+	 * @return The snapshot, which must be closed
+	 * @throws NoConnectionException
+	 *             Not logged in, or no working connection could be supplied
+	 * @throws SQLException
+	 *             The snapshot could not be started
+	 */
+	public static ReadSnapshot open(int readers) throws SQLException {
+		ConnectionPool pool = DatabaseConnection.getPool();
+		if(pool == null) {
+			throw new NoConnectionException("Not logged in.");
+		}
+
+		ArrayList<PooledConnection> connections = new ArrayList<PooledConnection>();
+		try {
+			connections.add(pool.borrow());
+			int wanted = Math.min(readers, pool.getMaxConnections());
+			while(connections.size() < wanted) {
+				try {
+					connections.add(pool.borrow());
+				} catch (NoConnectionException e) {
+					break; // Read with what we have
+				}
+			}
+
+			if(connections.size() > 1 && !startTogether(connections)) {
+				while(connections.size() > 1) {
+					pool.release(connections.remove(connections.size() - 1));
+				}
+			}
+			if(connections.size() == 1) {
+				startSnapshot(connections.get(0));
+			}
+			return new ReadSnapshot(pool, connections);
+		} catch (SQLException e) {
+			for(PooledConnection conn : connections) {
+				if(DatabaseConnection.isConnectionFailure(e) || !endSnapshot(conn)) {
+					pool.invalidate(conn);
+				} else {
+					pool.release(conn);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Run a query in the snapshot and return a cursor over its rows, as
+	 * DatabaseConnection.openCursor does. Waits until one of the snapshot's
+	 * connections is free.
+	 *
+	 * @param sql
+	 *            The query
+	 * @param mapper
+	 *            Turns each row into an object
+	 * @param parameters
+	 *            Values for the query's ? placeholders, in order
+	 * @return An open cursor positioned before the first row
+	 * @throws SQLException
+	 *             The query failed, or the snapshot was closed
+	 */
+	public <T> RowCursor<T> openCursor(String sql, IRowMapper<T> mapper, Object... parameters) throws SQLException {
+		PooledConnection conn;
+		try {
+			while((conn = free.poll(1, TimeUnit.SECONDS)) == null) {
+				synchronized(this) {
+					if(closed) {
+						throw new SQLException("Snapshot is closed.");
+					}
+					if(broken.size() == connections.size()) {
+						throw new NoConnectionException("Lost connection to the database.");
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a snapshot connection.", e);
+		}
+		synchronized(this) {
+			if(closed) {
+				throw new SQLException("Snapshot is closed.");
+			}
+		}
+
+		PreparedStatement statement = null;
+		try {
+			statement = DatabaseConnection.prepareStreaming(conn, sql, parameters);
+			return new RowCursor<T>(conn, statement, statement.executeQuery(), mapper) {
+				void release(PooledConnection conn, boolean broken) {
+					giveBack(conn, broken);
+				}
+			};
+		} catch (SQLException e) {
+			if(statement != null) {
+				StatementCache.closeQuietly(statement);
+			}
+			giveBack(conn, DatabaseConnection.isConnectionFailure(e));
+			throw e;
+		} catch (RuntimeException e) {
+			if(statement != null) {
+				StatementCache.closeQuietly(statement);
+			}
+			giveBack(conn, false);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return How many cursors can read at once
+	 */
+	public int getReaders() {
+		return connections.size();
+	}
+
+	/**
+	 * End the snapshot and return its connections to the pool. Cursors must
+	 * be closed first.
+	 */
+	@Override
+	public void close() {
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+		}
+		for(PooledConnection conn : connections) {
+			boolean isBroken;
+			synchronized(this) {
+				isBroken = broken.contains(conn);
+			}
+			if(isBroken || !endSnapshot(conn)) {
+				pool.invalidate(conn);
+			} else {
+				pool.release(conn);
+			}
+		}
+	}
+
+	private void giveBack(PooledConnection conn, boolean isBroken) {
+		if(isBroken) {
+			synchronized(this) {
+				broken.add(conn);
+			}
+		} else {
+			free.add(conn);
+		}
+	}
+
+	/**
+	 * Start a snapshot on every connection while writes are held off, so all
+	 * of them see the same moment
+	 *
+	 * @return False if the read lock could not be had, in which case no
+	 *         snapshot was started
+	 */
+	private static boolean startTogether(ArrayList<PooledConnection> connections) throws SQLException {
+		Statement lock = connections.get(0).getConnection().createStatement();
+		try {
+			lock.execute("SET SESSION lock_wait_timeout = " + LOCK_WAIT_SECONDS + ";");
+			try {
+				lock.execute("FLUSH TABLES WITH READ LOCK;");
+			} catch (SQLException e) {
+				if(DatabaseConnection.isConnectionFailure(e)) {
+					throw e;
+				}
+				return false; // No RELOAD privilege, or a long statement holds the tables
+			}
+			try {
+				for(PooledConnection conn : connections) {
+					startSnapshot(conn);
+				}
+			} finally {
+				lock.execute("UNLOCK TABLES;");
+			}
+			return true;
+		} finally {
+			try {
+				lock.execute("SET SESSION lock_wait_timeout = DEFAULT;");
+			} catch (SQLException e) {
+				e.printStackTrace(); // Only affects how long later DDL on this connection waits for locks
+			}
+			lock.close();
+		}
+	}
+
+	private static void startSnapshot(PooledConnection conn) throws SQLException {
+		Statement start = conn.getConnection().createStatement();
+		try {
+			start.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ;"); // Applies to the next transaction only
+			start.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT;"); // Not READ ONLY, which MySQL only accepts from 5.6.5 on; nothing is written anyway
+		} finally {
+			start.close();
+		}
+	}
+
+	/**
+	 * @return Whether the connection is fit to go back to the pool
+	 */
+	private static boolean endSnapshot(PooledConnection conn) {
+		try {
+			Statement end = conn.getConnection().createStatement();
+			try {
+				end.execute("COMMIT;");
+			} finally {
+				end.close();
+			}
+			return true;
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import utils.Logger;
+
+/**
+ * The rows of a query, read from the server one at a time as they are
+ * iterated over rather than collected into an ArrayList first, so a whole
+ * table can be walked in constant memory. Opened by the Queries.stream
+ * methods.
+ *
+ * The cursor holds a pooled connection until it is closed, and MySQL cannot
+ * run anything else on that connection until every row has been read; always
+ * close it, preferably with try-with-resources.
+ *
+ * Iterator methods cannot throw SQLException. If reading a row fails, the
+ * error is logged and iteration simply ends; check isComplete() afterward to
+ * tell a finished cursor from one that was cut short.
+ *
+ * @author Scott Hoelsema
+ * @param <T>
+ *            The type of object each row becomes
+ */
+public abstract class RowCursor<T> implements Iterator<T>, Closeable {
+	private final PooledConnection conn;
+	private final PreparedStatement statement;
+	private final ResultSet rows;
+	private final IRowMapper<T> mapper;
+	private T next;
+	private boolean exhausted = false;
+	private SQLException failure;
+	private boolean closed = false;
+
+	/**
+	 * @param conn
+	 *            The connection the query runs on, reserved for the cursor
+	 * @param statement
+	 *            The statement, prepared for this cursor alone; closed along
+	 *            with it
+	 * @param rows
+	 *            The streaming result of executing the statement
+	 * @param mapper
+	 *            Turns each row into an object
+	 */
+	RowCursor(PooledConnection conn, PreparedStatement statement, ResultSet rows, IRowMapper<T> mapper) {
+		this.conn = conn;
+		this.statement = statement;
+		this.rows = rows;
+		this.mapper = mapper;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(next != null) {
+			return true;
+		}
+		if(exhausted || closed) {
+			return false;
+		}
+		try {
+			if(rows.next()) {
+				next = mapper.map(rows);
+				return true;
+			}
+		} catch (SQLException e) {
+			failure = e;
+			Logger.logThrowable(e);
+			e.printStackTrace();
+		}
+		exhausted = true;
+		return false;
+	}
+
+	@Override
+	public T next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T row = next;
+		next = null;
+		return row;
+	}
+
+	/**
+	 * Whether every row of the query was read; false if reading stopped
+	 * because of an error, or the cursor was closed early
+	 */
+	public boolean isComplete() {
+		return exhausted && failure == null;
+	}
+
+	/**
+	 * @return The error that ended iteration early; null if there was none
+	 */
+	public SQLException getFailure() {
+		return failure;
+	}
+
+	/**
+	 * The remaining rows as a sequential Stream. Closing the stream closes
+	 * this cursor.
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(new Runnable() {
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * Close the result and statement and hand the connection back to
+	 * whoever supplied it, saying whether it broke while reading. Closing a
+	 * streaming result before the end reads and throws away the rows left on
+	 * the wire. Safe to call more than once.
+	 */
+	@Override
+	public void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		next = null;
+
+		boolean broken = failure != null && DatabaseConnection.isConnectionFailure(failure);
+		try {
+			rows.close();
+		} catch (SQLException e) {
+			broken = broken || DatabaseConnection.isConnectionFailure(e);
+		}
+		StatementCache.closeQuietly(statement);
+
+		release(conn, broken);
+	}
+
+	/**
+	 * Hand the connection back once the cursor is closed
+	 *
+	 * @param conn
+	 *            The cursor's connection, no longer in use
+	 * @param broken
+	 *            Whether the connection failed while the cursor was reading
+	 */
+	abstract void release(PooledConnection conn, boolean broken);
+}
@@ -0,0 +1,316 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import javax.swing.JOptionPane;
+
+import utils.Configuration;
+import utils.Logger;
+
+/**
+ * Brings an existing database up to the schema this version of Food Pantry
+ * Manager expects, so installations pick up new indexes and columns without
+ * anyone editing the schema by hand. Each migration has a version number;
+ * versions that have been applied are recorded in the schema_version table,
+ * and the rest are applied in order at log in.
+ *
+ * Every step checks information_schema before changing anything, so a
+ * migration that was interrupted, or a database created from a newer
+ * CreateDatabaseSQL.sql that already has the change, is simply recorded as
+ * applied. A named lock keeps two stations logging in at once from migrating
+ * at the same time.
+ *
+ * @author Scott Hoelsema
+ */
+public class SchemaMigrations {
+	private static final String SCHEMA = Configuration.DATABASE_NAME;
+	private static final String LOCK_NAME = SCHEMA + ".schema_migrations";
+	private static final int LOCK_TIMEOUT_SECONDS = 60; // Another station may be building an index on a large table
+	private static final ArrayList<Migration> MIGRATIONS = new ArrayList<Migration>();
+	private static volatile boolean upToDate = false;
+
+	static {
+		MIGRATIONS.add(new Migration(1, "Index appointment dates and completed pickups per client") {
+			void apply(PooledConnection conn) throws SQLException {
+				createIndexIfMissing(conn, "appointment", "AppointmentDate", "`date`"); // Date range reports and the appointment list
+				createIndexIfMissing(conn, "appointment", "ClientPickUps", "`client_id`, `pounds`"); // Completed appointments for a client
+				dropIndexIfPresent(conn, "appointment", "ClientID"); // Duplicate of ClientIDCheck_fromAppointment
+			}
+		});
+		MIGRATIONS.add(new Migration(2, "Index client names and addresses") {
+			void apply(PooledConnection conn) throws SQLException {
+				createIndexIfMissing(conn, "client", "ClientName", "`last_name`, `first_name`"); // Client search, sorted by name
+				createIndexIfMissing(conn, "client", "ClientCity", "`city`"); // Clients by city
+				createIndexIfMissing(conn, "client", "ClientAddress", "`address`, `city`"); // Duplicate address check
+			}
+		});
+		MIGRATIONS.add(new Migration(3, "Add indexed normalized address key to client") {
+			void apply(PooledConnection conn) throws SQLException {
+				if(!columnExists(conn, "client", "address_key")) {
+					executeDDL(conn, "ALTER TABLE `" + SCHEMA + "`.`client` ADD COLUMN `address_key` VARCHAR(91) NULL DEFAULT NULL AFTER `city`;");
+				}
+				createIndexIfMissing(conn, "client", "ClientAddressKey", "`address_key`");
+				fillMissingAddressKeys(conn);
+			}
+		});
+		MIGRATIONS.add(new Migration(4, "Track changed and deleted rows for incremental backups") {
+			void apply(PooledConnection conn) throws SQLException {
+				// Appointments change when picked up and household members are only added, but give every table the same marker
+				addValidAsOfIfMissing(conn, "appointment");
+				addValidAsOfIfMissing(conn, "household");
+				createIndexIfMissing(conn, "client", "ClientValidAsOf", "`valid_as_of`");
+				createIndexIfMissing(conn, "appointment", "AppointmentValidAsOf", "`valid_as_of`");
+				createIndexIfMissing(conn, "household", "HouseholdValidAsOf", "`valid_as_of`");
+
+				// Deleted rows leave nothing to find by valid_as_of, so triggers log them; deletes made outside Food Pantry Manager (Batch_Delete_Inactive_Clients.sql, for one) are logged too
+				// Triggers do not fire for foreign key actions, so a deleted client's household members and appointments are neither logged nor given a new valid_as_of; restoring the client's delete with foreign key checks on sets those actions off again
+				executeDDL(conn, "CREATE TABLE IF NOT EXISTS `" + SCHEMA + "`.`deleted_row` ("
+						+ "`deletion_id` INT(11) NOT NULL AUTO_INCREMENT, "
+						+ "`table_name` VARCHAR(20) NOT NULL, "
+						+ "`row_id` INT(11) NOT NULL, "
+						+ "`deleted_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+						+ "PRIMARY KEY (`deletion_id`), "
+						+ "INDEX `DeletedAt` (`deleted_at`)) ENGINE = InnoDB DEFAULT CHARACTER SET = latin1;");
+				createDeleteLogTriggerIfMissing(conn, "client", "client_id");
+				createDeleteLogTriggerIfMissing(conn, "appointment", "appointment_id");
+				createDeleteLogTriggerIfMissing(conn, "household", "household_member_id");
+			}
+		});
+	}
+
+	/**
+	 * Apply every migration that has not been applied yet, then fill in
+	 * address keys for any clients written without one (rows loaded by the
+	 * restore utility, for example). A failure is logged and the user is warned
+	 * but log in goes ahead; reading still works on an older schema, and the
+	 * usual cause is a station account that is not allowed to alter tables.
+	 *
+	 * @return Whether the schema is now up to date
+	 */
+	public static boolean migrate() {
+		upToDate = false;
+		try {
+			return DatabaseConnection.execute(new IDatabaseOperation<Boolean>() {
+				public Boolean perform(PooledConnection conn) throws SQLException {
+					if(!acquireLock(conn)) { // Another station logging in at the same time is migrating; it will bring the schema up to date
+						return false;
+					}
+					try {
+						createVersionTable(conn);
+						HashSet<Integer> applied = getAppliedVersions(conn);
+						for(Migration m : MIGRATIONS) {
+							if(applied.contains(m.version)) {
+								continue;
+							}
+							m.apply(conn);
+							recordApplied(conn, m);
+						}
+						fillMissingAddressKeys(conn);
+						upToDate = true;
+						return true;
+					} finally {
+						releaseLock(conn);
+					}
+				}
+			});
+		} catch (SQLException e) {
+			Logger.logThrowable(e);
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(null, "The database could not be updated for this version of Food Pantry Manager; adding and editing clients may fail.\nLog in once with an account that may alter tables.", "Warning", JOptionPane.WARNING_MESSAGE);
+			return false;
+		}
+	}
+
+	/**
+	 * Whether the last migrate() brought the schema up to date, so features
+	 * that depend on the newest migrations (incremental backups, for one) can
+	 * be used
+	 */
+	public static boolean isUpToDate() {
+		return upToDate;
+	}
+
+	/**
+	 * @return The highest migration version this build knows about
+	 */
+	public static int getLatestVersion() {
+		return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+	}
+
+	/***************\
+	 * BOOKKEEPING *
+	\***************/
+
+	private static void createVersionTable(PooledConnection conn) throws SQLException {
+		executeDDL(conn, "CREATE TABLE IF NOT EXISTS `" + SCHEMA + "`.`schema_version` ("
+				+ "`version` INT(11) NOT NULL, "
+				+ "`description` VARCHAR(100) NOT NULL, "
+				+ "`applied_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+				+ "PRIMARY KEY (`version`)) ENGINE = InnoDB DEFAULT CHARACTER SET = latin1;");
+	}
+
+	private static HashSet<Integer> getAppliedVersions(PooledConnection conn) throws SQLException {
+		HashSet<Integer> applied = new HashSet<Integer>();
+		ResultSet rs = conn.prepareStatement("SELECT version FROM `" + SCHEMA + "`.`schema_version`;").executeQuery();
+		while(rs.next()) {
+			applied.add(rs.getInt("version"));
+		}
+		rs.close();
+		return applied;
+	}
+
+	private static void recordApplied(PooledConnection conn, Migration m) throws SQLException {
+		PreparedStatement record = conn.prepareStatement("INSERT IGNORE INTO `" + SCHEMA + "`.`schema_version`(version, description) VALUES(?,?);");
+		record.setInt(1, m.version);
+		record.setString(2, m.description);
+		record.executeUpdate();
+	}
+
+	private static boolean acquireLock(PooledConnection conn) throws SQLException {
+		PreparedStatement lock = conn.prepareStatement("SELECT GET_LOCK(?, ?);");
+		lock.setString(1, LOCK_NAME);
+		lock.setInt(2, LOCK_TIMEOUT_SECONDS);
+		ResultSet rs = lock.executeQuery();
+		boolean acquired = rs.next() && rs.getInt(1) == 1;
+		rs.close();
+		return acquired;
+	}
+
+	private static void releaseLock(PooledConnection conn) throws SQLException {
+		PreparedStatement unlock = conn.prepareStatement("SELECT RELEASE_LOCK(?);");
+		unlock.setString(1, LOCK_NAME);
+		unlock.executeQuery().close();
+	}
+
+	/*******************\
+	 * MIGRATION STEPS *
+	\*******************/
+
+	static boolean indexExists(PooledConnection conn, String table, String index) throws SQLException {
+		PreparedStatement check = conn.prepareStatement("SELECT 1 FROM information_schema.statistics WHERE table_schema = ? AND table_name = ? AND index_name = ? LIMIT 1;");
+		check.setString(1, SCHEMA);
+		check.setString(2, table);
+		check.setString(3, index);
+		ResultSet rs = check.executeQuery();
+		boolean exists = rs.next();
+		rs.close();
+		return exists;
+	}
+
+	static boolean columnExists(PooledConnection conn, String table, String column) throws SQLException {
+		PreparedStatement check = conn.prepareStatement("SELECT 1 FROM information_schema.columns WHERE table_schema = ? AND table_name = ? AND column_name = ? LIMIT 1;");
+		check.setString(1, SCHEMA);
+		check.setString(2, table);
+		check.setString(3, column);
+		ResultSet rs = check.executeQuery();
+		boolean exists = rs.next();
+		rs.close();
+		return exists;
+	}
+
+	static void createIndexIfMissing(PooledConnection conn, String table, String index, String columns) throws SQLException {
+		if(!indexExists(conn, table, index)) {
+			executeDDL(conn, "ALTER TABLE `" + SCHEMA + "`.`" + table + "` ADD INDEX `" + index + "` (" + columns + ");");
+		}
+	}
+
+	static void dropIndexIfPresent(PooledConnection conn, String table, String index) throws SQLException {
+		if(indexExists(conn, table, index)) {
+			executeDDL(conn, "ALTER TABLE `" + SCHEMA + "`.`" + table + "` DROP INDEX `" + index + "`;");
+		}
+	}
+
+	static boolean triggerExists(PooledConnection conn, String trigger) throws SQLException {
+		PreparedStatement check = conn.prepareStatement("SELECT 1 FROM information_schema.triggers WHERE trigger_schema = ? AND trigger_name = ? LIMIT 1;");
+		check.setString(1, SCHEMA);
+		check.setString(2, trigger);
+		ResultSet rs = check.executeQuery();
+		boolean exists = rs.next();
+		rs.close();
+		return exists;
+	}
+
+	static void addValidAsOfIfMissing(PooledConnection conn, String table) throws SQLException {
+		if(!columnExists(conn, table, "valid_as_of")) {
+			executeDDL(conn, "ALTER TABLE `" + SCHEMA + "`.`" + table + "` ADD COLUMN `valid_as_of` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP;");
+		}
+	}
+
+	/**
+	 * Log every row deleted from the table in deleted_row
+	 */
+	static void createDeleteLogTriggerIfMissing(PooledConnection conn, String table, String idColumn) throws SQLException {
+		String trigger = table + "_deleted";
+		if(!triggerExists(conn, trigger)) {
+			executeDDL(conn, "CREATE TRIGGER `" + SCHEMA + "`.`" + trigger + "` AFTER DELETE ON `" + SCHEMA + "`.`" + table + "` FOR EACH ROW "
+					+ "INSERT INTO `" + SCHEMA + "`.`deleted_row` (`table_name`, `row_id`) VALUES ('" + table + "', OLD.`" + idColumn + "`);");
+		}
+	}
+
+	/**
+	 * Compute address_key for clients that do not have one. Found by index, so
+	 * this costs one lookup when there is nothing to do. valid_as_of is set to
+	 * itself so that filling in the key does not count as editing the client.
+	 */
+	static void fillMissingAddressKeys(PooledConnection conn) throws SQLException {
+		ResultSet missing = conn.prepareStatement("SELECT client_id, address, city FROM `" + SCHEMA + "`.`client` WHERE address_key IS NULL;").executeQuery();
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		ArrayList<String> keys = new ArrayList<String>();
+		while(missing.next()) {
+			ids.add(missing.getInt("client_id"));
+			keys.add(Client.makeAddressKey(missing.getString("address"), missing.getString("city")));
+		}
+		missing.close();
+		if(ids.isEmpty()) {
+			return;
+		}
+
+		PreparedStatement setKey = conn.getConnection().prepareStatement("UPDATE `" + SCHEMA + "`.`client` SET address_key = ?, valid_as_of = valid_as_of WHERE client_id = ?;");
+		try {
+			for(int i = 0; i < ids.size(); i++) {
+				setKey.setString(1, keys.get(i));
+				setKey.setInt(2, ids.get(i));
+				setKey.addBatch();
+			}
+			setKey.executeBatch();
+		} finally {
+			setKey.close();
+		}
+	}
+
+	/**
+	 * Run a schema change; DDL is run once, so it is not worth a slot in the
+	 * statement cache
+	 */
+	static void executeDDL(PooledConnection conn, String sql) throws SQLException {
+		Statement s = conn.getConnection().createStatement();
+		try {
+			s.execute(sql);
+		} finally {
+			s.close();
+		}
+	}
+
+	/**
+	 * One numbered change to the schema
+	 */
+	private static abstract class Migration {
+		final int version;
+		final String description;
+
+		Migration(int version, String description) {
+			this.version = version;
+			this.description = description;
+		}
+
+		abstract void apply(PooledConnection conn) throws SQLException;
+	}
+}
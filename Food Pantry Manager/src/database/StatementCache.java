@@ -0,0 +1,160 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statements kept open on one pooled connection, keyed by their SQL
+ * text, so the statements Queries, Inserts, and Updates run over and over are
+ * prepared once per connection instead of once per call. The cache is bounded;
+ * the least recently used statement is closed when a new one would exceed the
+ * limit.
+ *
+ * A statement cache belongs to a single PooledConnection and is only used by
+ * whoever has that connection borrowed, so it is not synchronized. The hit and
+ * miss counts are shared by every cache so they survive connections being
+ * closed.
+ *
+ * @author Scott Hoelsema
+ */
+public class StatementCache {
+	private static final AtomicLong totalHits = new AtomicLong();
+	private static final AtomicLong totalMisses = new AtomicLong();
+	private static final AtomicLong totalEvictions = new AtomicLong();
+	private static final ConcurrentHashMap<String, AtomicLong[]> countsBySQL = new ConcurrentHashMap<String, AtomicLong[]>(); // {hits, misses} per SQL text
+
+	private final int capacity;
+	private final LinkedHashMap<String, PreparedStatement> statements;
+
+	StatementCache(int capacity) {
+		this.capacity = capacity;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) { // Access order, so the eldest entry is the least recently used
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if(size() > StatementCache.this.capacity) {
+					closeQuietly(eldest.getValue());
+					totalEvictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Supply a prepared statement for the given SQL, reusing an open one if
+	 * this connection has prepared the same SQL before
+	 *
+	 * @param conn
+	 *            The connection the cache belongs to
+	 * @param sql
+	 *            The SQL of the statement
+	 * @param keyColumns
+	 *            Generated key columns to return; null if none
+	 * @return The prepared statement, with its parameters cleared
+	 * @throws SQLException
+	 *             Error preparing the statement
+	 */
+	PreparedStatement prepare(Connection conn, String sql, String[] keyColumns) throws SQLException {
+		String key = keyColumns == null ? sql : sql + "\u0000" + String.join(",", keyColumns);
+
+		PreparedStatement ps = statements.get(key);
+		if(ps != null && !ps.isClosed()) {
+			totalHits.incrementAndGet();
+			countFor(sql)[0].incrementAndGet();
+			return ps;
+		}
+
+		totalMisses.incrementAndGet();
+		countFor(sql)[1].incrementAndGet();
+		if(keyColumns == null) {
+			ps = conn.prepareStatement(sql);
+		} else {
+			ps = conn.prepareStatement(sql, keyColumns);
+		}
+		if(capacity > 0) {
+			statements.put(key, ps);
+		}
+		return ps;
+	}
+
+	/**
+	 * @return Whether statements from this cache stay open after use
+	 */
+	boolean isEnabled() {
+		return capacity > 0;
+	}
+
+	/**
+	 * Close every cached statement; used when the connection is closed
+	 */
+	void closeAll() {
+		for(PreparedStatement ps : statements.values()) {
+			closeQuietly(ps);
+		}
+		statements.clear();
+	}
+
+	static void closeQuietly(PreparedStatement ps) {
+		try {
+			ps.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static AtomicLong[] countFor(String sql) {
+		AtomicLong[] counts = countsBySQL.get(sql);
+		if(counts == null) {
+			countsBySQL.putIfAbsent(sql, new AtomicLong[]{new AtomicLong(), new AtomicLong()});
+			counts = countsBySQL.get(sql);
+		}
+		return counts;
+	}
+
+	public static long getHits() {
+		return totalHits.get();
+	}
+
+	public static long getMisses() {
+		return totalMisses.get();
+	}
+
+	public static long getEvictions() {
+		return totalEvictions.get();
+	}
+
+	/**
+	 * Summarize cache use: totals, then hits and misses for each SQL text,
+	 * most reused first
+	 *
+	 * @return A multi-line summary of statement cache statistics
+	 */
+	public static String getStatistics() {
+		ArrayList<Map.Entry<String, AtomicLong[]>> entries = new ArrayList<Map.Entry<String, AtomicLong[]>>(countsBySQL.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, AtomicLong[]>>() {
+			@Override
+			public int compare(Map.Entry<String, AtomicLong[]> a, Map.Entry<String, AtomicLong[]> b) {
+				return Long.compare(b.getValue()[0].get(), a.getValue()[0].get());
+			}
+		});
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions() + "\n");
+		for(Map.Entry<String, AtomicLong[]> e : entries) {
+			sb.append("  hits=" + e.getValue()[0].get() + " misses=" + e.getValue()[1].get() + "  " + e.getKey() + "\n");
+		}
+		return sb.toString();
+	}
+}
@@ -5,12 +5,14 @@ package gui;
 
 import gui.listeners.entryFieldFocusListener;
 import gui.supportingelements.DatePanel;
+import gui.supportingelements.LoadingIndicator;
 import gui.supportingelements.TimeTextField;
 
 import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.function.Consumer;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -21,7 +23,7 @@ import javax.swing.JTextField;
 
 import utils.Utilities;
 import database.Appointment;
-import database.Updates;
+import database.AsyncDatabase;
 
 public class EditPreviousAppointment extends JFrame
 {
@@ -101,10 +103,14 @@ public class EditPreviousAppointment extends JFrame
 			// Set fresh data
 			activeAppt.setDate(northTime.getTimestamp(thisApptDate));
 			activeAppt.setPounds(Integer.parseInt(pounds.getText()));
-			Updates.updateAppointment(activeAppt);
 			
-			forcedClose = false;
-			dispose();
+			// Close once the update is written, so the panel refreshes with it
+			LoadingIndicator.load(EditPreviousAppointment.this, AsyncDatabase.updateAppointment(activeAppt), new Consumer<Boolean>() {
+				public void accept(Boolean success) {
+					forcedClose = false;
+					dispose();
+				}
+			});
 		}
 		
 		/**
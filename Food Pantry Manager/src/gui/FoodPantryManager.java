@@ -9,19 +9,22 @@ import gui.panels.EditClientPanel;
 import gui.panels.MainPanel;
 import gui.panels.NewClientPanel;
 import gui.panels.ReportGeneratorPanel;
+import gui.supportingelements.LoadingIndicator;
 import gui.supportingelements.SearchPanelModel;
 
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 import javax.swing.JFrame;
 import javax.swing.JTabbedPane;
 import javax.swing.ProgressMonitor;
 
-import database.Client;
+import database.AsyncDatabase;
+import database.ClientProfile;
+import database.ClientSummary;
 import database.DatabaseConnection;
-import database.Queries;
 import utils.Backup;
 import utils.Configuration;
 import utils.Utilities;
@@ -39,6 +42,9 @@ public class FoodPantryManager extends JFrame {
 	private NewClientPanel ncp;
 	private ReportGeneratorPanel rgp;
 	private WindowListener wl;
+	private ClientProfile activeProfile; // Shared by the client tabs
+	private int loadingClientID = 0; // Client whose profile is being loaded; 0 if none
+	private int profileRequests = 0; // Bumped per load so a slow load cannot replace a newer selection
 	
 	public FoodPantryManager()
 	{
@@ -113,10 +119,74 @@ public class FoodPantryManager extends JFrame {
 		add(tabbedPane);
 	}
 	
-	public void updatePanelsOnSearchSelectionChange(Client c) {
-		mp.updateForClient(c);
-		eap.updateForClient(c);
-		ecp.updateForClient(c);
+	/**
+	 * Load the newly selected client's profile once and show it on every tab.
+	 * Each tab has its own SearchPanel and each tab selects the client in the
+	 * others, so this is called several times per selection; only the first
+	 * call for a client does any work.
+	 * 
+	 * @param c
+	 *            The selected client; null if none (no search matches)
+	 */
+	public void updatePanelsOnSearchSelectionChange(ClientSummary c) {
+		if(c == null) {
+			profileRequests++; // Anything still loading is no longer wanted
+			loadingClientID = 0;
+			showProfile(null);
+			return;
+		}
+		if(c.getClientID() == loadingClientID) {
+			return; // Already loading this client
+		}
+		if(loadingClientID == 0 && activeProfile != null && activeProfile.getClientID() == c.getClientID()) {
+			return; // Already showing this client
+		}
+		loadProfile(c.getClientID());
+	}
+	
+	/**
+	 * Reload the active client's profile and show it on every tab; called
+	 * after something about the client is changed, such as a pick up
+	 */
+	public void refreshActiveClient() {
+		if(activeProfile == null) {
+			return;
+		}
+		loadProfile(activeProfile.getClientID());
+	}
+	
+	/**
+	 * Load a profile off the event thread and show it when it arrives, unless
+	 * another client has been selected in the meantime
+	 */
+	private void loadProfile(int clientID) {
+		final int request = ++profileRequests;
+		loadingClientID = clientID;
+		LoadingIndicator.load(this, AsyncDatabase.getClientProfile(clientID), new Consumer<ClientProfile>() {
+			public void accept(ClientProfile profile) {
+				if(request != profileRequests) { // Superseded
+					return;
+				}
+				loadingClientID = 0;
+				if(profile != null) { // There was not a database or connection problem
+					showProfile(profile);
+				}
+			}
+		});
+	}
+	
+	private void showProfile(ClientProfile profile) {
+		activeProfile = profile; // Set first; the panels select the client in their search panels, which calls back in here
+		mp.updateForClient(profile);
+		eap.updateForClient(profile);
+		ecp.updateForClient(profile);
+	}
+	
+	/**
+	 * @return The profile of the client shown on the client tabs; null if none
+	 */
+	public ClientProfile getActiveProfile() {
+		return activeProfile;
 	}
 	
 	public MainPanel getMainPanel() {
@@ -141,14 +211,20 @@ public class FoodPantryManager extends JFrame {
 	 */
 	public void updateCityLists() {
 		// Get list of cities
-		ArrayList<String> citiesArrayList = Queries.getCities();
-		rgp.updateCityList(citiesArrayList.toArray(new String[citiesArrayList.size()])); // Update in Report Generator Panel
-		
-		// Add "Other" to the list so panels can offer option to add unlisted city 
-		citiesArrayList.add("Other");
-		String[] cities = citiesArrayList.toArray(new String[citiesArrayList.size()]);
-		ecp.updateCityList(cities);
-		ncp.updateCityList(cities);
+		AsyncDatabase.getCities().thenAcceptAsync(new Consumer<ArrayList<String>>() {
+			public void accept(ArrayList<String> citiesArrayList) {
+				if(citiesArrayList == null) { // There was a database or connection problem
+					return;
+				}
+				rgp.updateCityList(citiesArrayList.toArray(new String[citiesArrayList.size()])); // Update in Report Generator Panel
+				
+				// Add "Other" to the list so panels can offer option to add unlisted city 
+				citiesArrayList.add("Other");
+				String[] cities = citiesArrayList.toArray(new String[citiesArrayList.size()]);
+				ecp.updateCityList(cities);
+				ncp.updateCityList(cities);
+			}
+		}, AsyncDatabase.EVENT_THREAD);
 	}
 	
 	/**
@@ -17,9 +17,7 @@ import javax.swing.JPasswordField;
 
 import utils.Utilities;
 import database.DatabaseConnection;
-import database.Inserts;
 import database.Queries;
-import database.Updates;
 
 /**
  * GUI to log in to Food Pantry Manager with the database credentials
@@ -123,17 +121,14 @@ public class LogIn extends JFrame {
 		// Attempt log in
 		boolean successfulLogIn = DatabaseConnection.logIn(username, password);
 		
-		// If log in successful, dispose of log in frame and build Food Pantry Manager; otherwise reset the connection - the login was because of a killed connection (Food Pantry Manager is already open)
+		// If log in successful, dispose of log in frame and build Food Pantry Manager; otherwise allow querying again - the login was because of a killed connection (Food Pantry Manager is already open)
 		if(successfulLogIn) {
 			setVisible(false);
 			dispose();
 			if(invokeFPM) {
 				new FoodPantryManager();
 			} else {
-				Inserts.resetConnection();
-				Queries.resetConnection();
 				Queries.unblockQuerying();
-				Updates.resetConnection();
 			}
 		}	
 	}
@@ -5,13 +5,19 @@ package gui;
 
 import gui.listeners.entryFieldFocusListener;
 import gui.supportingelements.DatePanel;
+import gui.supportingelements.LoadingIndicator;
 import gui.supportingelements.TimeTextField;
 
 import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -23,10 +29,8 @@ import javax.swing.JTextField;
 import utils.Configuration;
 import utils.Utilities;
 import database.Appointment;
+import database.AsyncDatabase;
 import database.Client;
-import database.Inserts;
-import database.Queries;
-import database.Updates;
 
 public class PickUpFrame extends JFrame {
 	private FoodPantryManager fpm;
@@ -140,7 +144,9 @@ public class PickUpFrame extends JFrame {
 	
 	/**
 	 * Submit Listener: Updates target date entry with pounds and actual pick up
-	 * date, creates new target date entry, updates display
+	 * date, creates new target date entry, updates display. The lookups and
+	 * writes run off the event thread, one after another; the confirmations
+	 * between them are shown on the event thread.
 	 * 
 	 * @author Scott Hoelsema
 	 */
@@ -151,14 +157,39 @@ public class PickUpFrame extends JFrame {
 				return;
 			}
 			
-			// Lookup the client's next appointment
-			Appointment thisAppt = Queries.getNextAppointment(activeClient.getClientID());
+			// Take what was entered now; the form stays open while the database works
+			final Timestamp pickedUpAt = thisApptTime.getTimestamp(thisApptDatePanel);
+			final int poundsPickedUp = Integer.parseInt(pounds.getText());
+			final Timestamp nextApptAt = nextApptTime.getTimestamp(nextApptDatePanel);
 			
-			if(thisAppt != null) { // There was not a database or connection problem looking up the client's next appointment
+			// Lookup the client's next appointment
+			LoadingIndicator.load(PickUpFrame.this, AsyncDatabase.getNextAppointment(activeClient.getClientID()), new Consumer<Appointment>() {
+				public void accept(Appointment thisAppt) {
+					if(thisAppt != null) { // There was not a database or connection problem looking up the client's next appointment
+						checkForEarlierPickUp(thisAppt, pickedUpAt, poundsPickedUp, nextApptAt);
+					} else {
+						dispose();
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Confirm the pick up if it may already have been entered, or is early,
+	 * then complete it
+	 */
+	private void checkForEarlierPickUp(final Appointment thisAppt, final Timestamp pickedUpAt, final int poundsPickedUp, final Timestamp nextApptAt) {
+		LoadingIndicator.load(this, AsyncDatabase.getCompletedApptsForClient(activeClient.getClientID()), new Consumer<ArrayList<Appointment>>() {
+			public void accept(ArrayList<Appointment> appts) {
+				if(appts == null) { // There was a database or connection problem
+					dispose();
+					return;
+				}
+				
 				// Check if appointment may have already been entered - is there a completed appointment on the same day?
-				ArrayList<Appointment> appts = Queries.getCompletedApptsForClient(activeClient.getClientID());
 				for(Appointment a : appts) {
-					if(a.getDate().toString().substring(0,11).equals(thisApptTime.getTimestamp(thisApptDatePanel).toString().substring(0,11))) { // If appointment attempting to be completed is on the same day as an existing completed appointment. get confirmation to continue
+					if(a.getDate().toString().substring(0,11).equals(pickedUpAt.toString().substring(0,11))) { // If appointment attempting to be completed is on the same day as an existing completed appointment. get confirmation to continue
 						int selectedOption = JOptionPane.showConfirmDialog(null, "A completed appointment for this day already exists. You may have already entered this appointment into the system. Continue?", "Confirm", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
 						if(selectedOption!=0) {
 							return;
@@ -175,43 +206,44 @@ public class PickUpFrame extends JFrame {
 					}
 				}
 				
-				// Update the entry containing the target pickup date to the actual pickup date and pounds picked up
-				thisAppt.setDate(thisApptTime.getTimestamp(thisApptDatePanel));
-				thisAppt.setPounds(Integer.parseInt(pounds.getText()));
-				boolean successfulUpdateThisAppt = Updates.doPickup(thisAppt);
-				
-				if(successfulUpdateThisAppt) { // There was not a database or connection problem completing the appointment
-					// Insert a new entry with the target date for the next appointment, but empty pound and date columns
-					Appointment nextAppt = new Appointment();
-					nextAppt.setClientID(thisAppt.getClientID());
-					nextAppt.setDate(nextApptTime.getTimestamp(nextApptDatePanel));
-					boolean successfulAddNextAppt = Inserts.addNextAppointment(nextAppt);
+				completePickUp(thisAppt, pickedUpAt, poundsPickedUp, nextApptAt);
+			}
+		});
+	}
+	
+	/**
+	 * Record the pick up, then add the client's next appointment
+	 */
+	private void completePickUp(final Appointment thisAppt, Timestamp pickedUpAt, int poundsPickedUp, Timestamp nextApptAt) {
+		// Update the entry containing the target pickup date to the actual pickup date and pounds picked up
+		thisAppt.setDate(pickedUpAt);
+		thisAppt.setPounds(poundsPickedUp);
+		
+		// Insert a new entry with the target date for the next appointment, but empty pound and date columns
+		final Appointment nextAppt = new Appointment();
+		nextAppt.setClientID(thisAppt.getClientID());
+		nextAppt.setDate(nextApptAt);
+		
+		CompletableFuture<Boolean> done = AsyncDatabase.doPickup(thisAppt).thenCompose(new Function<Boolean, CompletionStage<Boolean>>() {
+			public CompletionStage<Boolean> apply(Boolean successfulUpdateThisAppt) {
+				if(!successfulUpdateThisAppt) { // There was a database or connection problem completing the appointment
+					return CompletableFuture.completedFuture(false);
+				}
+				return AsyncDatabase.addNextAppointment(nextAppt);
+			}
+		});
+		LoadingIndicator.load(this, done, new Consumer<Boolean>() {
+			public void accept(Boolean successfulAddNextAppt) {
+				if(successfulAddNextAppt != null && successfulAddNextAppt) { // There was not a database or connection problem adding the next appointment
+					// Reload the active client so every tab shows the appointment we just entered
+					fpm.refreshActiveClient();
 					
-					if(successfulAddNextAppt) { // There was not a database or connection problem adding the next appointment
-						// I don't think this it's really necessary to do a fresh query,
-						// but here's the code should you, dear reader, think otherwise.
-						/* It's possible that some other things about this client have
-						 * changed besides the appointment we just completed, so we'll go
-						 * ahead and do a fresh query. */
-						/*Client c = Queries.getClientByID(activeClient.getClientID());
-						if(c != null) { // There was not a database or connection problem
-							mp.updateForClient(c);
-						}*/
-						
-						// Update display for this client so it shows the appointment we just entered
-						fpm.getMainPanel().updateForClient(activeClient);
-						
-						// Refresh EditAppointmentPanel so that it displays the appointment just completed
-						fpm.getEditAppointmentsPanel().refresh();
-						
-						// Refresh AppointmentsPanel so that it displays this appointment as completed
-						fpm.getAppointmentsPanel().refresh();
-					}
+					// Refresh AppointmentsPanel so that it displays this appointment as completed
+					fpm.getAppointmentsPanel().refresh();
 				}
+				dispose();
 			}
-			
-			dispose();
-		}
+		});
 	}
 	
 	/**
@@ -6,6 +6,7 @@ package gui.panels;
 import gui.PickUpFrame;
 import gui.FoodPantryManager;
 import gui.supportingelements.DatePanel;
+import gui.supportingelements.LoadingIndicator;
 
 import java.awt.Component;
 import java.awt.Dimension;
@@ -14,6 +15,7 @@ import java.awt.event.ActionListener;
 import java.sql.Date;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.function.Consumer;
 
 import javax.swing.BoxLayout;
 import javax.swing.DefaultListCellRenderer;
@@ -24,7 +26,9 @@ import javax.swing.JScrollPane;
 
 import utils.Utilities;
 import database.Appointment;
-import database.Queries;
+import database.AsyncDatabase;
+import database.Client;
+import database.DateRange;
 
 public class AppointmentsPanel extends JPanel {
 	private FoodPantryManager fpm;
@@ -34,6 +38,7 @@ public class AppointmentsPanel extends JPanel {
 	private JButton tomorrow;
 	private JList<Appointment> apptList;
 	private JButton pickup;
+	private int apptRequests = 0; // Bumped per lookup so a slow lookup cannot replace a newer date
 	
 	public AppointmentsPanel(FoodPantryManager fpm)
 	{
@@ -136,14 +141,26 @@ public class AppointmentsPanel extends JPanel {
 		
 		pickup.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				new PickUpFrame(Queries.getClientByID(apptList.getSelectedValue().getClientID()), fpm);
+				LoadingIndicator.load(AppointmentsPanel.this, AsyncDatabase.getClientByID(apptList.getSelectedValue().getClientID()), new Consumer<Client>() {
+					public void accept(Client c) {
+						if(c != null) { // There was not a database or connection problem
+							new PickUpFrame(c, fpm);
+						}
+					}
+				});
 			}
 		});
 	}
 	
 	public void setApptsForDate(Date date) {
-		ArrayList<Appointment> appts = Queries.getAppointmentsForDate(date.toString() + "%");
-		apptList.setListData(appts.toArray(new Appointment[appts.size()]));
+		final int request = ++apptRequests;
+		LoadingIndicator.load(this, AsyncDatabase.getAppointmentsForDate(DateRange.forDay(date)), new Consumer<ArrayList<Appointment>>() {
+			public void accept(ArrayList<Appointment> appts) {
+				if(request == apptRequests && appts != null) { // Not superseded by another date, and there was not a database or connection problem
+					apptList.setListData(appts.toArray(new Appointment[appts.size()]));
+				}
+			}
+		});
 	}
 	
 	public void refresh() {
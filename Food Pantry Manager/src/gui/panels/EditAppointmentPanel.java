@@ -7,6 +7,7 @@ import gui.EditPreviousAppointment;
 import gui.FoodPantryManager;
 import gui.listeners.entryFieldFocusListener;
 import gui.supportingelements.DatePanel;
+import gui.supportingelements.LoadingIndicator;
 import gui.supportingelements.SearchPanel;
 import gui.supportingelements.SearchPanelModel;
 import gui.supportingelements.TimeTextField;
@@ -18,7 +19,12 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -31,9 +37,9 @@ import javax.swing.ListSelectionModel;
 import javax.swing.border.Border;
 
 import database.Appointment;
+import database.AsyncDatabase;
 import database.Client;
-import database.Queries;
-import database.Updates;
+import database.ClientProfile;
 
 public class EditAppointmentPanel extends JPanel implements IUpdateOnSearch {
 	private FoodPantryManager fpm;
@@ -141,8 +147,7 @@ public class EditAppointmentPanel extends JPanel implements IUpdateOnSearch {
 		public void windowClosed(WindowEvent arg0) 
 		{
 			if(!epa.getForcedClose()) {
-				updateForClient(activeClient);
-				selectAppt.setSelectedIndex(0);
+				refresh(); // Selects the first previous appointment again
 			}
 		}
 
@@ -159,16 +164,8 @@ public class EditAppointmentPanel extends JPanel implements IUpdateOnSearch {
 	 * Upon a new selection of a client from the list in one of the
 	 * SearchPanels, update the appropriate fields.
 	 */
-	public void updateForClient(Client c) {
-		// A necessary check to prevent extra work.
-		// Too many events fire because each tab tries to update every other tab on selecting a different client in the list.
-		// The root problem is that SearchPanel has three different instances - one on each of three different tabs.
-		// We cannot add the same SearchPanel object to each different tab - that doesn't work.
-		// This could perhaps be resolved by changing the GUI so that SearchPanel is separate, but then it would have to appear above every tab,
-		// eating up space in tabs that don't need the search panel.
-		if (activeClient == c) return;
-		
-		if(c == null) { // If no client is selected (there were no search matches)...
+	public void updateForClient(ClientProfile profile) {
+		if(profile == null) { // If no client is selected (there were no search matches)...
 			// Nullify active client
 			activeClient = null;
 			
@@ -181,6 +178,7 @@ public class EditAppointmentPanel extends JPanel implements IUpdateOnSearch {
 			delete.setEnabled(false);
 		} else {
 			// Set as active client
+			Client c = profile.getClient();
 			activeClient = c;
 			
 			// Make sure client is selected in this panel's search panel
@@ -196,31 +194,28 @@ public class EditAppointmentPanel extends JPanel implements IUpdateOnSearch {
 			delete.setEnabled(true);
 			
 			// Fill in next appointment section
-			Appointment nextAppt = Queries.getNextAppointment(c.getClientID());
-			if(nextAppt != null) { // Connection error or database problem if is null
+			Appointment nextAppt = profile.getNextAppointment();
+			if(nextAppt != null) { // Null if no appointment is scheduled
 				date.setToTimestamp(nextAppt.getDate());
 				time.setToTimestamp(nextAppt.getDate());
-				
-				// Fill in previous appointments section
-				ArrayList<Appointment> prevAppts = Queries.getCompletedApptsForClient(c.getClientID()); // Lookup completed appointments
-				if(prevAppts != null) { // There was not a database or connection problem
-					selectAppt.setListData(prevAppts.toArray(new Appointment[prevAppts.size()]));
-				}
-				if(selectAppt.getModel().getSize() > 0) { // Lead the eye by selecting the first item in selectAppt
-					selectAppt.setSelectedIndex(0);	
-				}
+			}
+			
+			// Fill in previous appointments section
+			ArrayList<Appointment> prevAppts = profile.getCompletedAppointments();
+			selectAppt.setListData(prevAppts.toArray(new Appointment[prevAppts.size()]));
+			if(selectAppt.getModel().getSize() > 0) { // Lead the eye by selecting the first item in selectAppt
+				selectAppt.setSelectedIndex(0);	
 			}
 		}
 	}
 	
 	/**
-	 * When a pickup is performed in MainPanel, the display is updated. The same
-	 * client is active in this class (EditAppointmentPanel), and therefore
-	 * needs to be updated to show the appointment just completed. Also used by
-	 * DeleteApptListener.
+	 * Reload the active client after an appointment is changed here, so every
+	 * tab shows the change. Used by DeleteApptListener, the next appointment
+	 * submit, and after EditPreviousAppointment closes.
 	 */
 	public void refresh() {
-		updateForClient(activeClient);
+		fpm.refreshActiveClient();
 	}
 	
 	/**
@@ -234,15 +229,25 @@ public class EditAppointmentPanel extends JPanel implements IUpdateOnSearch {
 				return;
 			}
 					
-			// Get client's next appointment
-			Appointment nextAppt = Queries.getNextAppointment(activeClient.getClientID());
-			if(nextAppt != null) { // There was not a database or connection problem looking up the next appointment
-				nextAppt.setDate(time.getTimestamp(date));
-				boolean successfulUpdateNextAppt = Updates.updateAppointment(nextAppt);
-				if(successfulUpdateNextAppt) {
-					JOptionPane.showMessageDialog(null, "Successful update.", "Success", JOptionPane.INFORMATION_MESSAGE);
+			// Get client's next appointment, then move it to the entered date and time
+			final Timestamp newDate = time.getTimestamp(date);
+			CompletableFuture<Boolean> updated = AsyncDatabase.getNextAppointment(activeClient.getClientID()).thenCompose(new Function<Appointment, CompletionStage<Boolean>>() {
+				public CompletionStage<Boolean> apply(Appointment nextAppt) {
+					if(nextAppt == null) { // There was a database or connection problem looking up the next appointment
+						return CompletableFuture.completedFuture(false);
+					}
+					nextAppt.setDate(newDate);
+					return AsyncDatabase.updateAppointment(nextAppt);
 				}
-			}
+			});
+			LoadingIndicator.load(EditAppointmentPanel.this, updated, new Consumer<Boolean>() {
+				public void accept(Boolean successfulUpdateNextAppt) {
+					if(successfulUpdateNextAppt != null && successfulUpdateNextAppt) {
+						refresh();
+						JOptionPane.showMessageDialog(null, "Successful update.", "Success", JOptionPane.INFORMATION_MESSAGE);
+					}
+				}
+			});
 		}
 		
 		public boolean performFormatChecks() {
@@ -277,11 +282,14 @@ public class EditAppointmentPanel extends JPanel implements IUpdateOnSearch {
 			if(selectAppt.getSelectedIndex() != -1) { // Ascertain something is actually selected
 				int selectedOption = JOptionPane.showConfirmDialog(null, "Are you sure you want to delete this appointment?", "Confirm", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
 				if(selectedOption == 0) {
-					boolean success = Updates.deleteAppointment(selectAppt.getSelectedValue());
-					if(success) {
-						refresh();
-						JOptionPane.showMessageDialog(null, "Appointment successfully deleted.", "Success", JOptionPane.INFORMATION_MESSAGE);
-					}
+					LoadingIndicator.load(EditAppointmentPanel.this, AsyncDatabase.deleteAppointment(selectAppt.getSelectedValue()), new Consumer<Boolean>() {
+						public void accept(Boolean success) {
+							if(success != null && success) {
+								refresh();
+								JOptionPane.showMessageDialog(null, "Appointment successfully deleted.", "Success", JOptionPane.INFORMATION_MESSAGE);
+							}
+						}
+					});
 				}
 			}
 		}
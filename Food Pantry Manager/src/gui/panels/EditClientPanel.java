@@ -6,6 +6,8 @@ package gui.panels;
 import gui.FoodPantryManager;
 import gui.listeners.entryFieldFocusListener;
 import gui.supportingelements.DatePanel;
+import gui.supportingelements.DuplicateAddressWarning;
+import gui.supportingelements.LoadingIndicator;
 import gui.supportingelements.SearchPanel;
 import gui.supportingelements.SearchPanelModel;
 
@@ -17,6 +19,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultComboBoxModel;
@@ -28,11 +31,11 @@ import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.border.Border;
 
+import database.AsyncDatabase;
 import database.Client;
+import database.ClientProfile;
 import database.Household;
-import database.Inserts;
 import database.Queries;
-import database.Updates;
 
 public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 	private Client activeClient;
@@ -65,6 +68,7 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 	private JComboBox<String> westSex = new JComboBox<String>();
 	private JComboBox<String> cityList; // If entries here change must be updated in the selectClientListListener
 	private JTextField otherLocation = new JTextField("Other City", 10);
+	private DuplicateAddressWarning addressWarning;
 	private JPanel westBottom = new JPanel(new GridLayout(1,2,5,5));
 	private JButton deleteClient = new JButton("Delete Client");
 	private JButton updateClient = new JButton("Update Client");
@@ -108,7 +112,8 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 		cityList = new JComboBox<String>(cities.toArray(new String[cities.size()]));
 		cityList.addItemListener(new cityListListener());
 		westTop.add(cityList);
-		westTop.add(new JLabel());
+		addressWarning = new DuplicateAddressWarning(address, cityList, otherLocation);
+		westTop.add(addressWarning);
 		westTop.add(otherLocation);
 		// cityListListener will not trigger if only 1 item in list (which would be "Other") because the state never changes; 
 		// therefore if there is only one item in the list we need to set the original state of otherLocation to be enabled
@@ -196,16 +201,8 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 		add(east, BorderLayout.EAST);
 	}
 	
-	public void updateForClient(Client c) {
-		// A necessary check to prevent extra work.
-		// Too many events fire because each tab tries to update every other tab on selecting a different client in the list.
-		// The root problem is that SearchPanel has three different instances - one on each of three different tabs.
-		// We cannot add the same SearchPanel object to each different tab - that doesn't work.
-		// This could perhaps be resolved by changing the GUI so that SearchPanel is separate, but then it would have to appear above every tab,
-		// eating up space in tabs that don't need the search panel.
-		if (activeClient == c) return;
-		
-		if(c == null) { // If no client is selected (there were no search matches)...
+	public void updateForClient(ClientProfile profile) {
+		if(profile == null) { // If no client is selected (there were no search matches)...
 			// Nullify active client
 			activeClient = null;
 			
@@ -218,6 +215,8 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 			cityList.setSelectedIndex(0);
 			otherLocation.setText("Other City");
 			westDate.clear();
+			addressWarning.setExemptClientID(0);
+			addressWarning.clear();
 			
 			updateClient.setEnabled(false);
 			deleteClient.setEnabled(false);
@@ -233,6 +232,7 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 			submitNewHouseholdMember.setEnabled(true);
 			
 			// Set as active client
+			Client c = profile.getClient();
 			activeClient = c;
 			
 			// Make sure client is selected in this panel's search panel
@@ -267,12 +267,11 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 			} else {
 				westDate.clear();
 			}
+			addressWarning.setExemptClientID(c.getClientID());
+			addressWarning.clear(); // Only warn about addresses the user types, not the one on file
 			
 			// Populate delete household member combobox
-			ArrayList<Household> householdMembers = Queries.getHouseholdForClient(c.getClientID());
-			if(householdMembers == null) { // There was a database or connection problem
-				return;
-			}
+			ArrayList<Household> householdMembers = profile.getHousehold();
 			
 			if(householdMembers.size() == 0) {
 				deleteHouseholdMember.setEnabled(false);
@@ -342,69 +341,86 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 				return;
 			}
 			
+			// The search may move on to another client while the database works
+			final Client client = activeClient;
+			
 			// Check for duplicate address
+			String city;
 			if(cityList.getSelectedIndex() == cityList.getModel().getSize() - 1) { // If "Other" is selected in cityList
-				int result = Queries.checkForDuplicateAddresses(address.getText(), otherLocation.getText(), activeClient);
-				
-				if(result == -1) { // There was a database or connection error
-					return;
-				} else if(result == 1) { // A duplicate address was found
-					JOptionPane.showMessageDialog(null, "Duplicate addresses are not allowed.", "Error", JOptionPane.ERROR_MESSAGE);
-					return;
-				}
+				city = otherLocation.getText();
 			} else { // A listed city is selected
-				int result = Queries.checkForDuplicateAddresses(address.getText(), (String)cityList.getSelectedItem(), activeClient);
-				
-				if(result == -1) { // There was a database or connection error
-					return;
-				} else if(result == 1) { // A duplicate address was found
-					JOptionPane.showMessageDialog(null, "Duplicate addresses are not allowed.", "Error", JOptionPane.ERROR_MESSAGE);
-					return;
-				}
+				city = (String)cityList.getSelectedItem();
 			}
-			
+			LoadingIndicator.load(EditClientPanel.this, AsyncDatabase.checkForDuplicateAddresses(address.getText(), city, client), new Consumer<Integer>() {
+				public void accept(Integer result) {
+					if(result == null || result == -1) { // There was a database or connection error
+						return;
+					} else if(result == 1) { // A duplicate address was found
+						JOptionPane.showMessageDialog(null, "Duplicate addresses are not allowed.", "Error", JOptionPane.ERROR_MESSAGE);
+						return;
+					}
+					
+					updateClient(client);
+				}
+			});
+		}
+		
+		/**
+		 * Copy the entered information into the client and write it off the
+		 * event thread
+		 */
+		private void updateClient(final Client client) {
 			// Update Client object with entered information
-			activeClient.setFirstName(editFirstName.getText()); // Set firstName
-			activeClient.setLastName(editLastName.getText()); // Set lastName
+			client.setFirstName(editFirstName.getText()); // Set firstName
+			client.setLastName(editLastName.getText()); // Set lastName
 			if(editSSN.getText().length() == 4 || editSSN.getText().length() == 9) { // Set SSN
-				activeClient.setSsn(editSSN.getText());
+				client.setSsn(editSSN.getText());
 			} else {
-				activeClient.setSsn("Withheld");
+				client.setSsn("Withheld");
 			}
 			if(westDate.getSQLDate() != null) { // Set birthday
-				activeClient.setBirthday(westDate.getSQLDate());
+				client.setBirthday(westDate.getSQLDate());
 			} else {
-				activeClient.setBirthday(null);
+				client.setBirthday(null);
 			}
-			activeClient.setAddress(address.getText()); // Set address
+			client.setAddress(address.getText()); // Set address
 			if(cityList.getSelectedIndex() == cityList.getModel().getSize() - 1) { // Set city
-				activeClient.setCity(otherLocation.getText()); // "Other" was selected, so get the city name manually entered
+				client.setCity(otherLocation.getText()); // "Other" was selected, so get the city name manually entered
 			} else {
-				activeClient.setCity((String)cityList.getSelectedItem());
+				client.setCity((String)cityList.getSelectedItem());
 			}
 			if(!telephone.getText().equals("") && !telephone.getText().equals("XxxYyyZzzz")) { // Set telephone; put in pretty format
 				String telephoneString = telephone.getText();
 				telephoneString = "(" + telephoneString.substring(0,3) + ") " + telephoneString.substring(3,6) + "-" + telephoneString.substring(6);
-				activeClient.setTelephone(telephoneString);
+				client.setTelephone(telephoneString);
 			} else {
-				activeClient.setTelephone(null);
+				client.setTelephone(null);
 			}
-			activeClient.setGender((String)westSex.getSelectedItem()); // Set gender
+			client.setGender((String)westSex.getSelectedItem()); // Set gender
 			/*** If notes for client added, do c.setNotes(String notes) here ***/
 			
-			boolean success = Updates.updateClient(activeClient);
-			if(success) {
-				// Update city lists if a new city was added
-				if(otherLocation.isEnabled()) {
-					fpm.updateCityLists();
-					otherLocation.setEnabled(false);
+			LoadingIndicator.load(EditClientPanel.this, AsyncDatabase.updateClient(client), new Consumer<Boolean>() {
+				public void accept(Boolean updated) {
+					boolean success = updated != null && updated;
+					if(success) {
+						// Update city lists if a new city was added
+						if(otherLocation.isEnabled()) {
+							fpm.updateCityLists();
+							otherLocation.setEnabled(false);
+						}
+						
+						JOptionPane.showMessageDialog(null, "Successful Update", "Success", JOptionPane.INFORMATION_MESSAGE);
+					}
+					
+					// Update SearchPanel JList so it displays critical information changes
+					sp.refreshForClient(client);
+					
+					// Reload so the other tabs show the changes
+					if(success) {
+						fpm.refreshActiveClient();
+					}
 				}
-				
-				JOptionPane.showMessageDialog(null, "Successful Update", "Success", JOptionPane.INFORMATION_MESSAGE);
-			}
-			
-			// Update SearchPanel JList so it displays critical information changes
-			sp.refreshForClient(activeClient);
+			});
 		}
 		
 		public boolean performWestFormatChecks() {
@@ -466,23 +482,26 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 	{
 		public void actionPerformed(ActionEvent e)
 		{
-			// Get name for later
-			String name = activeClient.toString();
+			// Get client and name for later
+			final Client client = activeClient;
+			final String name = client.toString();
 			
 			// Confirm delete
 			int response = JOptionPane.showConfirmDialog(null, "Delete " + name + "?", "Confirm Delete", JOptionPane.YES_NO_OPTION);
 			if(response==0)
 			{
 				// Delete activeClient
-				boolean success = Updates.deleteClient(activeClient);
-				
-				if(success) {
-					// Alert of success
-					JOptionPane.showMessageDialog(null, name + " has been deleted.", "Success", JOptionPane.INFORMATION_MESSAGE);
-					
-					// Update search results
-					sp.removeClient(activeClient);
-				}				
+				LoadingIndicator.load(EditClientPanel.this, AsyncDatabase.deleteClient(client), new Consumer<Boolean>() {
+					public void accept(Boolean success) {
+						if(success != null && success) {
+							// Alert of success
+							JOptionPane.showMessageDialog(null, name + " has been deleted.", "Success", JOptionPane.INFORMATION_MESSAGE);
+							
+							// Update search results
+							sp.removeClient(client);
+						}
+					}
+				});
 			}
 		}
 	}
@@ -499,7 +518,7 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 			}
 			
 			// Make new Household object to represent new household member
-			Household hm = new Household();
+			final Household hm = new Household();
 			hm.setClientID(activeClient.getClientID());
 			hm.setName(newHouseholdMemberName.getText());
 			hm.setBirthday(eastDate.getSQLDate());
@@ -507,32 +526,34 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 			hm.setRelationship((String)relationship.getSelectedItem());
 			
 			// Insert new household member
-			boolean success = Inserts.addHouseholdMember(hm);
-			
-			if(success) {
-				// Alert of success
-				JOptionPane.showMessageDialog(null, "Successful addition of household member.", "Success", JOptionPane.INFORMATION_MESSAGE);
-				
-				// Clear household member section
-				newHouseholdMemberName.setText("");
-				eastSex.setSelectedIndex(0);
-				eastDate.clear();
-				relationship.setSelectedIndex(0);
-				
-				// Add to combobox that allows deleting of household membbers
-				if(deleteHouseholdMember.getModel().getSize() == 0) { // If this will be the first household member, set these things enabled
-					deleteHouseholdMember.setEnabled(true);
-					submitDeleteHouseholdMember.setEnabled(true);
-				}
-				
-				deleteHouseholdMember.addItem(hm); // Add item
-				
-				boolean hasSpouse = false;
-				if(hm.getRelationship().equals("Spouse")) { // Remove "Spouse" if necessary
-					hasSpouse = true;
+			LoadingIndicator.load(EditClientPanel.this, AsyncDatabase.addHouseholdMember(hm), new Consumer<Boolean>() {
+				public void accept(Boolean success) {
+					if(success != null && success) {
+						// Alert of success
+						JOptionPane.showMessageDialog(null, "Successful addition of household member.", "Success", JOptionPane.INFORMATION_MESSAGE);
+						
+						// Clear household member section
+						newHouseholdMemberName.setText("");
+						eastSex.setSelectedIndex(0);
+						eastDate.clear();
+						relationship.setSelectedIndex(0);
+						
+						// Add to combobox that allows deleting of household membbers
+						if(deleteHouseholdMember.getModel().getSize() == 0) { // If this will be the first household member, set these things enabled
+							deleteHouseholdMember.setEnabled(true);
+							submitDeleteHouseholdMember.setEnabled(true);
+						}
+						
+						deleteHouseholdMember.addItem(hm); // Add item
+						
+						boolean hasSpouse = false;
+						if(hm.getRelationship().equals("Spouse")) { // Remove "Spouse" if necessary
+							hasSpouse = true;
+						}
+						setRelationshipsChoices(hasSpouse);
+					}
 				}
-				setRelationshipsChoices(hasSpouse);
-			}
+			});
 		}
 		
 		public boolean performEastFormatChecks()
@@ -558,30 +579,37 @@ public class EditClientPanel extends JPanel implements IUpdateOnSearch {
 	 */
 	private class submitDeleteHouseholdMemberListener implements ActionListener {
 		public void actionPerformed(ActionEvent ae) {
-			Household hm = (Household)deleteHouseholdMember.getSelectedItem();
+			final Household hm = (Household)deleteHouseholdMember.getSelectedItem();
 			int response = JOptionPane.showConfirmDialog(null, "Delete " + hm.getName() + "?", "Confirm Delete", JOptionPane.YES_NO_OPTION);
 			if(response==0) {
-				boolean success = Updates.deleteHouseholdMember(hm);
-				if(success) {
-					boolean hasSpouse = false;
-					if(hm.getRelationship().equals("Spouse")) { // Add back in "Spouse" if necessary
-						hasSpouse = false; // Set to false because the spouse is about to be removed
-					}
-					setRelationshipsChoices(hasSpouse);
-					
-					deleteHouseholdMember.removeItem(hm); // Add item
-					
-					if(deleteHouseholdMember.getModel().getSize() == 0) { // If this was the only household member, set these things disabled
-						deleteHouseholdMember.setEnabled(false);
-						submitDeleteHouseholdMember.setEnabled(false);
+				LoadingIndicator.load(EditClientPanel.this, AsyncDatabase.deleteHouseholdMember(hm), new Consumer<Boolean>() {
+					public void accept(Boolean success) {
+						if(success != null && success) {
+							boolean hasSpouse = false;
+							if(hm.getRelationship().equals("Spouse")) { // Add back in "Spouse" if necessary
+								hasSpouse = false; // Set to false because the spouse is about to be removed
+							}
+							setRelationshipsChoices(hasSpouse);
+							
+							deleteHouseholdMember.removeItem(hm); // Add item
+							
+							if(deleteHouseholdMember.getModel().getSize() == 0) { // If this was the only household member, set these things disabled
+								deleteHouseholdMember.setEnabled(false);
+								submitDeleteHouseholdMember.setEnabled(false);
+							}
+						}
 					}
-				}
+				});
 			}
 		}
 	}
 	
 	public void updateCityList(String[] cities) {
+		Object selected = cityList.getSelectedItem(); // The list arrives from the database after the form may have been filled in
 		cityList.setModel(new DefaultComboBoxModel<String>(cities));
+		if(selected != null) {
+			cityList.setSelectedItem(selected);
+		}
 	}
 	
 	/**
@@ -3,8 +3,14 @@
 
 package gui.panels;
 
-import database.Client;
+import database.ClientProfile;
 
+/**
+ * A panel that shows the client selected in the search panels; the panels
+ * share one ClientProfile, loaded by FoodPantryManager
+ * 
+ * @author Scott Hoelsema
+ */
 public interface IUpdateOnSearch {
-	public void updateForClient(Client c);
+	public void updateForClient(ClientProfile profile);
 }
\ No newline at end of file
@@ -26,14 +26,15 @@ import javax.swing.JTextArea;
 import utils.Utilities;
 import database.Appointment;
 import database.Client;
+import database.ClientProfile;
 import database.Household;
-import database.Queries;
 
 public class MainPanel extends JPanel implements IUpdateOnSearch{
 	private FoodPantryManager fpm;
 	private SearchPanel sp;
 	private JTextArea display = new JTextArea(18, 60);
 	private JScrollPane scrollDisplay;
+	private ClientProfile activeProfile;
 	private Client activeClient;
 	private String activeClientTitle;
 	private JButton nextAppt;
@@ -106,19 +107,12 @@ public class MainPanel extends JPanel implements IUpdateOnSearch{
 	 * When the active client changes, this method updates the components of
 	 * MainPanel with the active client's information.
 	 * 
-	 * @param c
-	 *            The active client; null if none active
+	 * @param profile
+	 *            The active client's profile; null if none active
 	 */
-	public void updateForClient(Client c) {
-		// A necessary check to prevent extra work.
-		// Too many events fire because each tab tries to update every other tab on selecting a different client in the list.
-		// The root problem is that SearchPanel has three different instances - one on each of three different tabs.
-		// We cannot add the same SearchPanel object to each different tab - that doesn't work.
-		// This could perhaps be resolved by changing the GUI so that SearchPanel is separate, but then it would have to appear above every tab,
-		// eating up space in tabs that don't need the search panel.
-		if (activeClient == c) return;
-		
-		if(c == null) { // If no client is selected (there were no search matches)...			
+	public void updateForClient(ClientProfile profile) {
+		activeProfile = profile;
+		if(profile == null) { // If no client is selected (there were no search matches)...			
 			// Clear text area
 			display.setText("");
 			
@@ -128,6 +122,7 @@ public class MainPanel extends JPanel implements IUpdateOnSearch{
 			report.setEnabled(false);
 		} else {
 			// Update active client
+			Client c = profile.getClient();
 			activeClient = c;
 			
 			// Make sure client is selected in this panel's search panel
@@ -145,16 +140,8 @@ public class MainPanel extends JPanel implements IUpdateOnSearch{
 			// Write information for this client to display
 			appendClientInformation(c); // Client information
 			
-			ArrayList<Household> householdMembers = Queries.getHouseholdForClient(activeClient.getClientID()); // Household information
-			if(householdMembers != null) { // There was not a database or connection problem
-				appendHouseholdInformation(householdMembers);
-			}
-			
-			ArrayList<Appointment> appts = Queries.getCompletedApptsForClient(activeClient.getClientID()); // Appointment information
-			if(appts != null) { // There was not a database or connection problem
-				appendAppointmentInformation(appts);
-			}
-			
+			appendHouseholdInformation(profile.getHousehold()); // Household information
+			appendAppointmentInformation(profile.getCompletedAppointments()); // Appointment information
 			
 			// Force scrollbar to top
 			display.setSelectionStart(0);
@@ -270,9 +257,11 @@ public class MainPanel extends JPanel implements IUpdateOnSearch{
 	{
 		public void actionPerformed(ActionEvent e)
 		{
-			Appointment nextAppt = Queries.getNextAppointment(activeClient.getClientID());
-			if(nextAppt != null) { // There was not a database or connection problem
+			Appointment nextAppt = activeProfile.getNextAppointment();
+			if(nextAppt != null) {
 				JOptionPane.showMessageDialog(null, Utilities.translateToReadableDate(nextAppt.getDate(), true), "Next Appointment", JOptionPane.INFORMATION_MESSAGE);
+			} else {
+				JOptionPane.showMessageDialog(null, "No appointment scheduled.", "Next Appointment", JOptionPane.INFORMATION_MESSAGE);
 			}
 		}
 	}
@@ -6,6 +6,8 @@ package gui.panels;
 import gui.FoodPantryManager;
 import gui.listeners.entryFieldFocusListener;
 import gui.supportingelements.DatePanel;
+import gui.supportingelements.DuplicateAddressWarning;
+import gui.supportingelements.LoadingIndicator;
 import gui.supportingelements.TimeTextField;
 
 import java.awt.BorderLayout;
@@ -15,7 +17,12 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -29,8 +36,8 @@ import javax.swing.JTextField;
 import javax.swing.border.Border;
 
 import database.Appointment;
+import database.AsyncDatabase;
 import database.Client;
-import database.Inserts;
 import database.Queries;
 
 public class NewClientPanel extends JPanel {
@@ -42,6 +49,7 @@ public class NewClientPanel extends JPanel {
 	private JTextField address;
 	private JComboBox<String> cityList;
 	private JTextField otherLocation;
+	private DuplicateAddressWarning addressWarning;
 	private JTextField telephone;
 	private JComboBox<String> sex;
 	private DatePanel birthdayDatePanel;
@@ -75,6 +83,7 @@ public class NewClientPanel extends JPanel {
 		cities.add("Other");
 		cityList = new JComboBox<String>(cities.toArray(new String[cities.size()]));
 		otherLocation = new JTextField("Other City",15);
+		addressWarning = new DuplicateAddressWarning(address, cityList, otherLocation);
 		JLabel telephoneLabel = new JLabel("Telephone:");
 		telephone = new JTextField("XxxYyyZzzz",15);
 		JLabel sexLabel = new JLabel("Gender:");
@@ -108,7 +117,7 @@ public class NewClientPanel extends JPanel {
 		northPanel.add(cityListLabel);
 		cityList.addItemListener(new cityListListener());
 		northPanel.add(cityList); // Add cityList
-		northPanel.add(new JLabel()); // Add filler
+		northPanel.add(addressWarning); // Add addressWarning
 		// cityListListener will not trigger if only 1 item in list (which would be "Other") because the state never changes; 
 		// therefore if there is only one item in the list we need to set the original state of otherLocation to be enabled
 		if(cities.size() < 2) 
@@ -150,82 +159,98 @@ public class NewClientPanel extends JPanel {
 			if(!performFormatChecks()) {
 				return;
 			} else {
+				String city;
 				if(cityList.getSelectedIndex() == cityList.getModel().getSize() - 1) { // If "Other" is selected in cityList
-					int result = Queries.checkForDuplicateAddresses(address.getText(), otherLocation.getText(), null);
-					
-					if(result == -1) { // There was a database or connection error
-						return;
-					} else if(result == 1) { // A duplicate address was found
-						JOptionPane.showMessageDialog(null, "Duplicate addresses are not allowed.", "Error", JOptionPane.ERROR_MESSAGE);
-						return;
-					}
+					city = otherLocation.getText();
 				} else { // A listed city is selected
-					int result = Queries.checkForDuplicateAddresses(address.getText(), (String)cityList.getSelectedItem(), null);
-					
-					if(result == -1) { // There was a database or connection error
-						return;
-					} else if(result == 1) { // A duplicate address was found
-						JOptionPane.showMessageDialog(null, "Duplicate addresses are not allowed.", "Error", JOptionPane.ERROR_MESSAGE);
-						return;
-					}
-				}
-				
-				// Insert new client
-				Client c = new Client();
-				c.setFirstName(firstName.getText()); // Set firstName
-				c.setLastName(lastName.getText()); // Set lastName
-				if(ssn.getText().length() == 4 || ssn.getText().length() == 9) { // Set SSN
-					c.setSsn(ssn.getText());
-				} else {
-					c.setSsn("Withheld");
-				}
-				if(birthdayDatePanel.getSQLDate() != null) { // Set birthday
-					c.setBirthday(birthdayDatePanel.getSQLDate());
-				} else {
-					c.setBirthday(null);
-				}
-				c.setAddress(address.getText()); // Set address
-				if(cityList.getSelectedIndex() == cityList.getModel().getSize() - 1) { // Set city
-					c.setCity(otherLocation.getText()); // "Other" was selected, so get the city name manually entered
-				} else {
-					c.setCity((String)cityList.getSelectedItem());
-				}
-				if(!telephone.getText().equals("") && !telephone.getText().equals("XxxYyyZzzz")) { // Set telephone; put in pretty format
-					String telephoneString = telephone.getText();
-					telephoneString = "(" + telephoneString.substring(0,3) + ") " + telephoneString.substring(3,6) + "-" + telephoneString.substring(6);
-					c.setTelephone(telephoneString);
-				} else {
-					c.setTelephone(null);
+					city = (String)cityList.getSelectedItem();
 				}
-				c.setGender((String)sex.getSelectedItem()); // Set gender
-				/*** If notes for client added, do c.setNotes(String notes) here ***/
-				
-				int clientID = Inserts.insertClient(c); // Perform insert of client
 				
-				if(clientID != -1) { // There was no database or connection problem
-					// Insert first appointment for new client
-					Appointment firstAppt = new Appointment();
-					firstAppt.setClientID(clientID);
-					firstAppt.setDate(apptTime.getTimestamp(firstApptDatePanel));
-					boolean firstApptAdded = Inserts.addNextAppointment(firstAppt); // Perform insert of appointment
-					
-					if(firstApptAdded) { // There was no database or connection problem
-						// Update city lists if a new city was added
-						if(otherLocation.isEnabled()) {
-							fpm.updateCityLists();
+				// Check for a duplicate address off the event thread, then insert the client
+				LoadingIndicator.load(NewClientPanel.this, AsyncDatabase.checkForDuplicateAddresses(address.getText(), city, null), new Consumer<Integer>() {
+					public void accept(Integer result) {
+						if(result == null || result == -1) { // There was a database or connection error
+							return;
+						} else if(result == 1) { // A duplicate address was found
+							JOptionPane.showMessageDialog(null, "Duplicate addresses are not allowed.", "Error", JOptionPane.ERROR_MESSAGE);
+							return;
 						}
 						
-						// Alert success
-						JOptionPane.showMessageDialog(null, "Successful addition of client!", "Success", JOptionPane.INFORMATION_MESSAGE);
-												
-						// Clear data that was just entered
-						clearData();
+						insertNewClient();
 					}
-				}
+				});
 			}
 		}
 	}
 	
+	/**
+	 * Insert the client that was entered, then its first appointment. Both
+	 * writes run off the event thread, the appointment only once the client
+	 * has its ID.
+	 */
+	private void insertNewClient() {
+		// Insert new client
+		Client c = new Client();
+		c.setFirstName(firstName.getText()); // Set firstName
+		c.setLastName(lastName.getText()); // Set lastName
+		if(ssn.getText().length() == 4 || ssn.getText().length() == 9) { // Set SSN
+			c.setSsn(ssn.getText());
+		} else {
+			c.setSsn("Withheld");
+		}
+		if(birthdayDatePanel.getSQLDate() != null) { // Set birthday
+			c.setBirthday(birthdayDatePanel.getSQLDate());
+		} else {
+			c.setBirthday(null);
+		}
+		c.setAddress(address.getText()); // Set address
+		if(cityList.getSelectedIndex() == cityList.getModel().getSize() - 1) { // Set city
+			c.setCity(otherLocation.getText()); // "Other" was selected, so get the city name manually entered
+		} else {
+			c.setCity((String)cityList.getSelectedItem());
+		}
+		if(!telephone.getText().equals("") && !telephone.getText().equals("XxxYyyZzzz")) { // Set telephone; put in pretty format
+			String telephoneString = telephone.getText();
+			telephoneString = "(" + telephoneString.substring(0,3) + ") " + telephoneString.substring(3,6) + "-" + telephoneString.substring(6);
+			c.setTelephone(telephoneString);
+		} else {
+			c.setTelephone(null);
+		}
+		c.setGender((String)sex.getSelectedItem()); // Set gender
+		/*** If notes for client added, do c.setNotes(String notes) here ***/
+		
+		final Timestamp firstApptDate = apptTime.getTimestamp(firstApptDatePanel);
+		CompletableFuture<Boolean> inserted = AsyncDatabase.insertClient(c).thenCompose(new Function<Integer, CompletionStage<Boolean>>() { // Perform insert of client
+			public CompletionStage<Boolean> apply(Integer clientID) {
+				if(clientID == -1) { // There was a database or connection problem
+					return CompletableFuture.completedFuture(false);
+				}
+				
+				// Insert first appointment for new client
+				Appointment firstAppt = new Appointment();
+				firstAppt.setClientID(clientID);
+				firstAppt.setDate(firstApptDate);
+				return AsyncDatabase.addNextAppointment(firstAppt); // Perform insert of appointment
+			}
+		});
+		LoadingIndicator.load(this, inserted, new Consumer<Boolean>() {
+			public void accept(Boolean firstApptAdded) {
+				if(firstApptAdded != null && firstApptAdded) { // There was no database or connection problem
+					// Update city lists if a new city was added
+					if(otherLocation.isEnabled()) {
+						fpm.updateCityLists();
+					}
+					
+					// Alert success
+					JOptionPane.showMessageDialog(null, "Successful addition of client!", "Success", JOptionPane.INFORMATION_MESSAGE);
+											
+					// Clear data that was just entered
+					clearData();
+				}
+			}
+		});
+	}
+	
 	/**
 	 * Check format of user entry. Display one or more messages telling them
 	 * what the problem(s) were. Return a boolean identifying if there were any
@@ -304,6 +329,7 @@ public class NewClientPanel extends JPanel {
 		birthdayDatePanel.clear();
 		firstApptDatePanel.setToCurrent();
 		apptTime.clear();
+		addressWarning.clear();
 	}
 	
 	public void updateCityList(String[] cities) {
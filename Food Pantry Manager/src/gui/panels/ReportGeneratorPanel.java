@@ -6,6 +6,7 @@ package gui.panels;
 import gui.FoodPantryManager;
 import gui.SelectPrinter;
 import gui.supportingelements.DatePanel;
+import gui.supportingelements.LoadingIndicator;
 
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
@@ -13,6 +14,7 @@ import java.awt.event.ActionListener;
 import java.sql.Date;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.function.Consumer;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JButton;
@@ -27,7 +29,9 @@ import javax.swing.event.DocumentListener;
 
 import utils.Utilities;
 import database.Appointment;
+import database.AsyncDatabase;
 import database.Client;
+import database.PoundageReport;
 import database.Queries;
 
 public class ReportGeneratorPanel extends JPanel {
@@ -46,6 +50,7 @@ public class ReportGeneratorPanel extends JPanel {
 	private JTextArea display = new JTextArea(30, 75);
 	private JButton print = new JButton("Print Report");
 	private String reportType;
+	private int reportRequests = 0; // Bumped per report so a slow report cannot replace a newer one
 	
 	public ReportGeneratorPanel(FoodPantryManager fpm)
 	{
@@ -119,30 +124,27 @@ public class ReportGeneratorPanel extends JPanel {
 			// Set header for pdf document
 			reportType = date.toString() + " Poundage Report"; // TODO make sure works
 			
-			int totalPoundage = Queries.getTotalPoundageForTimestamp(date.getTimestamp());
-			if(totalPoundage == -1) { // There was a database or connection problem
-				return;
-			}
-			
-			int numClientsServed = Queries.getVisitsForTimePeriod(date.getTimestamp());
-			if(numClientsServed == -1) { // There was a database or connection problem
-				return;
-			}
-			
-			ArrayList<Appointment> appts = Queries.getCompletedAppointmentsForDate(date.getTimestamp());
-			if(appts == null) { // There was a database or connection problem
-				return;
-			}
-			
-			// Append to display
-			display.setText("");
-			display.append("Pounds Distributed " + date.toString() + ": " + totalPoundage + "\n\n");
-			display.append("Total Client Visits " + date.toString() + ": " + numClientsServed + "\n\n");
-			if(includeDetail.isSelected()) {
-				for(Appointment a : appts) {
-					display.append(a.getClientName() + " (Case ID: " + a.getClientID() + ")\n" + Utilities.translateToReadableDate(a.getDate(), false) + " (Pounds: " + a.getPounds() + ")\n\n");
+			final String period = date.toString();
+			final int request = ++reportRequests;
+			LoadingIndicator.load(ReportGeneratorPanel.this, AsyncDatabase.getPoundageReport(date.getDateRange(), includeDetail.isSelected()), new Consumer<PoundageReport>() {
+				public void accept(PoundageReport report) {
+					if(request != reportRequests || report == null) { // Superseded, or there was a database or connection problem
+						return;
+					}
+					
+					// Append to display
+					display.setText("");
+					display.append("Pounds Distributed " + period + ": " + report.getTotalPounds() + "\n\n");
+					display.append("Total Client Visits " + period + ": " + report.getVisits() + "\n\n");
+					if(report.getAppointments() != null) {
+						StringBuilder detail = new StringBuilder(); // Appended in one go; JTextArea.append per line is slow over a year of visits
+						for(Appointment a : report.getAppointments()) {
+							detail.append(a.getClientName() + " (Case ID: " + a.getClientID() + ")\n" + Utilities.translateToReadableDate(a.getDate(), false) + " (Pounds: " + a.getPounds() + ")\n\n");
+						}
+						display.append(detail.toString());
+					}
 				}
-			}
+			});
 		}	
 	}
 	
@@ -194,17 +196,20 @@ public class ReportGeneratorPanel extends JPanel {
 			}
 				
 			// Look up stagnant clients
-			ArrayList<Appointment> stagnantClients = Queries.lookupInactiveClients(reference);
-			
-			if(stagnantClients != null) { // There was not a database or connection problem
-				// Append results to display
-				display.setText("");
-				for(Appointment a : stagnantClients) {
-					display.append(a.getClientName() + " (Case ID: "
-							+ a.getClientID() + ")\n" + "Last Pick Up Date: "
-							+ Utilities.translateToReadableDate(a.getDate(), true) + "\n\n");
+			final int request = ++reportRequests;
+			LoadingIndicator.load(ReportGeneratorPanel.this, AsyncDatabase.lookupInactiveClients(reference), new Consumer<ArrayList<Appointment>>() {
+				public void accept(ArrayList<Appointment> stagnantClients) {
+					if(request == reportRequests && stagnantClients != null) { // Not superseded, and there was not a database or connection problem
+						// Append results to display
+						display.setText("");
+						for(Appointment a : stagnantClients) {
+							display.append(a.getClientName() + " (Case ID: "
+									+ a.getClientID() + ")\n" + "Last Pick Up Date: "
+									+ Utilities.translateToReadableDate(a.getDate(), true) + "\n\n");
+						}
+					}
 				}
-			}			
+			});
 		}
 	}
 	
@@ -219,32 +224,36 @@ public class ReportGeneratorPanel extends JPanel {
 		{
 			display.setText("");
 			// Set header to be used if printed
-			reportType = (String)cityList.getSelectedItem() + " Client List";
+			final String city = (String)cityList.getSelectedItem();
+			reportType = city + " Client List";
 			
 			// Lookup clients for selected city
-			ArrayList<Client> clientsForCity = Queries.getClientsForCity((String)cityList.getSelectedItem());
-			
-			if(clientsForCity != null) { // There was not a database or connection problem
-				// Post total number of clients in city
-				display.append("Total Number of Clients in " + (String)cityList.getSelectedItem() + ": " + clientsForCity.size() + "\n\n");
-				
-				// Post individual client information
-				for(Client c : clientsForCity) {
-					// Account for absent telephone numbers
-					String telephone = c.getTelephone();
-					if(telephone == null) {
-						telephone = "";
-					} else {
-						telephone = "\n" + telephone;
+			final int request = ++reportRequests;
+			LoadingIndicator.load(ReportGeneratorPanel.this, AsyncDatabase.getClientsForCity(city), new Consumer<ArrayList<Client>>() {
+				public void accept(ArrayList<Client> clientsForCity) {
+					if(request == reportRequests && clientsForCity != null) { // Not superseded, and there was not a database or connection problem
+						// Post total number of clients in city
+						display.append("Total Number of Clients in " + city + ": " + clientsForCity.size() + "\n\n");
+						
+						// Post individual client information
+						for(Client c : clientsForCity) {
+							// Account for absent telephone numbers
+							String telephone = c.getTelephone();
+							if(telephone == null) {
+								telephone = "";
+							} else {
+								telephone = "\n" + telephone;
+							}
+							
+							// Append information
+							display.append(c.getFirstName() + " " + c.getLastName()
+									+ " (Case ID: " + c.getClientID() + ")\n"
+									+ c.getAddress() + ", " + c.getCity()
+									+ telephone + "\n\n");
+						}
 					}
-					
-					// Append information
-					display.append(c.getFirstName() + " " + c.getLastName()
-							+ " (Case ID: " + c.getClientID() + ")\n"
-							+ c.getAddress() + ", " + c.getCity()
-							+ telephone + "\n\n");
 				}
-			}
+			});
 		}
 	}
 	
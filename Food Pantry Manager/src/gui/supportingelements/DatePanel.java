@@ -3,6 +3,7 @@
 
 package gui.supportingelements;
 
+import database.DateRange;
 import gui.listeners.entryFieldFocusListener;
 
 import java.awt.event.ActionEvent;
@@ -149,27 +150,18 @@ public class DatePanel extends JPanel {
 	}
 	
 	/**
-	 * Get timestamp for current values, if includeAllOption == true, this may include wildcards
+	 * Get the range of time covered by the current values; if
+	 * includeAllOption == true, this may be a whole month or year
 	 * 
-	 * @return String representing the current selections; it is a String because there may be wildcards
+	 * @return DateRange covering the current selections
 	 */
-	public String getTimestamp() {
-		if(includeAllOption) {
-			if(month.getSelectedIndex() == 0) { // "All Year" is selected
-				return getYearEnteredString() + "-%";
-			} else if(day.getSelectedIndex() == 0) { // "All Month" is selected
-				String monthString; // Because month needs to be two digits
-				if(getMonthSelected() < 10) {
-					monthString = "0" + Integer.toString(getMonthSelected());
-				} else {
-					monthString = Integer.toString(getMonthSelected());
-				}
-				return getYearEnteredString() + "-" + monthString + "-%";
-			} else {
-				return getSQLDate().toString() + "%";
-			}
+	public DateRange getDateRange() {
+		if(includeAllOption && month.getSelectedIndex() == 0) { // "All Year" is selected
+			return DateRange.forYear(getYearEnteredInt());
+		} else if(includeAllOption && day.getSelectedIndex() == 0) { // "All Month" is selected
+			return DateRange.forMonth(getYearEnteredInt(), getMonthSelected());
 		} else {
-			return getSQLDate().toString() + "%";
+			return DateRange.forDay(getSQLDate());
 		}
 	}
 	
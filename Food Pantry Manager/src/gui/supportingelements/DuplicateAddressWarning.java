@@ -0,0 +1,124 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package gui.supportingelements;
+
+import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
+import java.util.function.Consumer;
+
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import database.AsyncDatabase;
+
+/**
+ * Label that warns, while the user is still typing, that the address entered
+ * already belongs to another client. The check waits until typing pauses and
+ * runs off the event thread, so it never holds up the form; the check on save
+ * is still what prevents a duplicate.
+ *
+ * @author Scott Hoelsema
+ */
+public class DuplicateAddressWarning extends JLabel {
+	private static final int TYPING_PAUSE_MILLIS = 400; // Wait this long after the last keystroke before checking
+
+	private JTextField address;
+	private JComboBox<String> cityList; // Assumes "Other" is the last option
+	private JTextField otherLocation;
+	private int exemptClientID = 0; // Client whose own address does not count as a duplicate; 0 for none
+	private Timer pause;
+	private int generation = 0; // Bumped on every edit so a slow check cannot overwrite a newer one
+
+	public DuplicateAddressWarning(JTextField address, JComboBox<String> cityList, JTextField otherLocation) {
+		this.address = address;
+		this.cityList = cityList;
+		this.otherLocation = otherLocation;
+		setForeground(Color.RED);
+
+		pause = new Timer(TYPING_PAUSE_MILLIS, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				check();
+			}
+		});
+		pause.setRepeats(false);
+
+		DocumentListener edited = new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				restart();
+			}
+
+			public void removeUpdate(DocumentEvent e) {
+				restart();
+			}
+
+			public void changedUpdate(DocumentEvent e) {
+				restart();
+			}
+		};
+		address.getDocument().addDocumentListener(edited);
+		otherLocation.getDocument().addDocumentListener(edited);
+		cityList.addItemListener(new ItemListener() {
+			public void itemStateChanged(ItemEvent e) {
+				restart();
+			}
+		});
+	}
+
+	/**
+	 * Set the client being edited, whose own address is not a duplicate
+	 *
+	 * @param clientID
+	 *            ID of the client; 0 for none
+	 */
+	public void setExemptClientID(int clientID) {
+		exemptClientID = clientID;
+	}
+
+	/**
+	 * Hide the warning and drop any check in progress, e.g. when the form is
+	 * cleared or filled in with a client's saved address
+	 */
+	public void clear() {
+		generation++;
+		pause.stop();
+		setText("");
+	}
+
+	private void restart() {
+		generation++;
+		setText("");
+		pause.restart();
+	}
+
+	private void check() {
+		final String enteredAddress = address.getText();
+		final String enteredCity;
+		if(cityList.getSelectedIndex() == cityList.getModel().getSize() - 1) { // "Other" is selected
+			enteredCity = otherLocation.getText();
+		} else {
+			enteredCity = (String)cityList.getSelectedItem();
+		}
+		if(enteredAddress.trim().equals("") || enteredCity == null || enteredCity.trim().equals("")) {
+			return;
+		}
+
+		final int checkGeneration = generation;
+		final int exempt = exemptClientID;
+		AsyncDatabase.isAddressInUse(enteredAddress, enteredCity, exempt).thenAcceptAsync(new Consumer<Boolean>() {
+			public void accept(Boolean inUse) {
+				if(checkGeneration != generation) { // Something was typed since; a newer check is coming
+					return;
+				}
+				setText(inUse ? "Possible duplicate address" : ""); // A failed check is not worth interrupting typing for; the check on save will report it
+			}
+		}, AsyncDatabase.EVENT_THREAD);
+	}
+}
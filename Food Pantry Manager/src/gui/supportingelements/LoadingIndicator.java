@@ -0,0 +1,100 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package gui.supportingelements;
+
+import java.awt.Component;
+import java.awt.Cursor;
+import java.awt.event.MouseAdapter;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.swing.JComponent;
+import javax.swing.JOptionPane;
+import javax.swing.JRootPane;
+import javax.swing.SwingUtilities;
+
+import utils.Logger;
+import database.AsyncDatabase;
+
+/**
+ * Shows that a window is waiting on the database: the wait cursor is shown
+ * and clicks are held off until the result is in, so the user cannot act on
+ * a client or report that is about to be replaced. The window still paints
+ * and can be moved while it waits.
+ *
+ * @author Scott Hoelsema
+ */
+public class LoadingIndicator {
+	private static final String LOADING_COUNT = "LoadingIndicator.count"; // Client property on the root pane; loads still outstanding
+	private static final MouseAdapter SWALLOW_CLICKS = new MouseAdapter() {}; // A glass pane only blocks the mouse if it listens to it
+
+	/**
+	 * Show the window containing owner as loading until pending completes,
+	 * then hand the result to onLoaded on the event thread
+	 *
+	 * @param owner
+	 *            Any component in the window waiting on the result
+	 * @param pending
+	 *            The result, usually from AsyncDatabase
+	 * @param onLoaded
+	 *            Given the result; given null if there was a database or
+	 *            connection problem, as the Queries methods return
+	 */
+	public static <T> void load(final Component owner, CompletableFuture<T> pending, final Consumer<T> onLoaded) {
+		start(owner);
+		pending.whenCompleteAsync(new BiConsumer<T, Throwable>() {
+			public void accept(T result, Throwable failure) {
+				stop(owner);
+				if(failure != null) { // Queries report their own SQL errors, so this is a bug
+					Logger.logThrowable(failure);
+					failure.printStackTrace();
+					JOptionPane.showMessageDialog(null, "Database error.", "Error", JOptionPane.ERROR_MESSAGE);
+					onLoaded.accept(null);
+				} else {
+					onLoaded.accept(result);
+				}
+			}
+		}, AsyncDatabase.EVENT_THREAD);
+	}
+
+	private static void start(Component owner) {
+		JRootPane root = SwingUtilities.getRootPane(owner);
+		if(root == null) { // Not in a window yet
+			return;
+		}
+		int count = getCount(root);
+		root.putClientProperty(LOADING_COUNT, count + 1);
+		if(count == 0) {
+			Component glass = root.getGlassPane();
+			if(glass.getMouseListeners().length == 0) {
+				glass.addMouseListener(SWALLOW_CLICKS);
+			}
+			glass.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+			glass.setVisible(true);
+		}
+	}
+
+	private static void stop(Component owner) {
+		JRootPane root = SwingUtilities.getRootPane(owner);
+		if(root == null) {
+			return;
+		}
+		int count = getCount(root);
+		if(count == 0) { // Started before the component was in a window
+			return;
+		}
+		root.putClientProperty(LOADING_COUNT, count - 1);
+		if(count == 1) {
+			Component glass = root.getGlassPane();
+			glass.setVisible(false);
+			glass.setCursor(Cursor.getDefaultCursor());
+		}
+	}
+
+	private static int getCount(JComponent root) {
+		Object count = root.getClientProperty(LOADING_COUNT);
+		return count == null ? 0 : (Integer)count;
+	}
+}
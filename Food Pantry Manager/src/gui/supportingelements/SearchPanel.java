@@ -12,31 +12,48 @@ import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JPanel;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
 import javax.swing.border.Border;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
+import database.AsyncDatabase;
 import database.Client;
-import database.Queries;
+import database.ClientDirectory;
+import database.ClientSearch;
+import database.ClientSummary;
 
 /**
  * The search panel that serves MainPanel, EditAppointmentPanel, and EditClientPanel
  * 
+ * Searches as the user types, as well as on Enter or the Search button.
+ * 
  * @author Scott Hoelsema
  */
 public class SearchPanel extends JPanel {
+	private static final int TYPING_PAUSE_MILLIS = 250; // Wait this long after the last keystroke before selecting or searching the database
+	private static final ClientSummary LONG_NAME = prototypeName("Maximiliana", "Vanderwoodsen-Smith"); // Sizes the rows of the results list
+	private static final int PAGE_SIZE = 100; // Clients fetched from the database at a time; more are fetched as the list is scrolled
+	
 	private FoodPantryManager fpm; // The panel that gets updated
 	private SearchPanelModel spm;
 	private JPanel lookUpPanel; // Holds labels, text fields, and search button
@@ -45,7 +62,11 @@ public class SearchPanel extends JPanel {
 	private JTextField ssn;
 	private JButton search;
 	private JScrollPane choiceList;
-	private JList<Client> selectClient; // Lists results of search
+	private JList<ClientSummary> selectClient; // Lists results of search
+	private Timer pause; // Runs once typing pauses
+	private ClientSearch inFlight; // Search waiting on the database; null if none
+	private int searchRequests = 0; // Bumped per search so a slow search cannot replace a newer one
+	private boolean awaitingSelection = false; // Whether the list shows results for what was typed, not yet selected from
 	
 	public SearchPanel(FoodPantryManager fpm, SearchPanelModel spm)
 	{		
@@ -97,8 +118,9 @@ public class SearchPanel extends JPanel {
 	 */
 	private void buildResultsList() {
 		// Build selectClient (the search results list)
-		selectClient = new JList<Client>();
+		selectClient = new JList<ClientSummary>();
 		selectClient.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		selectClient.setPrototypeCellValue(LONG_NAME); // Fixes the row size, so the list does not measure every result to lay itself out
 		
 		// Put in JScrollPane
 		choiceList = new JScrollPane(selectClient);
@@ -167,19 +189,189 @@ public class SearchPanel extends JPanel {
 			}
 		});
 		
+		// Search as the user types
+		pause = new Timer(TYPING_PAUSE_MILLIS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				typingPaused();
+			}
+		});
+		pause.setRepeats(false);
+		DocumentListener typed = new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				searchAsTyped();
+			}
+			
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				searchAsTyped();
+			}
+			
+			@Override
+			public void changedUpdate(DocumentEvent e) {}
+		};
+		firstName.getDocument().addDocumentListener(typed);
+		lastName.getDocument().addDocumentListener(typed);
+		ssn.getDocument().addDocumentListener(typed);
+		
 		selectClient.addListSelectionListener(new selectClientListListener());
+		
+		// Fetch further pages of database results as the list is scrolled
+		choiceList.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+			@Override
+			public void adjustmentValueChanged(AdjustmentEvent e) {
+				loadNextPageIfNeeded();
+			}
+		});
 	}
 	
+	/**
+	 * Search now; used for Enter and the Search button. Searches the
+	 * ClientDirectory can answer are answered from it; the rest go to the
+	 * database, so their results are always fresh.
+	 */
 	private void performSearch() {
-		// Query the database
-		ArrayList<Client> searchResults = Queries.searchClients(firstName.getText(), lastName.getText(), ssn.getText());
-		
-		// Put results from the model in the JList
+		pause.stop();
+		ClientSearch entered = currentSearch();
+		ArrayList<ClientSummary> found = lookUp(entered);
+		if(found != null) {
+			cancelInFlight();
+			spm.setData(found);
+			selectFirst();
+		} else {
+			fetch(entered, true);
+		}
+	}
+	
+	/**
+	 * Called on every edit of the search fields. A search the ClientDirectory
+	 * can answer, or one narrowing the last search fetched from the database,
+	 * is answered in memory and shown at once; otherwise the database is
+	 * searched once typing pauses. Either way the first result is selected,
+	 * loading that client, only once typing pauses.
+	 */
+	private void searchAsTyped() {
+		ClientSearch typed = currentSearch();
+		cancelInFlight();
+		ArrayList<ClientSummary> found = lookUp(typed);
+		if(found != null) {
+			spm.setData(found);
+			awaitingSelection = true;
+		} else if(spm.refine(typed)) {
+			awaitingSelection = true;
+		} else {
+			awaitingSelection = false;
+		}
+		pause.restart();
+	}
+	
+	/**
+	 * Search the ClientDirectory; if no name starts with what was typed, list
+	 * the names containing it instead
+	 * 
+	 * @return The matching clients; null if the search needs the database
+	 */
+	private ArrayList<ClientSummary> lookUp(ClientSearch search) {
+		ArrayList<ClientSummary> found = ClientDirectory.search(search);
+		if(found != null && found.isEmpty() && !(search.getFirstName().isEmpty() && search.getLastName().isEmpty())) {
+			found = ClientDirectory.searchContaining(search);
+		}
+		return found;
+	}
+	
+	private void typingPaused() {
+		if(awaitingSelection) {
+			selectFirst();
+		} else {
+			fetch(currentSearch(), false);
+		}
+	}
+	
+	/**
+	 * Search the database off the event thread, cancelling any search still
+	 * running
+	 * 
+	 * @param search
+	 *            The search to run
+	 * @param showLoading
+	 *            Whether to show the window as loading; not done while typing
+	 */
+	private void fetch(final ClientSearch search, boolean showLoading) {
+		cancelInFlight();
+		inFlight = search;
+		final int request = searchRequests;
+		Consumer<ArrayList<ClientSummary>> onResults = new Consumer<ArrayList<ClientSummary>>() {
+			public void accept(ArrayList<ClientSummary> searchResults) {
+				if(request != searchRequests) { // Superseded by a newer search
+					return;
+				}
+				inFlight = null;
+				showResults(searchResults, search);
+			}
+		};
+		CompletableFuture<ArrayList<ClientSummary>> pending = AsyncDatabase.searchClients(search, null, PAGE_SIZE);
+		if(showLoading) {
+			LoadingIndicator.load(this, pending, onResults);
+		} else {
+			pending.thenAcceptAsync(onResults, AsyncDatabase.EVENT_THREAD);
+		}
+	}
+	
+	/**
+	 * Supersede any search in progress, and stop MySQL working on it
+	 */
+	private void cancelInFlight() {
+		searchRequests++;
+		if(inFlight != null) {
+			inFlight.cancel();
+			inFlight = null;
+		}
+	}
+	
+	private ClientSearch currentSearch() {
+		return new ClientSearch(firstName.getText(), lastName.getText(), ssn.getText());
+	}
+	
+	private void showResults(ArrayList<ClientSummary> searchResults, ClientSearch search) {
+		// Put results in the model, which the JList reads from
 		if(searchResults != null) { // There was not a database or connection problem
-			spm.setData(searchResults);
-			selectClient.setModel(spm.getListModel());
+			spm.setData(searchResults, search, searchResults.size() < PAGE_SIZE);
+		}
+		selectFirst();
+	}
+	
+	/**
+	 * Fetch the next page of results from the database once the list is
+	 * scrolled to within a screenful of its end
+	 */
+	private void loadNextPageIfNeeded() {
+		if(inFlight != null || !spm.hasMorePages() || !isShowing()) {
+			return;
+		}
+		JScrollBar bar = choiceList.getVerticalScrollBar();
+		if(bar.getValue() + bar.getVisibleAmount() < bar.getMaximum() - bar.getVisibleAmount()) {
+			return;
 		}
 		
+		final ClientSearch search = spm.getFetchedBy();
+		inFlight = search;
+		final int request = searchRequests;
+		AsyncDatabase.searchClients(search, spm.getLastFetched(), PAGE_SIZE).thenAcceptAsync(new Consumer<ArrayList<ClientSummary>>() {
+			public void accept(ArrayList<ClientSummary> page) {
+				if(request != searchRequests) { // Superseded by a newer search
+					return;
+				}
+				inFlight = null;
+				if(page != null) { // There was not a database or connection problem
+					spm.appendPage(search, page, page.size() < PAGE_SIZE);
+					loadNextPageIfNeeded(); // In case the page did not fill the list
+				}
+			}
+		}, AsyncDatabase.EVENT_THREAD);
+	}
+	
+	private void selectFirst() {
 		// Select first item in results- this will trigger an event that will update panels based on active client
 		if(selectClient.getModel().getSize() > 0) {
 			selectClient.setSelectedIndex(0);
@@ -200,7 +392,7 @@ public class SearchPanel extends JPanel {
 	 * @param c
 	 *            The active client
 	 */
-	private void updatePanelWithActiveClient(Client c) {
+	private void updatePanelWithActiveClient(ClientSummary c) {
 		fpm.updatePanelsOnSearchSelectionChange(c);
 	}
 	
@@ -215,8 +407,9 @@ public class SearchPanel extends JPanel {
 	public void setSelected(Client c) {
 		if(c == null) {
 			selectClient.clearSelection();
+			return;
 		}
-		selectClient.setSelectedValue(c, true);
+		selectClient.setSelectedValue(new ClientSummary(c), true);
 	}
 	
 	/**
@@ -228,12 +421,21 @@ public class SearchPanel extends JPanel {
 	 */
 	public void refreshForClient(Client c) {
 		int selectedIndex = selectClient.getSelectedIndex();
-		spm.getListModel().setElementAt(c, selectedIndex);
+		spm.discardFetched(); // Holds the client as they were
+		spm.getListModel().setElementAt(new ClientSummary(c), selectedIndex);
 		setSelected(c);
 	}
 	
 	public void removeClient(Client c) {
-		spm.getListModel().removeElement(c);
+		spm.discardFetched();
+		spm.getListModel().removeElement(new ClientSummary(c));
+	}
+	
+	private static ClientSummary prototypeName(String firstName, String lastName) {
+		Client c = new Client();
+		c.setFirstName(firstName);
+		c.setLastName(lastName);
+		return new ClientSummary(c);
 	}
 	
 	/**
@@ -5,30 +5,126 @@ package gui.supportingelements;
 
 import java.util.ArrayList;
 
-import javax.swing.DefaultListModel;
-
-import database.Client;
+import database.ClientSearch;
+import database.ClientSummary;
 
 /**
  * This is the abstracted data model for the JList of SearchPanel. By
  * abstracting this, we can show the same search results across all instances of
- * SearchPanel.
+ * SearchPanel. It also keeps the last results fetched from the database, so
+ * that typing more of a name is answered from memory.
  * 
  * @author Scott Hoelsema
  */
 public class SearchPanelModel {
-	private ArrayList<Client> modelData = new ArrayList<Client>();
-	private DefaultListModel<Client> listModel = new DefaultListModel<Client>();
+	private static final long FETCHED_MAX_AGE_MILLIS = 30 * 1000L; // Go back to the database after this, to pick up clients added elsewhere
+	
+	private ArrayList<ClientSummary> modelData = new ArrayList<ClientSummary>();
+	private SearchResultsListModel listModel = new SearchResultsListModel(); // Reads from modelData
+	private ClientSearch fetchedBy; // Last search answered by the database; null if none
+	private ArrayList<ClientSummary> fetched; // Its results so far, which narrower searches are filtered from and further pages follow
+	private long fetchedAt;
+	private boolean fetchedAll; // Whether fetched holds every match, not just the pages loaded so far
+	private boolean fetchedChanged; // A client in fetched has since been changed or deleted
+	private boolean showingFetched; // Whether the list shows fetched as is, so further pages belong at its end
 	
-	public void setData(ArrayList<Client> searchResults) {		
+	public void setData(ArrayList<ClientSummary> searchResults) {		
 		modelData = searchResults;
+		showingFetched = false;
+		listModel.setResults(modelData);
 	}
 	
-	public DefaultListModel<Client> getListModel() {
-		listModel.clear();
-		for(int i = 0; i < modelData.size(); i++) {
-			listModel.add(i, modelData.get(i));
+	/**
+	 * Set the first page of results fetched from the database, and keep them
+	 * for refining and for fetching the next page
+	 * 
+	 * @param searchResults
+	 *            The clients matching search
+	 * @param search
+	 *            The search that was run
+	 * @param complete
+	 *            Whether these are all the matching clients
+	 */
+	public void setData(ArrayList<ClientSummary> searchResults, ClientSearch search, boolean complete) {
+		modelData = new ArrayList<ClientSummary>(searchResults); // Rows may be edited or removed; fetched stays as the database returned it
+		fetched = searchResults;
+		fetchedBy = search;
+		fetchedAt = System.currentTimeMillis();
+		fetchedAll = complete;
+		fetchedChanged = false;
+		showingFetched = true;
+		listModel.setResults(modelData);
+	}
+	
+	/**
+	 * Add the next page of fetched results to the end of the list
+	 * 
+	 * @param search
+	 *            The search the page was fetched for; ignored if the list no
+	 *            longer shows its results
+	 * @param page
+	 *            The clients following getLastFetched()
+	 * @param complete
+	 *            Whether this is the last page
+	 */
+	public void appendPage(ClientSearch search, ArrayList<ClientSummary> page, boolean complete) {
+		if(search != fetchedBy || !showingFetched) { // Another panel has searched since
+			return;
 		}
+		fetched.addAll(page);
+		fetchedAll = complete;
+		modelData.addAll(page);
+		listModel.rowsAppended(page.size());
+	}
+	
+	/**
+	 * @return Whether the list shows fetched results that have more pages
+	 */
+	public boolean hasMorePages() {
+		return showingFetched && !fetchedAll;
+	}
+	
+	public ClientSearch getFetchedBy() {
+		return fetchedBy;
+	}
+	
+	/**
+	 * @return The last client fetched, which the next page follows; null if
+	 *         none
+	 */
+	public ClientSummary getLastFetched() {
+		return fetched == null || fetched.isEmpty() ? null : fetched.get(fetched.size() - 1);
+	}
+	
+	/**
+	 * Set the results of a search that narrows the last one fetched from the
+	 * database, without going back to the database
+	 * 
+	 * @param search
+	 *            The narrower search
+	 * @return False, leaving the data alone, if search does not narrow the
+	 *         last fetched search, or those results are incomplete or too old
+	 *         to trust
+	 */
+	public boolean refine(ClientSearch search) {
+		if(fetchedBy == null || !fetchedAll || fetchedChanged || System.currentTimeMillis() - fetchedAt > FETCHED_MAX_AGE_MILLIS || !search.refines(fetchedBy)) {
+			return false;
+		}
+		modelData = search.filter(fetched);
+		showingFetched = false;
+		listModel.setResults(modelData);
+		return true;
+	}
+	
+	/**
+	 * Stop refining from the last fetched results; called when a client in
+	 * them has been changed or deleted. Further pages can still be fetched.
+	 */
+	public void discardFetched() {
+		fetchedChanged = true;
+	}
+	
+	public SearchResultsListModel getListModel() {
 		return listModel;
 	}
 }
\ No newline at end of file
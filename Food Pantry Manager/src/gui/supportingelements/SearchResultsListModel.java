@@ -0,0 +1,78 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package gui.supportingelements;
+
+import java.util.ArrayList;
+
+import javax.swing.AbstractListModel;
+
+import database.ClientSummary;
+
+/**
+ * The list model behind every SearchPanel's results. The JLists read straight
+ * from the results list handed in, rather than from a copy made one element
+ * and one event at a time as DefaultListModel requires, so showing even the
+ * whole client directory costs a couple of events.
+ *
+ * @author Scott Hoelsema
+ */
+public class SearchResultsListModel extends AbstractListModel<ClientSummary> {
+	private ArrayList<ClientSummary> results = new ArrayList<ClientSummary>();
+
+	@Override
+	public int getSize() {
+		return results.size();
+	}
+
+	@Override
+	public ClientSummary getElementAt(int index) {
+		return results.get(index);
+	}
+
+	/**
+	 * Show new results. Announced as every old row removed and every new row
+	 * added, two events in all; that is what clears the selection in each
+	 * JList, where a single contents-changed event would leave selections
+	 * pointing at whichever client now has that row.
+	 *
+	 * @param newResults
+	 *            The results to show; kept and read from directly, not copied
+	 */
+	public void setResults(ArrayList<ClientSummary> newResults) {
+		int oldSize = results.size();
+		results = new ArrayList<ClientSummary>(0);
+		if(oldSize > 0) {
+			fireIntervalRemoved(this, 0, oldSize - 1);
+		}
+		results = newResults;
+		if(results.size() > 0) {
+			fireIntervalAdded(this, 0, results.size() - 1);
+		}
+	}
+
+	/**
+	 * Announce rows already added to the end of the results list
+	 *
+	 * @param count
+	 *            How many rows were added
+	 */
+	public void rowsAppended(int count) {
+		if(count > 0) {
+			fireIntervalAdded(this, results.size() - count, results.size() - 1);
+		}
+	}
+
+	public void setElementAt(ClientSummary element, int index) {
+		results.set(index, element);
+		fireContentsChanged(this, index, index);
+	}
+
+	public void removeElement(ClientSummary element) {
+		int index = results.indexOf(element);
+		if(index >= 0) {
+			results.remove(index);
+			fireIntervalRemoved(this, index, index);
+		}
+	}
+}
@@ -4,13 +4,22 @@
 package utils;
 
 import java.awt.GridLayout;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -18,16 +27,29 @@ import javax.swing.JPanel;
 import javax.swing.JPasswordField;
 import javax.swing.ProgressMonitor;
 
-import org.jasypt.util.text.BasicTextEncryptor;
-
-import database.Appointment;
-import database.Client;
+import database.BackupTable;
 import database.DatabaseConnection;
-import database.Household;
+import database.IBackupRecord;
+import database.NoConnectionException;
 import database.Queries;
+import database.ReadSnapshot;
+import database.RowCursor;
+import database.SchemaMigrations;
 
 public class Backup extends Thread {
+	private static final int PARALLEL_READERS = 3; // Snapshot connections when reading in parallel; one per table for a full backup
+	private static final String STATE_FILE = "backup_state.properties";
+	private static final String STATE_FULL_BACKUP_AT = "full_backup_at"; // When the last full backup was taken, in milliseconds
+	private static final String STATE_CHANGED_SINCE = "changed_since"; // Watermark of the last backup, by the database's clock
+	private static final long WATERMARK_OVERLAP_MILLIS = 60 * 1000; // Rows written just before the watermark may commit after it; backing them up twice does no harm
+	private static final int CLIENTS_PROGRESS = 40; // Shares of the progress bar, which runs to 170
+	private static final int APPOINTMENTS_PROGRESS = 80;
+	private static final int HOUSEHOLDS_PROGRESS = 50;
 	private ProgressMonitor pm;
+	private final AtomicInteger progress = new AtomicInteger();
+	private volatile boolean failed = false; // Set once any table fails, so the others stop reading
+	private ExecutorService encryptionWorkers;
+	private BackupCipher cipher;
 	private String encryptionPassword;
 	private JPanel encryptionPasswordInputPanel;
 	private JPasswordField encryptionPasswordOne;
@@ -151,238 +173,317 @@ public class Backup extends Thread {
 			}
 		}
 		
-		if(backupClients() && !pm.isCanceled()) {
-			if(backupAppointments() && !pm.isCanceled()) {
-				if(backupHouseholds() && !pm.isCanceled()) {
-					return true;
-				}
-			}
+		// Derive the encryption key once, for the whole backup file
+		try {
+			cipher = new BackupCipher(encryptionPassword);
+		} catch (GeneralSecurityException e) {
+			Logger.logThrowable(e);
+			JOptionPane.showMessageDialog(null, "Encryption is not available on this computer.", "Error", JOptionPane.ERROR_MESSAGE);
+			e.printStackTrace();
+			return false;
 		}
 		
-		return false;
-	}
-	
-	private boolean backupClients() {
-		pm.setProgress(0);
+		// Read every table from one snapshot, so that a pickup made while the backup runs is in all of the files or none of them
+		final ReadSnapshot snapshot;
+		try {
+			snapshot = ReadSnapshot.open(Configuration.BACKUP_PARALLEL_SNAPSHOT ? PARALLEL_READERS : 1); // One reader never holds off other stations' writes
+		} catch (NoConnectionException e) {
+			JOptionPane.showMessageDialog(null, "Could not connect to the database.", "Error", JOptionPane.ERROR_MESSAGE);
+			return false;
+		} catch (SQLException e) {
+			Logger.logThrowable(e);
+			JOptionPane.showMessageDialog(null, "Database error.", "Error", JOptionPane.ERROR_MESSAGE);
+			e.printStackTrace();
+			return false;
+		}
+		
+		// An incremental backup holds only the rows changed or deleted since the last backup; every so often a full backup starts over
+		Properties state = loadBackupState();
+		final boolean incremental = isIncrementalDue(state);
+		final Timestamp changedSince = incremental ? new Timestamp(Timestamp.valueOf(state.getProperty(STATE_CHANGED_SINCE)).getTime() - WATERMARK_OVERLAP_MILLIS) : null;
+		Timestamp watermark = SchemaMigrations.isUpToDate() ? Queries.getBackupWatermark(snapshot) : null;
+		
+		ArrayList<Table> tables = new ArrayList<Table>();
+		final byte mode = incremental ? BackupContainer.MODE_UPSERT : BackupContainer.MODE_INSERT;
+		tables.add(new Table(BackupTable.CLIENT, mode, CLIENTS_PROGRESS) {
+			RowCursor<? extends IBackupRecord> open() {
+				return incremental ? Queries.streamClientsChangedSince(snapshot, changedSince) : Queries.streamAllClients(snapshot);
+			}
+		});
+		tables.add(new Table(BackupTable.APPOINTMENT, mode, APPOINTMENTS_PROGRESS) {
+			RowCursor<? extends IBackupRecord> open() {
+				return incremental ? Queries.streamAppointmentsChangedSince(snapshot, changedSince) : Queries.streamAllAppointments(snapshot);
+			}
+		});
+		tables.add(new Table(BackupTable.HOUSEHOLD, mode, HOUSEHOLDS_PROGRESS) {
+			RowCursor<? extends IBackupRecord> open() {
+				return incremental ? Queries.streamHouseholdsChangedSince(snapshot, changedSince) : Queries.streamAllHouseholds(snapshot);
+			}
+		});
+		if(incremental) {
+			tables.add(new Table(BackupTable.DELETED_ROW, BackupContainer.MODE_DELETE, 0) {
+				RowCursor<? extends IBackupRecord> open() {
+					return Queries.streamDeletionsSince(snapshot, changedSince);
+				}
+			});
+		}
 		
-		// Create client backup file
+		// Name the backup file; its timestamp is the order RestoreUtility replays backups in
 		Timestamp nowTM = new Timestamp(System.currentTimeMillis());
 		String now = nowTM.toString().replace(':', '.');
 		now = now.replace(' ', '_');
-		File clientsSQL = new File(Configuration.localOrNetworkBackupDirectory + now + "_Clients.sql");
+		final String filePrefix = Configuration.localOrNetworkBackupDirectory + now + (incremental ? "_Incremental_" : "_");
 		
+		pm.setProgress(0);
+		pm.setNote(incremental ? "Retrieving and encrypting changes since the last backup..." : "Retrieving and encrypting data...");
+		ExecutorService readers = Executors.newFixedThreadPool(tables.size());
+		encryptionWorkers = ParallelEncryptor.createWorkers();
+		ArrayList<BackupContainer.SectionWriter> sections = new ArrayList<BackupContainer.SectionWriter>();
 		try {
-			clientsSQL.createNewFile();
-						
-			// Set up encryption
-			BasicTextEncryptor bte = new BasicTextEncryptor();
-			bte.setPassword(encryptionPassword);
-			
-			// Get all clients
-			pm.setNote("Retrieving and encrypting client data...");
-			ArrayList<Client> allClients = Queries.getAllClients();
-			
-			// One by one...
-			StringBuilder sb = new StringBuilder();
-			for(Client c : allClients) {
-				// Get insert statement
-				String insertStatement = c.asInsertStatement();
-				
-				// Encrypt and add to StringBuilder
-				sb.append(bte.encrypt(insertStatement));
-				sb.append("\n");
-				
+			// One reader per table, each writing its own section; when the snapshot has fewer connections they take turns
+			ArrayList<Future<BackupContainer.SectionWriter>> pending = new ArrayList<Future<BackupContainer.SectionWriter>>();
+			for(int i = 0; i < tables.size(); i++) {
+				final Table t = tables.get(i);
+				final int number = i;
+				pending.add(readers.submit(new Callable<BackupContainer.SectionWriter>() {
+					public BackupContainer.SectionWriter call() {
+						return backupTable(t.open(), t, number, new File(filePrefix + t.table.getName() + ".section"));
+					}
+				}));
 			}
-			pm.setProgress(7);
-			
-			// Write to file
-			if(Configuration.isLocalOrNetworkBackup)
-				pm.setNote("Writing client data to local backup file...");
-				
-			FileOutputStream fout = new FileOutputStream(clientsSQL);
-			DataOutputStream dout = new DataOutputStream(fout);
-			dout.writeBytes(sb.toString());
-			
-			// Close outputs
-			dout.close();
-			fout.close();
-			
-			// Update progress
-			if(Configuration.isDropBoxBackup)
-				pm.setProgress(15);
-			else
-				pm.setProgress(40);
-			
-			// Upload file to dropbox
-			if(Configuration.isDropBoxBackup) {
-				pm.setNote("Uploading client data to DropBox...");
-				Utilities.uploadToDropbox(clientsSQL);
-				pm.setProgress(40);
-				
-				// If no local backup, delete created file
-				if(!Configuration.isLocalOrNetworkBackup) {
-					clientsSQL.delete();
+			for(Future<BackupContainer.SectionWriter> f : pending) {
+				BackupContainer.SectionWriter section = f.get();
+				if(section != null) {
+					sections.add(section);
 				}
 			}
-			
-			return true;
-		} catch (FileNotFoundException e) {
+		} catch (InterruptedException | ExecutionException e) {
 			Logger.logThrowable(e);
-			JOptionPane.showMessageDialog(null, "File Not Found Exception", "Error", JOptionPane.ERROR_MESSAGE);
+			JOptionPane.showMessageDialog(null, "Backup failed.", "Error", JOptionPane.ERROR_MESSAGE);
 			e.printStackTrace();
+			discard(sections);
 			return false;
-		} catch (IOException e) {
+		} finally {
+			failed = true; // Stops any reader still running if we got here early
+			readers.shutdownNow();
+			encryptionWorkers.shutdownNow();
+			try {
+				readers.awaitTermination(1, TimeUnit.MINUTES); // Their cursors must be closed before the snapshot is
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			snapshot.close();
+		}
+		
+		if(sections.size() < tables.size() || pm.isCanceled()) {
+			discard(sections);
+			return false;
+		}
+		
+		// Join the sections into one file, in the order they are restored
+		File backupFile;
+		try {
+			backupFile = BackupContainer.assemble(new File(filePrefix + "Backup" + BackupContainer.FILE_EXTENSION), incremental, cipher, sections);
+		} catch (IOException | GeneralSecurityException e) {
 			Logger.logThrowable(e);
 			JOptionPane.showMessageDialog(null, "I/O Exception", "Error", JOptionPane.ERROR_MESSAGE);
 			e.printStackTrace();
+			discard(sections);
 			return false;
-		}	
-	}
-	
-	public boolean backupAppointments() {
-		// Set up output file and stream
-		Timestamp nowTM = new Timestamp(System.currentTimeMillis());
-		String now = nowTM.toString().replace(':', '.');
-		now = now.replace(' ', '_');
-		File appointmentsSQL = new File(Configuration.localOrNetworkBackupDirectory + now + "_Appointments.sql");
-		try {
-			appointmentsSQL.createNewFile();
-						
-			// Set up encryption
-			BasicTextEncryptor bte = new BasicTextEncryptor();
-			bte.setPassword(encryptionPassword);
-			
-			// Get all clients
-			pm.setNote("Retrieving and encrypting appointment data...");
-			ArrayList<Appointment> allAppts = Queries.getAllAppointments();
-						
-			// One by one...
-			StringBuilder sb = new StringBuilder();
-			for(Appointment a : allAppts) {
-				// Get insert statement
-				String insertStatement = a.asInsertStatement();
-				
-				// Encrypt and add to StringBuilder
-				sb.append(bte.encrypt(insertStatement));
-				sb.append("\n");
-			}
-			pm.setProgress(52);
-			
-			// Write to file
-			if(Configuration.isLocalOrNetworkBackup)
-				pm.setNote("Writing appointment data to local backup file...");
-				
-			FileOutputStream fout = new FileOutputStream(appointmentsSQL);
-			DataOutputStream dout = new DataOutputStream(fout);
-			dout.writeBytes(sb.toString());
-			
-			// Close outputs
-			dout.close();
-			fout.close();
-			
-			// Update progress
-			if(Configuration.isDropBoxBackup)
-				pm.setProgress(66);
-			else
-				pm.setProgress(120);
+		}
+		
+		// Upload file to dropbox
+		if(Configuration.isDropBoxBackup) {
+			pm.setNote("Uploading backup to DropBox...");
+			boolean uploaded = Utilities.uploadToDropbox(backupFile);
+			pm.setProgress(pm.getMaximum());
 			
-			// Upload file to dropbox
-			if(Configuration.isDropBoxBackup) {
-				pm.setNote("Uploading appointment data to DropBox...");
-				Utilities.uploadToDropbox(appointmentsSQL);
-				pm.setProgress(120);
-				
-				// If no local backup, delete created file
+			// Keep the file and the last backup's watermark, so the next backup covers these changes again
+			if(!uploaded) {
 				if(!Configuration.isLocalOrNetworkBackup) {
-					appointmentsSQL.delete();
+					JOptionPane.showMessageDialog(null, "The backup was not uploaded and has been kept at " + backupFile.getAbsolutePath() + ".", "Error", JOptionPane.ERROR_MESSAGE);
 				}
+				return false;
 			}
 			
-			return true;
-		} catch (FileNotFoundException e) {
-			Logger.logThrowable(e);
-			JOptionPane.showMessageDialog(null, "File Not Found Exception", "Error", JOptionPane.ERROR_MESSAGE);
-			e.printStackTrace();
+			// If no local backup, delete created file
+			if(!Configuration.isLocalOrNetworkBackup) {
+				backupFile.delete();
+			}
+		}
+		
+		// The next incremental backup picks up from here
+		if(watermark != null) {
+			saveBackupState(state, watermark, incremental);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Read what the last backup recorded in backup_state.properties
+	 * 
+	 * @return The recorded state; empty if there is none
+	 */
+	private Properties loadBackupState() {
+		Properties state = new Properties();
+		File stateFile = new File(Configuration.localOrNetworkBackupDirectory + STATE_FILE);
+		if(stateFile.exists()) {
+			try {
+				FileInputStream in = new FileInputStream(stateFile);
+				try {
+					state.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				Logger.logThrowable(e);
+				e.printStackTrace();
+				state.clear(); // Take a full backup
+			}
+		}
+		return state;
+	}
+	
+	/**
+	 * Whether this backup can be incremental: incremental backups are turned
+	 * on, the database tracks changes (SchemaMigrations has brought it up to
+	 * date), and the last full backup into this directory is recent enough
+	 */
+	private boolean isIncrementalDue(Properties state) {
+		if(Configuration.FULL_BACKUP_INTERVAL_DAYS <= 0 || !SchemaMigrations.isUpToDate()) {
+			return false;
+		}
+		try {
+			long lastFull = Long.parseLong(state.getProperty(STATE_FULL_BACKUP_AT));
+			Timestamp.valueOf(state.getProperty(STATE_CHANGED_SINCE));
+			return System.currentTimeMillis() - lastFull < TimeUnit.DAYS.toMillis(Configuration.FULL_BACKUP_INTERVAL_DAYS);
+		} catch (IllegalArgumentException | NullPointerException e) { // Missing or garbled; NumberFormatException is an IllegalArgumentException
 			return false;
+		}
+	}
+	
+	/**
+	 * Record how far this backup got, for the next backup to continue from
+	 * 
+	 * @param watermark
+	 *            The latest change this backup includes, by the database's
+	 *            clock
+	 */
+	private void saveBackupState(Properties state, Timestamp watermark, boolean incremental) {
+		if(!incremental) {
+			state.setProperty(STATE_FULL_BACKUP_AT, String.valueOf(System.currentTimeMillis()));
+		}
+		state.setProperty(STATE_CHANGED_SINCE, watermark.toString());
+		try {
+			FileOutputStream out = new FileOutputStream(Configuration.localOrNetworkBackupDirectory + STATE_FILE);
+			try {
+				state.store(out, "Where the next incremental backup of " + Configuration.APP_NAME + " starts");
+			} finally {
+				out.close();
+			}
 		} catch (IOException e) {
 			Logger.logThrowable(e);
-			JOptionPane.showMessageDialog(null, "I/O Exception", "Error", JOptionPane.ERROR_MESSAGE);
-			e.printStackTrace();
-			return false;
+			e.printStackTrace(); // The next backup is a full one
 		}
 	}
 	
-	public boolean backupHouseholds() {
-		// Set up output file and stream
-		Timestamp nowTM = new Timestamp(System.currentTimeMillis());
-		String now = nowTM.toString().replace(':', '.');
-		now = now.replace(' ', '_');
-		File householdsSQL = new File(Configuration.localOrNetworkBackupDirectory + now + "_Households.sql");
+	/**
+	 * Back up one table, or its changes, as a section of the backup file. Each
+	 * row is added to the section as it arrives from the database, so only a
+	 * few blocks of rows are held in memory at a time; the section file is
+	 * written under a temporary name and only given its name once every row
+	 * is in it. Runs alongside the other tables; if any of them fails, the
+	 * rest stop.
+	 * 
+	 * @param rows
+	 *            Cursor over the table's rows; closed by this method. Null if
+	 *            it could not be opened, in which case Queries has already
+	 *            reported the problem
+	 * @param t
+	 *            The table
+	 * @param number
+	 *            The section's place in the backup file
+	 * @param sectionFile
+	 *            Where to write the section
+	 * @return The finished section; null if the table was not backed up
+	 */
+	private BackupContainer.SectionWriter backupTable(RowCursor<? extends IBackupRecord> rows, Table t, int number, File sectionFile) {
+		if(rows == null) {
+			failed = true;
+			return null;
+		}
 		
+		boolean written = false;
 		try {
-			householdsSQL.createNewFile();
-			
-			// Set up encryption
-			BasicTextEncryptor bte = new BasicTextEncryptor();
-			bte.setPassword(encryptionPassword);
-			
-			// Get all clients
-			pm.setNote("Retrieving and encrypting household data...");
-			ArrayList<Household> allHouseholds = Queries.getAllHouseholds();
-			
-			// One by one...
-			StringBuilder sb = new StringBuilder();
-			for(Household h : allHouseholds) {
-				// Get insert statement
-				String insertStatement = h.asInsertStatement();
-				
-				// Encrypt and add to StringBuilder
-				sb.append(bte.encrypt(insertStatement));
-				sb.append("\n");
+			// One by one, add to the section, which compresses and encrypts blocks of rows in parallel
+			BackupContainer.SectionWriter section = new BackupContainer.SectionWriter(t.table, t.mode, number, sectionFile, cipher, encryptionWorkers);
+			try {
+				while(rows.hasNext()) {
+					if(failed || pm.isCanceled()) {
+						return null;
+					}
+					section.add(rows.next());
+				}
+				if(!rows.isComplete()) {
+					JOptionPane.showMessageDialog(null, "Database error.", "Error", JOptionPane.ERROR_MESSAGE);
+					return null;
+				}
+				section.finish();
+			} finally {
+				section.close(); // Deletes the partial file unless finished
 			}
-			pm.setProgress(129);
-			
-			// Write to file
-			if(Configuration.isLocalOrNetworkBackup)
-				pm.setNote("Writing household data to local backup file...");
-				
-			FileOutputStream fout = new FileOutputStream(householdsSQL);
-			DataOutputStream dout = new DataOutputStream(fout);
-			dout.writeBytes(sb.toString());
-			
-			// Close outputs
-			dout.close();
-			fout.close();
+			written = true;
 			
 			// Update progress
 			if(Configuration.isDropBoxBackup)
-				pm.setProgress(140);
+				pm.setProgress(progress.addAndGet(t.progressShare / 2));
 			else
-				pm.setProgress(170);
+				pm.setProgress(progress.addAndGet(t.progressShare));
 			
-			// Upload file to dropbox
-			if(Configuration.isDropBoxBackup) {
-				pm.setNote("Uploading household data to DropBox...");
-				Utilities.uploadToDropbox(householdsSQL);
-				pm.setProgress(170);
-				
-				// If no local backup, delete created file
-				if(!Configuration.isLocalOrNetworkBackup) {
-					householdsSQL.delete();
-				}
-			}
-			
-			return true;
-		} catch (FileNotFoundException e) {
-			Logger.logThrowable(e);
-			JOptionPane.showMessageDialog(null, "File Not Found Exception", "Error", JOptionPane.ERROR_MESSAGE);
-			e.printStackTrace();
-			return false;
+			return section;
 		} catch (IOException e) {
-			Logger.logThrowable(e);
-			JOptionPane.showMessageDialog(null, "I/O Exception", "Error", JOptionPane.ERROR_MESSAGE);
-			e.printStackTrace();
-			return false;
+			if(!failed) { // Not just the reader being stopped
+				Logger.logThrowable(e);
+				JOptionPane.showMessageDialog(null, "I/O Exception", "Error", JOptionPane.ERROR_MESSAGE);
+				e.printStackTrace();
+			}
+			return null;
+		} finally {
+			if(!written) {
+				failed = true;
+			}
+			rows.close();
 		}
 	}
+	
+	/**
+	 * Delete the section files of a backup that did not finish
+	 */
+	private void discard(ArrayList<BackupContainer.SectionWriter> sections) {
+		for(BackupContainer.SectionWriter section : sections) {
+			section.discard();
+		}
+	}
+	
+	/**
+	 * One table to back up, and how to read it
+	 */
+	private abstract class Table {
+		final BackupTable table;
+		final byte mode; // How RestoreUtility restores the rows; a BackupContainer.MODE_ constant
+		final int progressShare;
+		
+		Table(BackupTable table, byte mode, int progressShare) {
+			this.table = table;
+			this.mode = mode;
+			this.progressShare = progressShare;
+		}
+		
+		/**
+		 * @return A cursor over the rows to back up; null if it could not be
+		 *         opened, which Queries has already reported
+		 */
+		abstract RowCursor<? extends IBackupRecord> open();
+	}
 }
@@ -0,0 +1,104 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts the blocks of one backup file with AES-GCM. The key is derived
+ * from the password once per file, with PBKDF2 and a random salt that is
+ * saved in the file's header along with the iteration count; after that each
+ * block costs only AES. GCM also authenticates every block, so a restore
+ * notices a block that was changed, moved or swapped with another.
+ *
+ * A block's nonce is its section number and its number within the section.
+ * The key is new for every file, so no nonce is ever used twice with it.
+ *
+ * @author Scott Hoelsema
+ */
+public class BackupCipher {
+	public static final int MANIFEST_SECTION = -1; // Section number the manifest is encrypted under
+	private static final String KEY_ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final String CIPHER = "AES/GCM/NoPadding";
+	private static final int ITERATIONS = 310000;
+	private static final int SALT_BYTES = 16;
+	private static final int KEY_BITS = 256;
+	private static final int TAG_BITS = 128;
+	private final byte[] salt;
+	private final SecretKeySpec key;
+	private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+		@Override
+		protected Cipher initialValue() {
+			try {
+				return Cipher.getInstance(CIPHER);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e); // Every Java 8 runtime has AES-GCM
+			}
+		}
+	};
+
+	/**
+	 * Derive a key from the password with a new salt; takes a fraction of a
+	 * second, on purpose
+	 *
+	 * @param password
+	 *            The encryption password
+	 */
+	public BackupCipher(String password) throws GeneralSecurityException {
+		salt = new byte[SALT_BYTES];
+		new SecureRandom().nextBytes(salt);
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, KEY_BITS);
+		try {
+			key = new SecretKeySpec(SecretKeyFactory.getInstance(KEY_ALGORITHM).generateSecret(spec).getEncoded(), "AES");
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * Write what a restore needs to derive the key again: byte salt length,
+	 * the salt, int iteration count
+	 */
+	public void writeKeyParameters(DataOutputStream out) throws IOException {
+		out.writeByte(salt.length);
+		out.write(salt);
+		out.writeInt(ITERATIONS);
+	}
+
+	/**
+	 * Encrypt one block; safe to call from several threads at once
+	 *
+	 * @param section
+	 *            The section's number in the file, from 0, or
+	 *            MANIFEST_SECTION
+	 * @param block
+	 *            The block's number in the section, from 0
+	 * @param associated
+	 *            Bytes the block is bound to without being encrypted, which
+	 *            the restore must supply again
+	 * @param plain
+	 *            The block
+	 * @return The encrypted block, followed by its authentication tag
+	 */
+	public byte[] encrypt(int section, long block, byte[] associated, byte[] plain) throws GeneralSecurityException {
+		Cipher cipher = ciphers.get();
+		cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce(section, block)));
+		cipher.updateAAD(associated);
+		return cipher.doFinal(plain);
+	}
+
+	private static byte[] nonce(int section, long block) {
+		return ByteBuffer.allocate(12).putInt(section).putLong(block).array();
+	}
+}
@@ -0,0 +1,245 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import database.BackupTable;
+import database.IBackupRecord;
+
+/**
+ * The backup file: every table of one backup in a single file, each row
+ * stored as typed binary values rather than an INSERT statement, compressed
+ * and encrypted a block at a time. RestoreUtility reads it back into SQL.
+ *
+ * Layout, written with DataOutputStream:
+ * <ul>
+ * <li>Header: the bytes "FPMB", int format version, boolean incremental,
+ * long time of the backup in milliseconds, byte salt length, the salt, int
+ * key derivation iterations</li>
+ * <li>One section per table: byte 'S', UTF table name, byte mode (MODE_*),
+ * short column count and per column UTF name and byte type (BackupTable's
+ * types), short derived column count and per column UTF name; then blocks,
+ * each an int length followed by that many bytes, ended by a length of 0</li>
+ * <li>Manifest: byte 'M', int length and the manifest, encrypted as section
+ * BackupCipher.MANIFEST_SECTION's block 0 and bound to the header's bytes.
+ * It holds int section count, and per section UTF table name, long row count
+ * and long CRC32 of its rows</li>
+ * </ul>
+ *
+ * A block is up to BLOCK_SIZE bytes of whole rows, compressed with Deflater,
+ * then encrypted by BackupCipher with AES-GCM as its section's and its own
+ * number, bound to the table's name. A row is an int length,
+ * then per column a byte 0 for NULL, or 1 followed by the value: an int for
+ * INT columns, otherwise an int length and the value's UTF-8 bytes. The
+ * manifest's CRC32 covers each row's length and bytes, so a restore can tell
+ * that every row came back intact.
+ *
+ * Format version 1 encrypted each block with Jasypt's BasicBinaryEncryptor,
+ * which derives a key for every block, and had no salt in the header and a
+ * manifest in the clear; RestoreUtility still reads it.
+ *
+ * Sections are written to files of their own so tables can be backed up at
+ * the same time, then joined into the backup file by assemble().
+ *
+ * @author Scott Hoelsema
+ */
+public class BackupContainer {
+	public static final String FILE_EXTENSION = ".fpmb";
+	public static final int FORMAT_VERSION = 2;
+	public static final byte MODE_INSERT = 0; // Full backup: INSERT each row
+	public static final byte MODE_UPSERT = 1; // Incremental backup: INSERT, or overwrite the row already there
+	public static final byte MODE_DELETE = 2; // Rows of BackupTable.DELETED_ROW: delete the row each names
+	private static final byte[] MAGIC = {'F', 'P', 'M', 'B'};
+	private static final byte SECTION = 'S';
+	private static final byte MANIFEST = 'M';
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * Join finished sections into the backup file, with the header before
+	 * them and the manifest after. The section files are deleted.
+	 *
+	 * @param target
+	 *            The backup file
+	 * @param incremental
+	 *            Whether this is an incremental backup
+	 * @param cipher
+	 *            The cipher the sections were encrypted with
+	 * @param sections
+	 *            The sections, finished, in the order of their section
+	 *            numbers, which is the order to restore them
+	 * @return The backup file
+	 */
+	public static File assemble(File target, boolean incremental, BackupCipher cipher, List<SectionWriter> sections) throws IOException, GeneralSecurityException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(header);
+		headerOut.write(MAGIC);
+		headerOut.writeInt(FORMAT_VERSION);
+		headerOut.writeBoolean(incremental);
+		headerOut.writeLong(System.currentTimeMillis());
+		cipher.writeKeyParameters(headerOut);
+
+		ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+		DataOutputStream manifestOut = new DataOutputStream(manifest);
+		manifestOut.writeInt(sections.size());
+		for(SectionWriter section : sections) {
+			manifestOut.writeUTF(section.table.getName());
+			manifestOut.writeLong(section.rows);
+			manifestOut.writeLong(section.crc.getValue());
+		}
+		byte[] encryptedManifest = cipher.encrypt(BackupCipher.MANIFEST_SECTION, 0, header.toByteArray(), manifest.toByteArray());
+
+		BackupFileWriter file = new BackupFileWriter(target);
+		try {
+			DataOutputStream out = new DataOutputStream(file);
+			header.writeTo(out);
+			for(SectionWriter section : sections) {
+				Files.copy(section.sectionFile.toPath(), out);
+			}
+			out.writeByte(MANIFEST);
+			out.writeInt(encryptedManifest.length);
+			out.write(encryptedManifest);
+			out.flush();
+			file.commit();
+		} finally {
+			file.close();
+		}
+		for(SectionWriter section : sections) {
+			section.sectionFile.delete();
+		}
+		return target;
+	}
+
+	/**
+	 * Writes one table's section to a file of its own
+	 */
+	public static class SectionWriter implements Closeable {
+		private final BackupTable table;
+		private final byte[] types;
+		private final File sectionFile;
+		private final BackupFileWriter file;
+		private final DataOutputStream out;
+		private final ParallelEncryptor encryptor;
+		private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+		private final ByteArrayOutputStream row = new ByteArrayOutputStream(512);
+		private final DataOutputStream rowOut = new DataOutputStream(row);
+		private final CRC32 crc = new CRC32();
+		private final DataOutputStream blockOut = new DataOutputStream(new CheckedOutputStream(block, crc)); // Checksums each row as it is added, for the manifest
+		private long rows = 0;
+
+		/**
+		 * @param table
+		 *            The table the rows come from
+		 * @param mode
+		 *            How the rows are to be restored; a MODE_ constant
+		 * @param number
+		 *            The section's place in the backup file, from 0
+		 * @param sectionFile
+		 *            Where to write the section until it is assembled
+		 * @param cipher
+		 *            The backup's cipher
+		 * @param workers
+		 *            Threads to compress and encrypt on, from
+		 *            ParallelEncryptor.createWorkers()
+		 */
+		public SectionWriter(BackupTable table, byte mode, int number, File sectionFile, BackupCipher cipher, ExecutorService workers) throws IOException {
+			this.table = table;
+			this.types = table.getTypes();
+			this.sectionFile = sectionFile;
+			this.file = new BackupFileWriter(sectionFile);
+			this.out = new DataOutputStream(file);
+			this.encryptor = new ParallelEncryptor(cipher, number, table.getName(), out, workers);
+
+			out.writeByte(SECTION);
+			out.writeUTF(table.getName());
+			out.writeByte(mode);
+			String[] columns = table.getColumns();
+			out.writeShort(columns.length);
+			for(int i = 0; i < columns.length; i++) {
+				out.writeUTF(columns[i]);
+				out.writeByte(types[i]);
+			}
+			String[] derived = table.getDerivedColumns();
+			out.writeShort(derived.length);
+			for(String column : derived) {
+				out.writeUTF(column);
+			}
+		}
+
+		/**
+		 * Add a row to the section
+		 */
+		public void add(IBackupRecord record) throws IOException {
+			Object[] values = record.getBackupValues();
+			row.reset();
+			for(int i = 0; i < types.length; i++) {
+				if(values[i] == null) {
+					rowOut.writeByte(0);
+				} else if(types[i] == BackupTable.INT) {
+					rowOut.writeByte(1);
+					rowOut.writeInt((Integer)values[i]);
+				} else {
+					byte[] text = values[i].toString().getBytes(StandardCharsets.UTF_8);
+					rowOut.writeByte(1);
+					rowOut.writeInt(text.length);
+					rowOut.write(text);
+				}
+			}
+
+			blockOut.writeInt(row.size());
+			row.writeTo(blockOut);
+			rows++;
+
+			if(block.size() >= BLOCK_SIZE) {
+				encryptor.add(block.toByteArray());
+				block.reset();
+			}
+		}
+
+		/**
+		 * Write out the last of the rows and save the section file
+		 */
+		public void finish() throws IOException {
+			if(block.size() > 0) {
+				encryptor.add(block.toByteArray());
+				block.reset();
+			}
+			encryptor.finish();
+			out.writeInt(0);
+			out.flush();
+			file.commit();
+		}
+
+		/**
+		 * Abandon the section if it was not finished
+		 */
+		@Override
+		public void close() throws IOException {
+			encryptor.close();
+			file.close();
+		}
+
+		/**
+		 * Delete the section file once it is no longer wanted
+		 */
+		public void discard() {
+			sectionFile.delete();
+		}
+
+		public long getRows() {
+			return rows;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a backup file through a fixed size buffer, so a backup of any size
+ * uses the same memory. Bytes go to a temporary file next to the backup file,
+ * which only takes the backup file's name once commit() is called; a backup
+ * that fails or is cancelled part way never leaves a truncated file under a
+ * backup's name. Closing without committing deletes the temporary file.
+ *
+ * @author Scott Hoelsema
+ */
+public class BackupFileWriter extends OutputStream {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final File target;
+	private final Path temp;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private boolean open = true;
+
+	/**
+	 * @param target
+	 *            The backup file to write; replaced if it already exists
+	 * @throws IOException
+	 *             The temporary file could not be created
+	 */
+	public BackupFileWriter(File target) throws IOException {
+		this.target = target;
+		Path directory = target.getAbsoluteFile().getParentFile().toPath();
+		temp = Files.createTempFile(directory, target.getName() + ".", ".part");
+		channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if(!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.put((byte)b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0) {
+			if(!buffer.hasRemaining()) {
+				flush();
+			}
+			int chunk = Math.min(len, buffer.remaining());
+			buffer.put(b, off, chunk);
+			off += chunk;
+			len -= chunk;
+		}
+	}
+
+	/**
+	 * Write out whatever is buffered, make sure it is on disk, and move the
+	 * temporary file to the backup file's name
+	 *
+	 * @return The backup file
+	 */
+	public File commit() throws IOException {
+		flush();
+		channel.force(true);
+		channel.close();
+		open = false;
+		try {
+			Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return target;
+	}
+
+	/**
+	 * Abandon the file if it has not been committed; does nothing afterward
+	 */
+	@Override
+	public void close() throws IOException {
+		if(open) {
+			open = false;
+			channel.close();
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Write what is buffered to the temporary file
+	 */
+	@Override
+	public void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -59,12 +59,22 @@ public class Configuration {
 	public static final String DATABASE_IP_ADDRESS = properties.getProperty("database.ip_address");
 	public static final String DATABASE_PORT = properties.getProperty("database.port");
 	public static final String DATABASE_NAME = properties.getProperty("database.name");
+	public static final int DATABASE_POOL_MAX_CONNECTIONS = Integer.valueOf(properties.getProperty("database.pool_max_connections", "4"));
+	public static final int DATABASE_POOL_MAX_IDLE_SECONDS = Integer.valueOf(properties.getProperty("database.pool_max_idle_seconds", "600"));
+	public static final int DATABASE_POOL_BORROW_TIMEOUT_SECONDS = Integer.valueOf(properties.getProperty("database.pool_borrow_timeout_seconds", "10"));
+	public static final int DATABASE_STATEMENT_CACHE_SIZE = Integer.valueOf(properties.getProperty("database.statement_cache_size", "32"));
+	public static final int DATABASE_HEALTH_CHECK_INTERVAL_SECONDS = Integer.valueOf(properties.getProperty("database.health_check_interval_seconds", "30"));
+	public static final int DATABASE_CLIENT_PROFILE_CACHE_SIZE = Integer.valueOf(properties.getProperty("database.client_profile_cache_size", "64"));
+	public static final int DATABASE_CLIENT_DIRECTORY_SYNC_SECONDS = Integer.valueOf(properties.getProperty("database.client_directory_sync_seconds", "60"));
 	
 	public static String errorLogDirectory = properties.getProperty("application.error_log_directory");
 	public static boolean isLocalOrNetworkBackup = Boolean.valueOf(properties.getProperty("application.do_local_backup"));
 	public static String localOrNetworkBackupDirectory = properties.getProperty("application.local_backup_directory");
 	public static boolean isDropBoxBackup = Boolean.valueOf(properties.getProperty("application.do_dropbox_backup"));
 	public static String dropBoxApiKey = properties.getProperty("application.dropbox_api_key");
+	public static final int BACKUP_ENCRYPTION_THREADS = Integer.valueOf(properties.getProperty("application.backup_encryption_threads", "0"));
+	public static final int FULL_BACKUP_INTERVAL_DAYS = Integer.valueOf(properties.getProperty("application.full_backup_interval_days", "7"));
+	public static final boolean BACKUP_PARALLEL_SNAPSHOT = Boolean.valueOf(properties.getProperty("application.backup_parallel_snapshot", "false"));
 	
 	public static final int DEFAULT_WEEKS_TO_NEXT_APPOINTMENT = Integer.valueOf(properties.getProperty("application.default_weeks_to_next_appointment"));
 }
@@ -0,0 +1,159 @@
+// Copyright (C) 2015 Scott Hoelsema
+// Licensed under GPL v3.0; see LICENSE for full text
+
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses and encrypts the blocks of a backup section on several threads
+ * at once, and writes them out in the order they were added, each preceded by
+ * its length. Compression and encryption are the slowest part of a backup;
+ * spreading them across the processor's cores is what makes a backup faster.
+ *
+ * Blocks go to a pool of worker threads, made by createWorkers() and shared
+ * by every section of a backup, and are encrypted with the backup's
+ * BackupCipher, bound to the section's table name. Finished blocks are
+ * written in the order they were started, and adding blocks waits once a few
+ * per thread are outstanding, so memory stays bounded however large the
+ * table.
+ *
+ * @author Scott Hoelsema
+ */
+public class ParallelEncryptor implements Closeable {
+	private static final int BLOCKS_PER_THREAD = 4;
+	private final BackupCipher cipher;
+	private final int section;
+	private final byte[] tableName;
+	private final DataOutputStream out;
+	private final ExecutorService workers;
+	private final int maxOutstanding;
+	private long blocks = 0; // Blocks added so far; numbers the next one
+	private final ArrayDeque<Future<byte[]>> outstanding = new ArrayDeque<Future<byte[]>>();
+
+	/**
+	 * @param cipher
+	 *            The backup's cipher
+	 * @param section
+	 *            The section's number in the backup file
+	 * @param table
+	 *            The section's table
+	 * @param out
+	 *            Where the encrypted blocks are written
+	 * @param workers
+	 *            Threads to encrypt on, from createWorkers(); left running
+	 *            when this is closed
+	 */
+	public ParallelEncryptor(BackupCipher cipher, int section, String table, DataOutputStream out, ExecutorService workers) {
+		this.cipher = cipher;
+		this.section = section;
+		this.tableName = table.getBytes(StandardCharsets.UTF_8);
+		this.out = out;
+		this.workers = workers;
+		this.maxOutstanding = threadCount() * BLOCKS_PER_THREAD;
+	}
+
+	/**
+	 * Start the encryption threads, one per processor core unless configured
+	 * otherwise; shut them down once the backup is done
+	 */
+	public static ExecutorService createWorkers() {
+		return Executors.newFixedThreadPool(threadCount(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Backup-Encryption-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Queue a block to be compressed, encrypted and written. Writes out
+	 * finished blocks as needed to keep the number outstanding bounded.
+	 *
+	 * @param block
+	 *            The block; must not be changed afterward
+	 */
+	public void add(final byte[] block) throws IOException {
+		final long number = blocks++;
+		outstanding.addLast(workers.submit(new Callable<byte[]>() {
+			public byte[] call() throws GeneralSecurityException {
+				return cipher.encrypt(section, number, tableName, compress(block));
+			}
+		}));
+		if(outstanding.size() >= maxOutstanding) {
+			writeOldestBlock();
+		}
+	}
+
+	/**
+	 * Write every block added so far
+	 */
+	public void finish() throws IOException {
+		while(!outstanding.isEmpty()) {
+			writeOldestBlock();
+		}
+	}
+
+	/**
+	 * Drop blocks not yet written
+	 */
+	@Override
+	public void close() {
+		for(Future<byte[]> f : outstanding) {
+			f.cancel(true);
+		}
+		outstanding.clear();
+	}
+
+	private static byte[] compress(byte[] block) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		try {
+			deflater.setInput(block);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.length / 2 + 64);
+			byte[] chunk = new byte[8192];
+			while(!deflater.finished()) {
+				compressed.write(chunk, 0, deflater.deflate(chunk));
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end(); // Frees the native memory now rather than at garbage collection
+		}
+	}
+
+	private void writeOldestBlock() throws IOException {
+		byte[] encrypted;
+		try {
+			encrypted = outstanding.peekFirst().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while encrypting backup.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Error encrypting backup.", e.getCause());
+		}
+		outstanding.removeFirst();
+		out.writeInt(encrypted.length);
+		out.write(encrypted);
+	}
+
+	private static int threadCount() {
+		return Configuration.BACKUP_ENCRYPTION_THREADS > 0 ? Configuration.BACKUP_ENCRYPTION_THREADS : Runtime.getRuntime().availableProcessors();
+	}
+}
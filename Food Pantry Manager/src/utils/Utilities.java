@@ -15,6 +15,7 @@ import java.util.Locale;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import com.dropbox.core.DbxClient;
 import com.dropbox.core.DbxException;
@@ -48,6 +49,21 @@ public class Utilities {
 		frame.setLocation(size.width/2 - frame.getWidth()/2, size.height/2 - frame.getHeight()/2);
 	}
 	
+	/**
+	 * Run something that touches Swing components on the event dispatch
+	 * thread; immediately if already on it, otherwise as soon as the event
+	 * thread gets to it
+	 * 
+	 * @param r The code to run
+	 */
+	public static void invokeOnEventThread(Runnable r) {
+		if(SwingUtilities.isEventDispatchThread()) {
+			r.run();
+		} else {
+			SwingUtilities.invokeLater(r);
+		}
+	}
+	
 	/**
 	 * Translates MySQL Timestamp to a more readable date, e.g. "January 1, 2012"
 	 * 
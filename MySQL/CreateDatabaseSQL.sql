@@ -15,12 +15,18 @@ CREATE  TABLE IF NOT EXISTS `food_pantry_manager`.`client` (
   `ssn` VARCHAR(11) NOT NULL ,
   `address` VARCHAR(45) NOT NULL ,
   `city` VARCHAR(45) NOT NULL ,
+  `address_key` VARCHAR(91) NULL DEFAULT NULL ,
   `gender` VARCHAR(45) NOT NULL ,
   `birthday` DATE NULL DEFAULT NULL ,
   `telephone` VARCHAR(45) NULL DEFAULT NULL ,
   `notes` TINYTEXT NULL DEFAULT NULL ,
   `valid_as_of` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP ,
-  PRIMARY KEY (`client_id`) )
+  PRIMARY KEY (`client_id`) ,
+  INDEX `ClientName` (`last_name` ASC, `first_name` ASC) ,
+  INDEX `ClientCity` (`city` ASC) ,
+  INDEX `ClientAddress` (`address` ASC, `city` ASC) ,
+  INDEX `ClientAddressKey` (`address_key` ASC) ,
+  INDEX `ClientValidAsOf` (`valid_as_of` ASC) )
 ENGINE = InnoDB
 AUTO_INCREMENT = 0
 DEFAULT CHARACTER SET = latin1;
@@ -34,9 +40,12 @@ CREATE  TABLE IF NOT EXISTS `food_pantry_manager`.`appointment` (
   `client_id` INT(11) NULL DEFAULT NULL ,
   `date` DATETIME NOT NULL ,
   `pounds` INT(11) NULL DEFAULT NULL ,
+  `valid_as_of` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP ,
   PRIMARY KEY (`appointment_id`) ,
-  INDEX `ClientID` (`client_id` ASC) ,
   INDEX `ClientIDCheck_fromAppointment` (`client_id` ASC) ,
+  INDEX `AppointmentDate` (`date` ASC) ,
+  INDEX `ClientPickUps` (`client_id` ASC, `pounds` ASC) ,
+  INDEX `AppointmentValidAsOf` (`valid_as_of` ASC) ,
   CONSTRAINT `ClientIDCheck_fromAppointment`
     FOREIGN KEY (`client_id` )
     REFERENCES `food_pantry_manager`.`client` (`client_id` )
@@ -57,8 +66,10 @@ CREATE  TABLE IF NOT EXISTS `food_pantry_manager`.`household` (
   `birthday` DATE NULL DEFAULT NULL ,
   `gender` VARCHAR(45) NOT NULL ,
   `relationship` VARCHAR(45) NOT NULL ,
+  `valid_as_of` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP ,
   PRIMARY KEY (`household_member_id`) ,
   INDEX `ClientID` (`client_id` ASC) ,
+  INDEX `HouseholdValidAsOf` (`valid_as_of` ASC) ,
   CONSTRAINT `ClientIDCheck_fromHousehold`
     FOREIGN KEY (`client_id` )
     REFERENCES `food_pantry_manager`.`client` (`client_id` )
@@ -69,6 +80,46 @@ AUTO_INCREMENT = 0
 DEFAULT CHARACTER SET = latin1;
 
 
+-- -----------------------------------------------------
+-- Table `food_pantry_manager`.`deleted_row`
+-- Rows deleted from client, appointment and household, for incremental backups
+-- Triggers do not fire for foreign key actions; the restore deletes clients with
+-- foreign key checks on, which removes their household members and keeps their
+-- appointments with no client, as the original delete did
+-- -----------------------------------------------------
+CREATE  TABLE IF NOT EXISTS `food_pantry_manager`.`deleted_row` (
+  `deletion_id` INT(11) NOT NULL AUTO_INCREMENT ,
+  `table_name` VARCHAR(20) NOT NULL ,
+  `row_id` INT(11) NOT NULL ,
+  `deleted_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ,
+  PRIMARY KEY (`deletion_id`) ,
+  INDEX `DeletedAt` (`deleted_at` ASC) )
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = latin1;
+
+DROP TRIGGER IF EXISTS `food_pantry_manager`.`client_deleted`;
+CREATE TRIGGER `food_pantry_manager`.`client_deleted` AFTER DELETE ON `food_pantry_manager`.`client` FOR EACH ROW
+  INSERT INTO `food_pantry_manager`.`deleted_row` (`table_name`, `row_id`) VALUES ('client', OLD.`client_id`);
+DROP TRIGGER IF EXISTS `food_pantry_manager`.`appointment_deleted`;
+CREATE TRIGGER `food_pantry_manager`.`appointment_deleted` AFTER DELETE ON `food_pantry_manager`.`appointment` FOR EACH ROW
+  INSERT INTO `food_pantry_manager`.`deleted_row` (`table_name`, `row_id`) VALUES ('appointment', OLD.`appointment_id`);
+DROP TRIGGER IF EXISTS `food_pantry_manager`.`household_deleted`;
+CREATE TRIGGER `food_pantry_manager`.`household_deleted` AFTER DELETE ON `food_pantry_manager`.`household` FOR EACH ROW
+  INSERT INTO `food_pantry_manager`.`deleted_row` (`table_name`, `row_id`) VALUES ('household', OLD.`household_member_id`);
+
+
+-- -----------------------------------------------------
+-- Table `food_pantry_manager`.`schema_version`
+-- Migrations Food Pantry Manager has applied at log in
+-- -----------------------------------------------------
+CREATE  TABLE IF NOT EXISTS `food_pantry_manager`.`schema_version` (
+  `version` INT(11) NOT NULL ,
+  `description` VARCHAR(100) NOT NULL ,
+  `applied_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ,
+  PRIMARY KEY (`version`) )
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = latin1;
+
 
 SET SQL_MODE=@OLD_SQL_MODE;
 SET FOREIGN_KEY_CHECKS=@OLD_FOREIGN_KEY_CHECKS;